@@ -0,0 +1,26 @@
+package com.wonkglorg.database.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Helpers shared by the benchmarks
+ */
+final class Benchmarks{
+	private Benchmarks() {
+	}
+	
+	static void deleteRecursively(Path directory) throws IOException {
+		if(directory == null || !Files.exists(directory)){
+			return;
+		}
+		try(Stream<Path> paths = Files.walk(directory)){
+			for(Path path : paths.sorted(Comparator.reverseOrder()).toList()){
+				Files.deleteIfExists(path);
+			}
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package com.wonkglorg.database.benchmarks;
+
+import com.wonkglorg.database.DatabaseType;
+import com.wonkglorg.database.databases.SqliteMemoryDatabase;
+import com.wonkglorg.database.datasources.FileDataSource;
+import com.wonkglorg.database.datasources.ValidationPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@code getConnection()} on the single connection data sources once the connection is
+ * open, this is paid on every database call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GetConnectionBenchmark{
+	private Path directory;
+	private FileDataSource fileDataSource;
+	private FileDataSource alwaysValidatedDataSource;
+	private SqliteMemoryDatabase memoryDatabase;
+	
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		directory = Files.createTempDirectory("connection-benchmark");
+		fileDataSource = new FileDataSource(DatabaseType.SQLITE, directory.resolve("file.db"));
+		fileDataSource.getConnection();
+		alwaysValidatedDataSource = new FileDataSource(DatabaseType.SQLITE, directory.resolve("validated.db"));
+		alwaysValidatedDataSource.setValidationPolicy(ValidationPolicy.always());
+		alwaysValidatedDataSource.getConnection();
+		memoryDatabase = new SqliteMemoryDatabase();
+		memoryDatabase.getConnection();
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		fileDataSource.getConnection().unwrap(Connection.class).close();
+		alwaysValidatedDataSource.getConnection().unwrap(Connection.class).close();
+		memoryDatabase.close();
+		Benchmarks.deleteRecursively(directory);
+	}
+	
+	@Benchmark
+	public Connection fileDataSource() {
+		return fileDataSource.getConnection();
+	}
+	
+	@Benchmark
+	public Connection fileDataSourceAlwaysValidated() {
+		return alwaysValidatedDataSource.getConnection();
+	}
+	
+	@Benchmark
+	public Connection memoryDatabase() {
+		return memoryDatabase.getConnection();
+	}
+}
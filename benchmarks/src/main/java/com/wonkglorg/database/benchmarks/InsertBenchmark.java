@@ -0,0 +1,116 @@
+package com.wonkglorg.database.benchmarks;
+
+import com.wonkglorg.database.DatabaseType;
+import com.wonkglorg.database.datasources.FileDataSource;
+import com.wonkglorg.database.datasources.MemoryDataSource;
+import com.wonkglorg.database.datasources.TypedDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inserting {@value #ROWS} rows one statement at a time in auto commit mode compared to a single
+ * batch in one transaction. Results are per row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InsertBenchmark{
+	static final int ROWS = 100;
+	private static final String INSERT = "INSERT INTO benchmark(id, name, amount) VALUES(?, ?, ?)";
+	
+	@Param({"file", "memory"})
+	public String target;
+	
+	private Path directory;
+	private TypedDataSource dataSource;
+	private Connection connection;
+	private int nextId;
+	
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		directory = Files.createTempDirectory("insert-benchmark");
+		dataSource = switch(target){
+			case "file" -> new FileDataSource(DatabaseType.SQLITE, directory.resolve("insert.db"));
+			case "memory" -> new MemoryDataSource(DatabaseType.SQLITE_MEMORY);
+			default -> throw new IllegalArgumentException("Unknown target " + target);
+		};
+		connection = dataSource.getConnection();
+		try(Statement statement = connection.createStatement()){
+			statement.execute("CREATE TABLE benchmark(id INTEGER PRIMARY KEY, name TEXT, amount REAL)");
+		}
+	}
+	
+	@Setup(Level.Iteration)
+	public void clear() throws SQLException {
+		try(Statement statement = connection.createStatement()){
+			statement.execute("DELETE FROM benchmark");
+		}
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		connection.unwrap(Connection.class).close();
+		Benchmarks.deleteRecursively(directory);
+	}
+	
+	private void bind(PreparedStatement statement) throws SQLException {
+		int id = nextId++;
+		statement.setInt(1, id);
+		statement.setString(2, "name-" + id);
+		statement.setDouble(3, id * 0.5);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void singleInserts() throws SQLException {
+		for(int i = 0; i < ROWS; i++){
+			try(PreparedStatement statement = connection.prepareStatement(INSERT)){
+				bind(statement);
+				statement.executeUpdate();
+			}
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public int[] batchedInsert() throws SQLException {
+		connection.setAutoCommit(false);
+		try(PreparedStatement statement = connection.prepareStatement(INSERT)){
+			for(int i = 0; i < ROWS; i++){
+				bind(statement);
+				statement.addBatch();
+			}
+			int[] result = statement.executeBatch();
+			connection.commit();
+			return result;
+		} catch(SQLException e){
+			connection.rollback();
+			throw e;
+		} finally{
+			connection.setAutoCommit(true);
+		}
+	}
+}
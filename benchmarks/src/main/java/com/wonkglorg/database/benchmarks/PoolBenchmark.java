@@ -0,0 +1,88 @@
+package com.wonkglorg.database.benchmarks;
+
+import com.wonkglorg.database.DatabaseType;
+import com.wonkglorg.database.datasources.PoolConfig;
+import com.wonkglorg.database.datasources.PooledServerDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Borrow and return throughput of {@link PooledServerDataSource}. With more threads than
+ * connections this measures the handoff between borrowers, with fewer the thread local fast path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoolBenchmark{
+	@Param({"4", "16"})
+	public int maxPoolSize;
+	
+	private Path directory;
+	private PooledServerDataSource pool;
+	
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		directory = Files.createTempDirectory("pool-benchmark");
+		pool = new PooledServerDataSource(DatabaseType.SQLITE, directory.resolve("pool.db").toString(), null, null, new PoolConfig().setMinIdle(maxPoolSize).setMaxPoolSize(maxPoolSize));
+		for(int i = 0; i < maxPoolSize; i++){
+			pool.getConnection().close();
+		}
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		pool.close();
+		Benchmarks.deleteRecursively(directory);
+	}
+	
+	private Connection borrowAndRelease() throws SQLException {
+		Connection connection = pool.getConnection();
+		connection.close();
+		return connection;
+	}
+	
+	@Benchmark
+	@Threads(1)
+	public Connection borrowRelease1Thread() throws SQLException {
+		return borrowAndRelease();
+	}
+	
+	@Benchmark
+	@Threads(4)
+	public Connection borrowRelease4Threads() throws SQLException {
+		return borrowAndRelease();
+	}
+	
+	@Benchmark
+	@Threads(16)
+	public Connection borrowRelease16Threads() throws SQLException {
+		return borrowAndRelease();
+	}
+	
+	@Benchmark
+	@Threads(32)
+	public Connection borrowRelease32Threads() throws SQLException {
+		return borrowAndRelease();
+	}
+}
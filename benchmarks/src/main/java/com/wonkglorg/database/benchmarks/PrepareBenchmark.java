@@ -0,0 +1,68 @@
+package com.wonkglorg.database.benchmarks;
+
+import com.wonkglorg.database.DatabaseType;
+import com.wonkglorg.database.datasources.FileDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of preparing and closing a statement, with and without the prepared statement cache
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrepareBenchmark{
+	private static final String SELECT = "SELECT id, name, amount FROM benchmark WHERE id = ? AND amount > ? ORDER BY name";
+	
+	@Param({"0", "32"})
+	public int statementCacheSize;
+	
+	private Path directory;
+	private Connection connection;
+	
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		directory = Files.createTempDirectory("prepare-benchmark");
+		FileDataSource dataSource = new FileDataSource(DatabaseType.SQLITE, directory.resolve("prepare.db"));
+		dataSource.setStatementCacheSize(statementCacheSize);
+		connection = dataSource.getConnection();
+		try(Statement statement = connection.createStatement()){
+			statement.execute("CREATE TABLE benchmark(id INTEGER PRIMARY KEY, name TEXT, amount REAL)");
+		}
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		connection.unwrap(Connection.class).close();
+		Benchmarks.deleteRecursively(directory);
+	}
+	
+	@Benchmark
+	public PreparedStatement prepareAndClose() throws SQLException {
+		PreparedStatement statement = connection.prepareStatement(SELECT);
+		statement.close();
+		return statement;
+	}
+}
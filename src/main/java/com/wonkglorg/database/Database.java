@@ -1,8 +1,23 @@
 package com.wonkglorg.database;
 
 import com.wonkglorg.database.datasources.TypedDataSource;
+import com.wonkglorg.database.datasources.AccessIntent;
+import com.wonkglorg.database.query.AsyncDatabase;
+import com.wonkglorg.database.query.ClassRowMapper;
+import com.wonkglorg.database.query.Queries;
+import com.wonkglorg.database.query.QueryCache;
+import com.wonkglorg.database.query.QueryStreams;
+import com.wonkglorg.database.query.RowMapper;
+import com.wonkglorg.database.query.StatementBinder;
+import com.wonkglorg.database.transfer.BulkTransfer;
+import com.wonkglorg.database.write.BatchWriter;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 /**
  * @author Wonkglorg
@@ -13,6 +28,8 @@ import java.util.logging.Logger;
 public abstract class Database<T extends TypedDataSource> implements AutoCloseable{
 	protected final Logger logger = Logger.getLogger(Database.class.getName());
 	protected final T dataSource;
+	private AsyncDatabase async;
+	private volatile QueryCache queryCache;
 	
 	protected Database(T dataSource) {
 		this.dataSource = dataSource;
@@ -43,6 +60,238 @@ public abstract class Database<T extends TypedDataSource> implements AutoCloseab
 		return input.replaceAll("[^a-zA-Z0-9]", "");
 	}
 	
+	/**
+	 * Creates a writer that collects rows for the statement and writes them in batches, each in
+	 * its own transaction. Has to be closed to write the remaining rows
+	 *
+	 * @param sql the statement every row is bound to
+	 * @return the writer
+	 */
+	public BatchWriter batchWriter(String sql) {
+		return new BatchWriter(dataSource, sql).setQueryCache(queryCache);
+	}
+	
+	/**
+	 * Creates a bulk loader for whole tables, imports invalidate the query cache set at this time
+	 *
+	 * @return the bulk transfer, see {@link BulkTransfer}
+	 */
+	public BulkTransfer bulkTransfer() {
+		return new BulkTransfer(dataSource).setQueryCache(queryCache);
+	}
+	
+	/**
+	 * Runs a query and maps every row, served from the query cache if one is set
+	 *
+	 * @param sql the query
+	 * @param mapper maps a row to an element of the list
+	 * @param parameters the values for its placeholders in order
+	 * @return the mapped rows
+	 */
+	public <R> List<R> query(String sql, RowMapper<R> mapper, Object... parameters) {
+		QueryCache cache = queryCache;
+		if(cache != null){
+			List<R> cached = cache.getIfPresent(sql, mapper, parameters);
+			if(cached != null){
+				return cached;
+			}
+		}
+		try(Connection connection = dataSource.getConnection(AccessIntent.READ)){
+			if(cache != null){
+				return cache.load(connection, sql, mapper, parameters);
+			}
+			return Queries.list(connection, sql, mapper, parameters);
+		} catch(SQLException e){
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Runs a query and maps every row to a record or class, see {@link ClassRowMapper}
+	 *
+	 * @param sql the query
+	 * @param type the class every row is mapped to
+	 * @param parameters the values for its placeholders in order
+	 * @return the mapped rows
+	 */
+	public <R> List<R> query(String sql, Class<R> type, Object... parameters) {
+		return query(sql, ClassRowMapper.of(type), parameters);
+	}
+	
+	/**
+	 * Runs a query and maps every row to a record or class, see {@link ClassRowMapper}
+	 *
+	 * @param sql the query
+	 * @param type the class every row is mapped to
+	 * @param binder sets the placeholders, e.g. {@link com.wonkglorg.database.query.Parameters}
+	 * @return the mapped rows
+	 */
+	public <R> List<R> query(String sql, Class<R> type, StatementBinder binder) {
+		return query(sql, ClassRowMapper.of(type), binder);
+	}
+	
+	/**
+	 * Runs a query whose placeholders are set by the binder, it is not served from the query
+	 * cache
+	 *
+	 * @param sql the query
+	 * @param mapper maps a row to an element of the list
+	 * @param binder sets the placeholders, e.g. {@link com.wonkglorg.database.query.Parameters}
+	 * @return the mapped rows
+	 */
+	public <R> List<R> query(String sql, RowMapper<R> mapper, StatementBinder binder) {
+		try(Connection connection = dataSource.getConnection(AccessIntent.READ)){
+			return Queries.list(connection, sql, mapper, binder);
+		} catch(SQLException e){
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Runs an update statement and invalidates the cached queries reading its table
+	 *
+	 * @param sql the statement
+	 * @param parameters the values for its placeholders in order
+	 * @return the update count
+	 */
+	public int update(String sql, Object... parameters) {
+		int count;
+		try(Connection connection = dataSource.getConnection(AccessIntent.WRITE); PreparedStatement statement = connection.prepareStatement(sql)){
+			for(int i = 0; i < parameters.length; i++){
+				statement.setObject(i + 1, parameters[i]);
+			}
+			count = statement.executeUpdate();
+		} catch(SQLException e){
+			throw new RuntimeException(e);
+		}
+		QueryCache cache = queryCache;
+		if(cache != null){
+			cache.onWrite(sql);
+		}
+		return count;
+	}
+	
+	/**
+	 * Runs an update statement whose placeholders are set by the binder and invalidates the
+	 * cached queries reading its table
+	 *
+	 * @param sql the statement
+	 * @param binder sets the placeholders, e.g. {@link com.wonkglorg.database.query.Parameters}
+	 * @return the update count
+	 */
+	public int update(String sql, StatementBinder binder) {
+		int count;
+		try(Connection connection = dataSource.getConnection(AccessIntent.WRITE); PreparedStatement statement = connection.prepareStatement(sql)){
+			binder.bind(statement);
+			count = statement.executeUpdate();
+		} catch(SQLException e){
+			throw new RuntimeException(e);
+		}
+		QueryCache cache = queryCache;
+		if(cache != null){
+			cache.onWrite(sql);
+		}
+		return count;
+	}
+	
+	/**
+	 * Caches the results of {@link #query(String, RowMapper, Object...)} and of the async facade.
+	 * Writes through {@link #update(String, Object...)}, the async facade and batch writers created
+	 * afterwards invalidate it, writes through {@link #getDataSource()} connections do not
+	 *
+	 * @param queryCache the cache, null to stop caching
+	 */
+	public void setQueryCache(QueryCache queryCache) {
+		AsyncDatabase current;
+		synchronized(this){
+			this.queryCache = queryCache;
+			current = async;
+		}
+		if(current != null){
+			current.setQueryCache(queryCache);
+		}
+	}
+	
+	public QueryCache getQueryCache() {
+		return queryCache;
+	}
+	
+	/**
+	 * Runs a query whose rows are mapped while the stream is read, fetching 1000 rows per round
+	 * trip. The stream has to be closed unless it is read to the end
+	 *
+	 * @param sql the query
+	 * @param mapper maps a row to an element of the stream
+	 * @param parameters the values for its placeholders in order
+	 * @return a stream of the mapped rows, see {@link QueryStreams}
+	 */
+	public <R> Stream<R> stream(String sql, RowMapper<R> mapper, Object... parameters) {
+		return stream(sql, 1000, mapper, parameters);
+	}
+	
+	/**
+	 * Runs a query whose rows are mapped while the stream is read. The stream has to be closed
+	 * unless it is read to the end
+	 *
+	 * @param sql the query
+	 * @param fetchSize how many rows the driver fetches per round trip
+	 * @param mapper maps a row to an element of the stream
+	 * @param parameters the values for its placeholders in order
+	 * @return a stream of the mapped rows, see {@link QueryStreams}
+	 */
+	public <R> Stream<R> stream(String sql, int fetchSize, RowMapper<R> mapper, Object... parameters) {
+		return QueryStreams.stream(dataSource, sql, fetchSize, mapper, parameters);
+	}
+	
+	/**
+	 * @return runs queries in the background on platform threads, at most as many at once as the
+	 * data source has connections and up to 1024 waiting. Created with the first call and closed
+	 * together with the database
+	 */
+	public synchronized AsyncDatabase async() {
+		if(async == null){
+			async = new AsyncDatabase(dataSource, 1024).setQueryCache(queryCache);
+		}
+		return async;
+	}
+	
+	/**
+	 * Replaces the facade returned by {@link #async()}, the previous one is closed after its tasks
+	 * finished
+	 *
+	 * @param maxPending how many submitted tasks can wait to be run
+	 * @param virtualThreads true to run every task on its own virtual thread if the jvm supports
+	 * them
+	 * @return the new facade
+	 */
+	public AsyncDatabase async(int maxPending, boolean virtualThreads) {
+		AsyncDatabase previous;
+		AsyncDatabase created = new AsyncDatabase(dataSource, maxPending, virtualThreads);
+		synchronized(this){
+			created.setQueryCache(queryCache);
+			previous = async;
+			async = created;
+		}
+		if(previous != null){
+			previous.close();
+		}
+		return created;
+	}
+	
+	/**
+	 * Closes the facade returned by {@link #async()} if one was created, waiting for its tasks
+	 */
+	protected void closeAsync() {
+		AsyncDatabase current;
+		synchronized(this){
+			current = async;
+			async = null;
+		}
+		if(current != null){
+			current.close();
+		}
+	}
+	
 	public DatabaseType getDatabaseType() {
 		return dataSource.getType();
 	}
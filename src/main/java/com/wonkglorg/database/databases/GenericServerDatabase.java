@@ -19,17 +19,29 @@ public class GenericServerDatabase<T extends TypedDataSource> extends Database<T
 	 */
 	@Override
 	public void close() {
+		closeAsync();
 		disconnect();
 	}
 	
+	/**
+	 * Closes the data source if it can be closed, pools stop their threads and close every
+	 * connection. Otherwise the connection of the data source is closed
+	 */
 	@Override
 	public void disconnect() {
+		if(dataSource instanceof AutoCloseable closeable){
+			try{
+				closeable.close();
+			} catch(Exception e){
+				throw new RuntimeException(e);
+			}
+			return;
+		}
 		try{
 			dataSource.getConnection().close();
 		} catch(SQLException e){
 			throw new RuntimeException(e);
 		}
-		
 	}
 	
 	@Override
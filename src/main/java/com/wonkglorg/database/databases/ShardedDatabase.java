@@ -0,0 +1,661 @@
+package com.wonkglorg.database.databases;
+
+import com.wonkglorg.database.DatabaseType;
+import com.wonkglorg.database.datasources.AccessIntent;
+import com.wonkglorg.database.datasources.ShardedDataSource;
+import com.wonkglorg.database.datasources.TypedDataSource;
+import com.wonkglorg.database.query.ClassRowMapper;
+import com.wonkglorg.database.query.Queries;
+import com.wonkglorg.database.query.QueryStreams;
+import com.wonkglorg.database.query.RowMapper;
+import com.wonkglorg.database.query.StatementBinder;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A database spread over the shards of a {@link ShardedDataSource}.
+ * <p>
+ * Statements for one key run on the shard owning it, see {@link #queryByKey} and
+ * {@link #updateByKey}. {@link #query}, {@link #update} and {@link #stream} run on every shard in
+ * parallel and merge the results, updates are not atomic across shards. At most as many shard
+ * tasks as the shards have connections run at the same time, see
+ * {@link ShardedDataSource#getMaxConnections()}, the others wait for a thread.
+ * <pre>
+ *     {@code
+ * ShardedDatabase database = new ShardedDatabase(new ShardedDataSource()
+ *         .addShard("users-0", new FileDataSource(DatabaseType.SQLITE, Path.of("users-0.db")))
+ *         .addShard("users-1", new FileDataSource(DatabaseType.SQLITE, Path.of("users-1.db"))));
+ * database.update("CREATE TABLE IF NOT EXISTS users(id INTEGER PRIMARY KEY, name TEXT)");
+ * database.updateByKey(42, "INSERT INTO users(id, name) VALUES(?, ?)", 42, "Ann");
+ * try(Stream<String> names = database.stream("SELECT name FROM users", row -> row.getString(1))){
+ *     names.forEach(System.out::println);
+ * }
+ * }
+ * </pre>
+ * It is not a {@link com.wonkglorg.database.Database}, query caching, the async facade, batch
+ * writers and bulk transfers need a single data source. Use a database on the data source of a shard for them.
+ */
+@SuppressWarnings("unused")
+public class ShardedDatabase implements AutoCloseable{
+	private static final Logger log = Logger.getLogger(ShardedDatabase.class.getName());
+	private static final AtomicInteger EXECUTOR_COUNTER = new AtomicInteger();
+	private static final Object END = new Object();
+	private static final Object NULL = new Object();
+	private static final int MOVE_BATCH_SIZE = 500;
+	private final ShardedDataSource dataSource;
+	private final ThreadPoolExecutor executor;
+	
+	public ShardedDatabase(ShardedDataSource dataSource) {
+		this.dataSource = dataSource;
+		int id = EXECUTOR_COUNTER.incrementAndGet();
+		AtomicInteger threadCounter = new AtomicInteger();
+		int threads = dataSource.getMaxConnections();
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+			Thread thread = new Thread(runnable, "sharded-database-" + id + "-" + threadCounter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+	
+	/**
+	 * Sizes the scatter threads to the connections of the current shards, shards can be added or
+	 * removed after the database was created
+	 */
+	private synchronized void resizeExecutor() {
+		int threads = dataSource.getMaxConnections();
+		if(threads > executor.getMaximumPoolSize()){
+			executor.setMaximumPoolSize(threads);
+			executor.setCorePoolSize(threads);
+		} else if(threads < executor.getMaximumPoolSize()){
+			executor.setCorePoolSize(threads);
+			executor.setMaximumPoolSize(threads);
+		}
+	}
+	
+	/**
+	 * @param key the shard key
+	 * @param intent what the connection will be used for
+	 * @return a connection to the shard owning the key
+	 */
+	public Connection getConnection(Object key, AccessIntent intent) {
+		try{
+			return dataSource.getConnection(key, intent);
+		} catch(SQLException e){
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Runs a query on the shard owning the key
+	 *
+	 * @param key the shard key
+	 * @param sql the query
+	 * @param mapper maps a row to an element of the list
+	 * @param parameters the values for its placeholders in order
+	 * @return the mapped rows
+	 */
+	public <R> List<R> queryByKey(Object key, String sql, RowMapper<R> mapper, Object... parameters) {
+		return query(dataSource.dataSourceFor(key), sql, mapper, statement -> Queries.bind(statement, parameters));
+	}
+	
+	/**
+	 * Runs an update statement on the shard owning the key
+	 *
+	 * @param key the shard key
+	 * @param sql the statement
+	 * @param parameters the values for its placeholders in order
+	 * @return the update count
+	 */
+	public int updateByKey(Object key, String sql, Object... parameters) {
+		return update(dataSource.dataSourceFor(key), sql, statement -> Queries.bind(statement, parameters));
+	}
+	
+	/**
+	 * Runs a streaming query on the shard owning the key, see {@link QueryStreams}
+	 *
+	 * @param key the shard key
+	 * @param sql the query
+	 * @param mapper maps a row to an element of the stream
+	 * @param parameters the values for its placeholders in order
+	 * @return a stream of the mapped rows, has to be closed unless it is read to the end
+	 */
+	public <R> Stream<R> streamByKey(Object key, String sql, RowMapper<R> mapper, Object... parameters) {
+		return openStream(dataSource.dataSourceFor(key), sql, 1000, mapper, parameters);
+	}
+	
+	/**
+	 * Runs the query on every shard in parallel
+	 *
+	 * @return the rows of all shards, grouped by shard in the order they were added
+	 */
+	public <R> List<R> query(String sql, RowMapper<R> mapper, Object... parameters) {
+		return query(sql, mapper, statement -> Queries.bind(statement, parameters));
+	}
+	
+	/**
+	 * Runs the query on every shard in parallel and maps every row to a record or class, see
+	 * {@link ClassRowMapper}
+	 *
+	 * @return the rows of all shards, grouped by shard in the order they were added
+	 */
+	public <R> List<R> query(String sql, Class<R> type, Object... parameters) {
+		return query(sql, ClassRowMapper.of(type), parameters);
+	}
+	
+	/**
+	 * Runs the query on every shard in parallel, the binder is called once per shard
+	 *
+	 * @return the rows of all shards, grouped by shard in the order they were added
+	 */
+	public <R> List<R> query(String sql, RowMapper<R> mapper, StatementBinder binder) {
+		List<R> rows = new ArrayList<>();
+		for(List<R> shardRows : scatter(shard -> query(shard, sql, mapper, binder))){
+			rows.addAll(shardRows);
+		}
+		return rows;
+	}
+	
+	/**
+	 * Runs the statement on every shard in parallel, shards that succeeded keep their changes if
+	 * another one fails
+	 *
+	 * @return the summed update count of all shards
+	 */
+	public int update(String sql, Object... parameters) {
+		return update(sql, statement -> Queries.bind(statement, parameters));
+	}
+	
+	/**
+	 * Runs the statement on every shard in parallel, the binder is called once per shard. Shards
+	 * that succeeded keep their changes if another one fails
+	 *
+	 * @return the summed update count of all shards
+	 */
+	public int update(String sql, StatementBinder binder) {
+		int count = 0;
+		for(int shardCount : scatter(shard -> update(shard, sql, binder))){
+			count += shardCount;
+		}
+		return count;
+	}
+	
+	/**
+	 * Runs the query on every shard in parallel and returns the rows as they arrive, fetching 1000
+	 * rows per round trip. The stream has to be closed unless it is read to the end
+	 *
+	 * @return the rows of all shards in no particular order
+	 */
+	public <R> Stream<R> stream(String sql, RowMapper<R> mapper, Object... parameters) {
+		return stream(sql, 1000, mapper, parameters);
+	}
+	
+	/**
+	 * Runs the query on every shard in parallel and returns the rows as they arrive. Every shard
+	 * buffers up to {@code fetchSize} rows ahead of the reader. The stream has to be closed
+	 * unless it is read to the end, a failing shard fails the stream
+	 *
+	 * @return the rows of all shards in no particular order
+	 */
+	public <R> Stream<R> stream(String sql, int fetchSize, RowMapper<R> mapper, Object... parameters) {
+		if(fetchSize < 1){
+			throw new IllegalArgumentException("fetchSize has to be at least 1");
+		}
+		Map<String, TypedDataSource> shards = dataSource.getShards();
+		Gather<R> gather = new Gather<>(shards.size(), fetchSize);
+		resizeExecutor();
+		for(Map.Entry<String, TypedDataSource> shard : shards.entrySet()){
+			executor.execute(() -> gather.produce(shard.getKey(), () -> openStream(shard.getValue(), sql, fetchSize, mapper, parameters)));
+		}
+		return StreamSupport.stream(gather, false).onClose(gather::close);
+	}
+	
+	/**
+	 * Runs the query on every shard in parallel and merges the rows in order. The query has to
+	 * return its rows sorted by the same order as the comparator. The stream has to be closed
+	 * unless it is read to the end
+	 *
+	 * @param sql the query, ordered by the sort key
+	 * @param comparator the order of the rows of every shard
+	 * @param mapper maps a row to an element of the stream
+	 * @param parameters the values for its placeholders in order
+	 * @return the rows of all shards in the order of the comparator
+	 */
+	public <R> Stream<R> streamSorted(String sql, Comparator<? super R> comparator, RowMapper<R> mapper, Object... parameters) {
+		//the queries run in parallel, scatter closes the opened streams if one shard fails
+		List<Stream<R>> streams = scatter(shard -> openStream(shard, sql, 1000, mapper, parameters));
+		SortedMerge<R> merge;
+		try{
+			merge = new SortedMerge<>(streams, comparator);
+		} catch(RuntimeException e){
+			streams.forEach(Stream::close);
+			throw e;
+		}
+		return StreamSupport.stream(merge, false).onClose(merge::close);
+	}
+	
+	/**
+	 * Moves the rows of the table that belong to another shard after shards were added or
+	 * removed. The keys of every shard are read in order and moved in batches of 500 misplaced keys,
+	 * the read is closed before a batch is moved and continues after its last key. Rows are copied to their new shard and then deleted from the
+	 * old one. Keys the new shard already holds rows for are not copied, those rows were written
+	 * after the shard was added or copied by an interrupted run and stay as they are. Until it
+	 * returns, queries by key may miss rows that have not been moved yet. A row written to the new
+	 * shard between the check of a batch and its insert is not detected, it either fails the move
+	 * on a unique key or ends up next to the moved rows. Rows with a null key are not moved
+	 *
+	 * @param table the table to rebalance
+	 * @param keyColumn the column holding the shard key, does not have to be unique
+	 * @return how many rows were removed from their old shard
+	 */
+	public long rebalance(String table, String keyColumn) {
+		long moved = 0;
+		for(Map.Entry<String, TypedDataSource> source : dataSource.getShards().entrySet()){
+			Object after = null;
+			boolean more = true;
+			while(more){
+				Map<String, List<Object>> misplaced = new LinkedHashMap<>();
+				int count = 0;
+				more = false;
+				String sql = "SELECT DISTINCT " + keyColumn + " FROM " + table + " WHERE " + keyColumn + (after == null ? " IS NOT NULL" : " > ?") + " ORDER BY " + keyColumn;
+				Object[] parameters = after == null ? new Object[0] : new Object[]{after};
+				//moving deletes from the source, so the keys are read up to a full batch and the read is closed first
+				try(Stream<Object> keys = openStream(source.getValue(), sql, 1000, row -> row.getObject(1), parameters)){
+					Iterator<Object> iterator = keys.iterator();
+					while(iterator.hasNext()){
+						Object key = iterator.next();
+						after = key;
+						String owner = dataSource.shardFor(key);
+						if(!owner.equals(source.getKey())){
+							misplaced.computeIfAbsent(owner, name -> new ArrayList<>()).add(key);
+							if(++count == MOVE_BATCH_SIZE){
+								more = true;
+								break;
+							}
+						}
+					}
+				}
+				for(Map.Entry<String, List<Object>> target : misplaced.entrySet()){
+					TypedDataSource targetDataSource = dataSource.getShards().get(target.getKey());
+					try{
+						moved += move(source.getValue(), targetDataSource, table, keyColumn, target.getValue());
+					} catch(SQLException e){
+						throw new RuntimeException("Failed to move rows of " + table + " from " + source.getKey() + " to " + target.getKey(), e);
+					}
+					log.log(Level.FINE, "Moved " + target.getValue().size() + " keys of " + table + " from " + source.getKey() + " to " + target.getKey());
+				}
+			}
+		}
+		return moved;
+	}
+	
+	private static int move(TypedDataSource source, TypedDataSource target, String table, String keyColumn, List<Object> keys) throws SQLException {
+		String in = keyColumn + " IN (" + String.join(", ", Collections.nCopies(keys.size(), "?")) + ")";
+		//the transactions turn auto commit off, shards sharing one connection must not see that
+		try(Connection from = source.getExclusiveConnection(AccessIntent.WRITE); Connection to = target.getExclusiveConnection(AccessIntent.WRITE)){
+			List<String> columns = new ArrayList<>();
+			List<Object[]> rows = new ArrayList<>();
+			try(PreparedStatement select = from.prepareStatement("SELECT * FROM " + table + " WHERE " + in)){
+				Queries.bind(select, keys.toArray());
+				try(ResultSet resultSet = select.executeQuery()){
+					ResultSetMetaData metaData = resultSet.getMetaData();
+					for(int i = 1; i <= metaData.getColumnCount(); i++){
+						columns.add(metaData.getColumnName(i));
+					}
+					while(resultSet.next()){
+						Object[] row = new Object[columns.size()];
+						for(int i = 0; i < row.length; i++){
+							row[i] = resultSet.getObject(i + 1);
+						}
+						rows.add(row);
+					}
+				}
+			}
+			int keyIndex = -1;
+			for(int i = 0; i < columns.size(); i++){
+				if(columns.get(i).equalsIgnoreCase(keyColumn)){
+					keyIndex = i;
+				}
+			}
+			if(keyIndex < 0){
+				throw new SQLException("Table " + table + " has no column " + keyColumn);
+			}
+			int keyPosition = keyIndex;
+			String insert = "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES (" + String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+			inTransaction(to, connection -> {
+				//rows already on the target are newer than the ones being moved
+				Set<Object> present = new HashSet<>();
+				try(PreparedStatement select = connection.prepareStatement("SELECT DISTINCT " + keyColumn + " FROM " + table + " WHERE " + in)){
+					Queries.bind(select, keys.toArray());
+					try(ResultSet resultSet = select.executeQuery()){
+						while(resultSet.next()){
+							present.add(keyIdentity(resultSet.getObject(1)));
+						}
+					}
+				}
+				try(PreparedStatement statement = connection.prepareStatement(insert)){
+					boolean batched = false;
+					for(Object[] row : rows){
+						if(!present.contains(keyIdentity(row[keyPosition]))){
+							Queries.bind(statement, row);
+							statement.addBatch();
+							batched = true;
+						}
+					}
+					if(batched){
+						statement.executeBatch();
+					}
+				}
+			});
+			inTransaction(from, connection -> {
+				try(PreparedStatement delete = connection.prepareStatement("DELETE FROM " + table + " WHERE " + in)){
+					Queries.bind(delete, keys.toArray());
+					delete.executeUpdate();
+				}
+			});
+			return rows.size();
+		}
+	}
+	
+	/**
+	 * @return an object equal for keys the shards treat as the same, see
+	 * {@link ShardedDataSource#shardFor(Object)}
+	 */
+	private static Object keyIdentity(Object key) {
+		return key instanceof byte[] bytes ? ByteBuffer.wrap(bytes) : String.valueOf(key);
+	}
+	
+	private interface TransactionWork{
+		void execute(Connection connection) throws SQLException;
+	}
+	
+	private static void inTransaction(Connection connection, TransactionWork work) throws SQLException {
+		boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+		try{
+			work.execute(connection);
+			connection.commit();
+		} catch(SQLException | RuntimeException e){
+			try{
+				connection.rollback();
+			} catch(SQLException rollbackException){
+				e.addSuppressed(rollbackException);
+			}
+			throw e;
+		} finally{
+			connection.setAutoCommit(autoCommit);
+		}
+	}
+	
+	private <R> List<R> query(TypedDataSource shard, String sql, RowMapper<R> mapper, StatementBinder binder) {
+		try(Connection connection = shard.getConnection(AccessIntent.READ)){
+			return Queries.list(connection, sql, mapper, binder);
+		} catch(SQLException e){
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private int update(TypedDataSource shard, String sql, StatementBinder binder) {
+		try(Connection connection = shard.getConnection(AccessIntent.WRITE); PreparedStatement statement = connection.prepareStatement(sql)){
+			binder.bind(statement);
+			return statement.executeUpdate();
+		} catch(SQLException e){
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private <R> Stream<R> openStream(TypedDataSource shard, String sql, int fetchSize, RowMapper<R> mapper, Object... parameters) {
+		return QueryStreams.stream(shard, sql, fetchSize, mapper, parameters);
+	}
+	
+	private interface ShardTask<R>{
+		R execute(TypedDataSource shard);
+	}
+	
+	/**
+	 * Runs the task on every shard in parallel and waits for all of them
+	 *
+	 * @return the results in the order the shards were added
+	 */
+	private <R> List<R> scatter(ShardTask<R> task) {
+		Map<String, TypedDataSource> shards = dataSource.getShards();
+		Map<String, CompletableFuture<R>> futures = new LinkedHashMap<>();
+		resizeExecutor();
+		for(Map.Entry<String, TypedDataSource> shard : shards.entrySet()){
+			futures.put(shard.getKey(), CompletableFuture.supplyAsync(() -> task.execute(shard.getValue()), executor));
+		}
+		List<R> results = new ArrayList<>();
+		RuntimeException failure = null;
+		for(Map.Entry<String, CompletableFuture<R>> future : futures.entrySet()){
+			try{
+				results.add(future.getValue().join());
+			} catch(CompletionException e){
+				RuntimeException shardFailure = new RuntimeException("Shard " + future.getKey() + " failed", e.getCause());
+				if(failure == null){
+					failure = shardFailure;
+				} else {
+					failure.addSuppressed(shardFailure);
+				}
+			}
+		}
+		if(failure != null){
+			for(R result : results){
+				if(result instanceof AutoCloseable closeable){
+					closeQuietly(closeable);
+				}
+			}
+			throw failure;
+		}
+		return results;
+	}
+	
+	private void closeQuietly(AutoCloseable closeable) {
+		try{
+			closeable.close();
+		} catch(Exception e){
+			log.log(Level.FINE, "Failed to close shard stream", e);
+		}
+	}
+	
+	/**
+	 * Stops the scatter threads and closes every shard
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+		try{
+			if(!executor.awaitTermination(30, TimeUnit.SECONDS)){
+				executor.shutdownNow();
+			}
+		} catch(InterruptedException e){
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		dataSource.close();
+	}
+	
+	/**
+	 * @return the type of the shards
+	 */
+	public DatabaseType getDatabaseType() {
+		return dataSource.getType();
+	}
+	
+	public ShardedDataSource getDataSource() {
+		return dataSource;
+	}
+	
+	/**
+	 * Collects the rows every shard reads on its own thread into one bounded queue, producers
+	 * wait while the reader is behind and stop once it closes the stream
+	 */
+	private final class Gather<R> extends Spliterators.AbstractSpliterator<R>{
+		private final BlockingQueue<Object> queue;
+		private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+		private final int producers;
+		private int finished = 0;
+		private volatile boolean closed = false;
+		
+		private Gather(int producers, int fetchSize) {
+			super(Long.MAX_VALUE, 0);
+			this.producers = producers;
+			this.queue = new ArrayBlockingQueue<>(Math.max(1, producers) * fetchSize);
+		}
+		
+		private interface StreamOpener<R>{
+			Stream<R> open();
+		}
+		
+		private void produce(String shard, StreamOpener<R> opener) {
+			try(Stream<R> rows = opener.open()){
+				Iterator<R> iterator = rows.iterator();
+				while(!closed && iterator.hasNext()){
+					R row = iterator.next();
+					if(!put(row == null ? NULL : row)){
+						return;
+					}
+				}
+			} catch(RuntimeException e){
+				failure.compareAndSet(null, new RuntimeException("Shard " + shard + " failed", e));
+			} finally{
+				put(END);
+			}
+		}
+		
+		private boolean put(Object item) {
+			try{
+				while(!closed){
+					if(queue.offer(item, 100, TimeUnit.MILLISECONDS)){
+						return true;
+					}
+				}
+			} catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+			return false;
+		}
+		
+		@Override
+		@SuppressWarnings("unchecked")
+		public boolean tryAdvance(Consumer<? super R> action) {
+			while(true){
+				RuntimeException exception = failure.get();
+				if(exception != null){
+					close();
+					throw exception;
+				}
+				if(closed || finished == producers){
+					return false;
+				}
+				Object item;
+				try{
+					item = queue.take();
+				} catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+					close();
+					throw new RuntimeException("Interrupted while waiting for shard rows", e);
+				}
+				if(item == END){
+					finished++;
+					continue;
+				}
+				action.accept(item == NULL ? null : (R) item);
+				return true;
+			}
+		}
+		
+		private void close() {
+			closed = true;
+			queue.clear();
+		}
+	}
+	
+	/**
+	 * Merges the sorted streams of all shards by always taking the smallest head row
+	 */
+	private static final class SortedMerge<R> extends Spliterators.AbstractSpliterator<R>{
+		private final List<Stream<R>> streams;
+		private final PriorityQueue<Head<R>> heads;
+		
+		private SortedMerge(List<Stream<R>> streams, Comparator<? super R> comparator) {
+			super(Long.MAX_VALUE, Spliterator.ORDERED);
+			this.streams = streams;
+			this.heads = new PriorityQueue<>(Math.max(1, streams.size()), (first, second) -> comparator.compare(first.row, second.row));
+			for(Stream<R> stream : streams){
+				Head<R> head = new Head<>(stream.iterator());
+				if(head.advance()){
+					heads.add(head);
+				}
+			}
+		}
+		
+		@Override
+		public boolean tryAdvance(Consumer<? super R> action) {
+			Head<R> head = heads.poll();
+			if(head == null){
+				return false;
+			}
+			R row = head.row;
+			if(head.advance()){
+				heads.add(head);
+			}
+			action.accept(row);
+			return true;
+		}
+		
+		private void close() {
+			heads.clear();
+			for(Stream<R> stream : streams){
+				stream.close();
+			}
+		}
+	}
+	
+	private static final class Head<R>{
+		private final Iterator<R> iterator;
+		private R row;
+		
+		private Head(Iterator<R> iterator) {
+			this.iterator = iterator;
+		}
+		
+		private boolean advance() {
+			if(!iterator.hasNext()){
+				return false;
+			}
+			row = iterator.next();
+			return true;
+		}
+	}
+}
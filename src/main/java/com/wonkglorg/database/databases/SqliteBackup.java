@@ -0,0 +1,43 @@
+package com.wonkglorg.database.databases;
+
+import org.sqlite.SQLiteConnection;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Access to the online backup api of the sqlite driver, kept separate so the driver is only
+ * needed on the classpath when snapshots are used
+ */
+final class SqliteBackup{
+	private static final int SQLITE_OK = 0;
+	private static final int BUSY_SLEEP_MILLIS = 10;
+	private static final int BUSY_RETRIES = 100;
+	
+	private SqliteBackup() {
+	}
+	
+	/**
+	 * Replaces the main database of the connection with the content of the file
+	 */
+	static void restore(Connection target, Path file) throws SQLException {
+		int result = target.unwrap(SQLiteConnection.class).getDatabase().restore("main", file.toString(), null);
+		if(result != SQLITE_OK){
+			throw new SQLException("Restoring " + file + " failed with sqlite error code " + result);
+		}
+	}
+	
+	/**
+	 * Copies the main database of the connection into the file
+	 *
+	 * @param pagesPerStep pages copied per step, the source is only locked during a step. -1
+	 * copies everything in one step
+	 */
+	static void backup(Connection source, Path file, int pagesPerStep) throws SQLException {
+		int result = source.unwrap(SQLiteConnection.class).getDatabase().backup("main", file.toString(), null, BUSY_SLEEP_MILLIS, BUSY_RETRIES, pagesPerStep);
+		if(result != SQLITE_OK){
+			throw new SQLException("Backup to " + file + " failed with sqlite error code " + result);
+		}
+	}
+}
@@ -3,6 +3,8 @@ package com.wonkglorg.database.databases;
 import com.wonkglorg.database.Connectable;
 import com.wonkglorg.database.Database;
 import com.wonkglorg.database.datasources.FileDataSource;
+import com.wonkglorg.database.query.QueryCache;
+import com.wonkglorg.database.write.SqliteWriteExecutor;
 
 import java.sql.Connection;
 import java.sql.SQLException;
@@ -12,6 +14,7 @@ import java.sql.SQLException;
  */
 @SuppressWarnings("unused")
 public class SqliteDatabase<T extends FileDataSource> extends Database<T> implements Connectable{
+	private SqliteWriteExecutor writeExecutor;
 	
 	/**
 	 * Creates a Sqlite database at the specified copyToPath.
@@ -44,8 +47,39 @@ public class SqliteDatabase<T extends FileDataSource> extends Database<T> implem
 		super(dataSource);
 	}
 	
+	/**
+	 * @return the executor all writes of this database should go through when multiple threads
+	 * write, created with the first call and closed together with the database
+	 */
+	public synchronized SqliteWriteExecutor writeExecutor() {
+		if(writeExecutor == null){
+			writeExecutor = new SqliteWriteExecutor(dataSource).setQueryCache(getQueryCache());
+		}
+		return writeExecutor;
+	}
+	
+	/**
+	 * Also sets the cache on the write executor
+	 */
+	@Override
+	public void setQueryCache(QueryCache queryCache) {
+		super.setQueryCache(queryCache);
+		synchronized(this){
+			if(writeExecutor != null){
+				writeExecutor.setQueryCache(queryCache);
+			}
+		}
+	}
+	
 	@Override
 	public void close() {
+		closeAsync();
+		synchronized(this){
+			if(writeExecutor != null){
+				writeExecutor.close();
+				writeExecutor = null;
+			}
+		}
 		disconnect();
 	}
 	
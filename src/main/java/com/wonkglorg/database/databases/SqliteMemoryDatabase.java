@@ -6,14 +6,41 @@ import static com.wonkglorg.database.DatabaseType.SQLITE_MEMORY;
 import static com.wonkglorg.database.DatabaseType.SQLITE_MEMORY_SHARED;
 import com.wonkglorg.database.datasources.MemoryDataSource;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
 /**
+ * Sqlite database held in memory. It can be loaded from and saved to a snapshot file with the
+ * sqlite online backup api, which copies the database page by page instead of row by row.
+ * <p>
+ * Snapshots of a shared memory database are taken on a separate connection in steps of
+ * {@link #setSnapshotPagesPerStep(int)} pages, the database stays readable in between steps. A
+ * private memory database can only be reached through its single connection, which is blocked
+ * for the whole snapshot.
+ * <pre>
+ *     {@code
+ * SqliteMemoryDatabase database = new SqliteMemoryDatabase("lookup", Path.of("lookup.db"));
+ * database.scheduleSnapshots(TimeUnit.MINUTES.toMillis(5));
+ * }
+ * </pre>
+ *
  * @author Wonkglorg
  */
 @SuppressWarnings("unused")
 public class SqliteMemoryDatabase extends Database<MemoryDataSource> implements Connectable{
+	private final boolean shared;
+	private final Path snapshotFile;
+	private volatile int snapshotPagesPerStep = 1024;
+	private ScheduledExecutorService snapshotScheduler;
+	private boolean closed = false;
 	
 	/**
 	 * Creates a shared sqlite memory database
@@ -21,28 +48,168 @@ public class SqliteMemoryDatabase extends Database<MemoryDataSource> implements
 	 * @param memoryName the database name
 	 */
 	public SqliteMemoryDatabase(String memoryName) {
-		super(new MemoryDataSource(SQLITE_MEMORY_SHARED, SQLITE_MEMORY_SHARED + memoryName + "?mode=memory&cache=shared"));
+		this(memoryName, null);
 	}
 	
 	/**
 	 * Creates a private sqlite memory database
 	 */
 	public SqliteMemoryDatabase() {
+		this((Path) null);
+	}
+	
+	/**
+	 * Creates a shared sqlite memory database and loads the snapshot file into it if it exists
+	 *
+	 * @param memoryName the database name
+	 * @param snapshotFile the file snapshots are loaded from and saved to, also saved when the
+	 * database is closed. null to not use one
+	 */
+	public SqliteMemoryDatabase(String memoryName, Path snapshotFile) {
+		super(new MemoryDataSource(SQLITE_MEMORY_SHARED, memoryName + "?mode=memory&cache=shared"));
+		this.shared = true;
+		this.snapshotFile = snapshotFile;
+		loadInitialSnapshot();
+	}
+	
+	/**
+	 * Creates a private sqlite memory database and loads the snapshot file into it if it exists
+	 *
+	 * @param snapshotFile the file snapshots are loaded from and saved to, also saved when the
+	 * database is closed. null to not use one
+	 */
+	public SqliteMemoryDatabase(Path snapshotFile) {
 		super(new MemoryDataSource(SQLITE_MEMORY));
+		this.shared = false;
+		this.snapshotFile = snapshotFile;
+		loadInitialSnapshot();
 	}
 	
+	private void loadInitialSnapshot() {
+		if(snapshotFile != null && Files.exists(snapshotFile)){
+			loadSnapshot(snapshotFile);
+		}
+	}
+	
+	/**
+	 * Replaces the content of the database with the snapshot
+	 *
+	 * @param file the sqlite file to load
+	 */
+	public void loadSnapshot(Path file) {
+		try{
+			SqliteBackup.restore(dataSource.getConnection(), file);
+		} catch(SQLException e){
+			throw new RuntimeException("Failed to load snapshot " + file, e);
+		}
+	}
+	
+	/**
+	 * Saves the database to the snapshot file it was created with
+	 */
+	public void snapshot() {
+		if(snapshotFile == null){
+			throw new IllegalStateException("No snapshot file configured");
+		}
+		snapshot(snapshotFile);
+	}
+	
+	/**
+	 * Saves the database to the file. The snapshot is written to a temporary file next to it and
+	 * moved over the file once complete, the file always holds a complete snapshot
+	 *
+	 * @param file the file to save to
+	 */
+	public synchronized void snapshot(Path file) {
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try{
+			if(file.getParent() != null){
+				Files.createDirectories(file.getParent());
+			}
+			Files.deleteIfExists(temporary);
+			if(shared){
+				try(Connection connection = dataSource.openConnection()){
+					SqliteBackup.backup(connection, temporary, snapshotPagesPerStep);
+				}
+			} else {
+				SqliteBackup.backup(dataSource.getConnection(), temporary, -1);
+			}
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch(SQLException | IOException e){
+			throw new RuntimeException("Failed to save snapshot " + file, e);
+		}
+	}
+	
+	/**
+	 * Saves a snapshot periodically, in addition to the one saved when the database is closed
+	 *
+	 * @param periodMillis the time between snapshots
+	 */
+	public synchronized void scheduleSnapshots(long periodMillis) {
+		if(snapshotFile == null){
+			throw new IllegalStateException("No snapshot file configured");
+		}
+		if(periodMillis < 1){
+			throw new IllegalArgumentException("periodMillis has to be at least 1");
+		}
+		if(snapshotScheduler != null){
+			snapshotScheduler.shutdownNow();
+		}
+		snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "sqlite-snapshot-" + snapshotFile.getFileName());
+			thread.setDaemon(true);
+			return thread;
+		});
+		snapshotScheduler.scheduleWithFixedDelay(() -> {
+			try{
+				snapshot();
+			} catch(RuntimeException e){
+				logger.log(Level.WARNING, "Scheduled snapshot failed", e);
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * @param snapshotPagesPerStep how many pages are copied while the source is locked, smaller
+	 * steps keep readers of shared databases waiting for less time. -1 copies all pages at once
+	 */
+	public void setSnapshotPagesPerStep(int snapshotPagesPerStep) {
+		if(snapshotPagesPerStep == 0 || snapshotPagesPerStep < -1){
+			throw new IllegalArgumentException("snapshotPagesPerStep has to be positive or -1");
+		}
+		this.snapshotPagesPerStep = snapshotPagesPerStep;
+	}
+	
+	public int getSnapshotPagesPerStep() {
+		return snapshotPagesPerStep;
+	}
+	
+	/**
+	 * Saves a final snapshot if a snapshot file is configured and disconnects, the database is
+	 * disconnected even if the snapshot fails
+	 */
 	@Override
 	public void close() {
-		disconnect();
+		try{
+			closeAsync();
+			synchronized(this){
+				if(snapshotScheduler != null){
+					snapshotScheduler.shutdownNow();
+					snapshotScheduler = null;
+				}
+				if(snapshotFile != null && !closed){
+					closed = true;
+					snapshot();
+				}
+			}
+		} finally{
+			disconnect();
+		}
 	}
 	
 	@Override
 	public void disconnect() {
-		try{
-			dataSource.getConnection().close();
-		} catch(SQLException e){
-			throw new RuntimeException(e);
-		}
+		dataSource.close();
 	}
 	
 	@Override
@@ -50,4 +217,3 @@ public class SqliteMemoryDatabase extends Database<MemoryDataSource> implements
 		return dataSource.getConnection();
 	}
 }
-
@@ -0,0 +1,16 @@
+package com.wonkglorg.database.datasources;
+
+/**
+ * What a borrowed connection will be used for, lets data sources route reads away from the
+ * connection used for writes
+ */
+public enum AccessIntent{
+	/**
+	 * The connection is only used to read, it may be read only
+	 */
+	READ,
+	/**
+	 * The connection is used to write
+	 */
+	WRITE
+}
@@ -0,0 +1,204 @@
+package com.wonkglorg.database.datasources;
+
+import static com.wonkglorg.database.datasources.PoolEntry.STATE_IN_USE;
+import static com.wonkglorg.database.datasources.PoolEntry.STATE_NOT_IN_USE;
+import static com.wonkglorg.database.datasources.PoolEntry.STATE_REMOVED;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock free container for pooled connections.
+ * <p>
+ * Borrowing first checks the connections the current thread used last, then scans the shared
+ * list and only then waits for a release to be handed over directly. Waiters are served in the
+ * order they started waiting and releasing never wakes more than the single waiter that receives
+ * the connection. While threads are waiting new borrowers skip the scans and queue up behind
+ * them, so they cannot take idle connections ahead of the waiters.
+ */
+final class ConnectionBag{
+	private static final int MAX_THREAD_LOCAL_ENTRIES = 16;
+	
+	private final CopyOnWriteArrayList<PoolEntry> sharedList = new CopyOnWriteArrayList<>();
+	private final ThreadLocal<List<PoolEntry>> threadList = ThreadLocal.withInitial(() -> new ArrayList<>(MAX_THREAD_LOCAL_ENTRIES));
+	private final SynchronousQueue<PoolEntry> handoffQueue = new SynchronousQueue<>(true);
+	private final AtomicInteger waiters = new AtomicInteger();
+	/**
+	 * Threads waiting in the handoff queue, a subset of {@link #waiters}
+	 */
+	private final AtomicInteger queued = new AtomicInteger();
+	/**
+	 * Handed to waiters once the bag is closed, never borrowed
+	 */
+	private final PoolEntry closedMarker = new PoolEntry(null, null, 0, null);
+	private volatile boolean closed = false;
+	
+	/**
+	 * Borrows an idle entry from the bag
+	 *
+	 * @param timeout how long to wait for a released entry, 0 to not wait at all
+	 * @param unit the unit of the timeout
+	 * @return the borrowed entry or null if none became available in time
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws IllegalStateException if the bag is closed before or while waiting
+	 */
+	PoolEntry borrow(long timeout, TimeUnit unit) throws InterruptedException {
+		checkOpen();
+		boolean barge = queued.get() == 0;
+		if(barge){
+			List<PoolEntry> list = threadList.get();
+			for(int i = list.size() - 1; i >= 0; i--){
+				PoolEntry entry = list.remove(i);
+				if(entry.compareAndSet(STATE_NOT_IN_USE, STATE_IN_USE)){
+					return entry;
+				}
+			}
+		}
+		
+		waiters.incrementAndGet();
+		try{
+			if(barge){
+				for(PoolEntry entry : sharedList){
+					if(entry.compareAndSet(STATE_NOT_IN_USE, STATE_IN_USE)){
+						return entry;
+					}
+				}
+			}
+			
+			long timeoutNanos = unit.toNanos(timeout);
+			if(timeoutNanos <= 0){
+				return null;
+			}
+			long start = System.nanoTime();
+			queued.incrementAndGet();
+			try{
+				long remaining = timeoutNanos;
+				do{
+					checkOpen();
+					PoolEntry entry = handoffQueue.poll(remaining, NANOSECONDS);
+					if(entry == closedMarker){
+						checkOpen();
+					}
+					if(entry == null || entry.compareAndSet(STATE_NOT_IN_USE, STATE_IN_USE)){
+						return entry;
+					}
+					remaining = timeoutNanos - (System.nanoTime() - start);
+				} while(remaining > 0);
+				return null;
+			} finally{
+				queued.decrementAndGet();
+			}
+		} finally{
+			waiters.decrementAndGet();
+		}
+	}
+	
+	private void checkOpen() {
+		if(closed){
+			throw new IllegalStateException("Pool has been closed");
+		}
+	}
+	
+	/**
+	 * Wakes every waiting thread, they and all later borrowers fail with an
+	 * {@link IllegalStateException}. Entries already in the bag are left to the caller
+	 */
+	void close() {
+		closed = true;
+		while(waiters.get() > 0){
+			if(!handoffQueue.offer(closedMarker)){
+				Thread.yield();
+			}
+		}
+	}
+	
+	/**
+	 * Returns a borrowed entry to the bag, handing it straight to a waiting thread if there is one
+	 *
+	 * @param entry the entry to return
+	 */
+	void requite(PoolEntry entry) {
+		entry.lastAccessed = System.nanoTime();
+		entry.setState(STATE_NOT_IN_USE);
+		
+		for(int i = 0; waiters.get() > 0; i++){
+			if(entry.getState() != STATE_NOT_IN_USE || handoffQueue.offer(entry)){
+				return;
+			}
+			if((i & 0xff) == 0xff){
+				LockSupport.parkNanos(10_000);
+			} else {
+				Thread.yield();
+			}
+		}
+		
+		List<PoolEntry> list = threadList.get();
+		if(list.size() < MAX_THREAD_LOCAL_ENTRIES){
+			list.add(entry);
+		}
+	}
+	
+	/**
+	 * Adds a new entry to the bag, it is immediately visible to borrowers
+	 */
+	void add(PoolEntry entry) {
+		sharedList.add(entry);
+		while(waiters.get() > 0 && entry.getState() == STATE_NOT_IN_USE && !handoffQueue.offer(entry)){
+			Thread.yield();
+		}
+	}
+	
+	/**
+	 * Makes an entry reserved by the caller available again
+	 */
+	void unreserve(PoolEntry entry) {
+		if(entry.compareAndSet(PoolEntry.STATE_RESERVED, STATE_NOT_IN_USE)){
+			while(waiters.get() > 0 && entry.getState() == STATE_NOT_IN_USE && !handoffQueue.offer(entry)){
+				Thread.yield();
+			}
+		}
+	}
+	
+	/**
+	 * Removes an entry that is either borrowed or reserved by the caller
+	 *
+	 * @return true if the entry was removed by this call
+	 */
+	boolean remove(PoolEntry entry) {
+		if(!entry.compareAndSet(STATE_IN_USE, STATE_REMOVED) && !entry.compareAndSet(PoolEntry.STATE_RESERVED, STATE_REMOVED)){
+			return false;
+		}
+		return sharedList.remove(entry);
+	}
+	
+	/**
+	 * @return a snapshot of all entries regardless of state
+	 */
+	List<PoolEntry> values() {
+		return new ArrayList<>(sharedList);
+	}
+	
+	int size() {
+		return sharedList.size();
+	}
+	
+	int getWaitingThreads() {
+		return waiters.get();
+	}
+	
+	int getCount(int state) {
+		int count = 0;
+		for(PoolEntry entry : sharedList){
+			if(entry.getState() == state){
+				count++;
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,37 @@
+package com.wonkglorg.database.datasources;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Session settings of a physical connection right after it was opened, a pooled connection is
+ * restored to these before the next borrower gets it.
+ *
+ * @param catalog the catalog or null if the driver does not support it
+ * @param schema the schema or null if the driver does not support it
+ */
+record ConnectionDefaults(boolean autoCommit, int transactionIsolation, boolean readOnly, String catalog, String schema){
+	
+	/**
+	 * Reads the current settings of the connection
+	 */
+	static ConnectionDefaults capture(Connection connection) throws SQLException {
+		return new ConnectionDefaults(connection.getAutoCommit(), connection.getTransactionIsolation(), connection.isReadOnly(), catalogOf(connection), schemaOf(connection));
+	}
+	
+	private static String catalogOf(Connection connection) {
+		try{
+			return connection.getCatalog();
+		} catch(SQLException | AbstractMethodError e){
+			return null;
+		}
+	}
+	
+	private static String schemaOf(Connection connection) {
+		try{
+			return connection.getSchema();
+		} catch(SQLException | AbstractMethodError e){
+			return null;
+		}
+	}
+}
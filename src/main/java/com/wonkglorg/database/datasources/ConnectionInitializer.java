@@ -0,0 +1,105 @@
+package com.wonkglorg.database.datasources;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Ordered list of sql statements and callbacks run once on every physical connection a data
+ * source opens, before it is handed out for the first time. Use it for session settings like
+ * pragmas that would otherwise have to be repeated after every {@code getConnection()}.
+ * <pre>
+ *     {@code
+ * dataSource.setConnectionInitializer(new ConnectionInitializer()
+ *         .addProfile(SqliteProfile.THROUGHPUT)
+ *         .addSql("PRAGMA foreign_keys=ON"));
+ * }
+ * </pre>
+ */
+@SuppressWarnings("unused")
+public class ConnectionInitializer{
+	/**
+	 * Initializer without any steps
+	 */
+	public static final ConnectionInitializer NONE = new ConnectionInitializer(List.of());
+	
+	private final List<Step> steps;
+	
+	public ConnectionInitializer() {
+		this(new CopyOnWriteArrayList<>());
+	}
+	
+	private ConnectionInitializer(List<Step> steps) {
+		this.steps = steps;
+	}
+	
+	/**
+	 * A step run on a newly opened connection
+	 */
+	@FunctionalInterface
+	public interface Step{
+		void initialize(Connection connection) throws SQLException;
+	}
+	
+	/**
+	 * @param sql a statement to execute on every new connection
+	 */
+	public ConnectionInitializer addSql(String sql) {
+		return addStep(connection -> {
+			try(Statement statement = connection.createStatement()){
+				statement.execute(sql);
+			}
+		});
+	}
+	
+	/**
+	 * @param step a callback to run on every new connection
+	 */
+	public ConnectionInitializer addStep(Step step) {
+		steps.add(step);
+		return this;
+	}
+	
+	/**
+	 * @param profile the profile whose pragmas are executed on every new connection
+	 */
+	public ConnectionInitializer addProfile(SqliteProfile profile) {
+		for(String pragma : profile.pragmas()){
+			addSql(pragma);
+		}
+		return this;
+	}
+	
+	/**
+	 * Runs every step in order
+	 *
+	 * @param connection the newly opened physical connection
+	 * @throws SQLException if a step failed, the connection should not be used then
+	 */
+	public void initialize(Connection connection) throws SQLException {
+		for(Step step : steps){
+			step.initialize(connection);
+		}
+	}
+	
+	/**
+	 * Runs every step in order and closes the connection if one fails
+	 *
+	 * @return the connection
+	 */
+	Connection initializeOrClose(Connection connection) throws SQLException {
+		try{
+			initialize(connection);
+			return connection;
+		} catch(SQLException | RuntimeException e){
+			try{
+				connection.close();
+			} catch(SQLException closeException){
+				e.addSuppressed(closeException);
+			}
+			throw e;
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package com.wonkglorg.database.datasources;
 
+import com.wonkglorg.database.metrics.QueryMonitor;
+
 import java.sql.Array;
 import java.sql.Blob;
 import java.sql.CallableStatement;
@@ -8,6 +10,7 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.NClob;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLClientInfoException;
 import java.sql.SQLException;
 import java.sql.SQLWarning;
@@ -15,6 +18,8 @@ import java.sql.SQLXML;
 import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Struct;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Executor;
@@ -22,9 +27,163 @@ import java.util.concurrent.Executor;
 public abstract class ConnectionWrapper implements Connection{
 	
 	protected final Connection delegate;
+	/**
+	 * Set once a call to the delegate failed, data sources use it to decide if the connection has
+	 * to be validated before it is handed out again
+	 */
+	private volatile boolean errorOccurred = false;
+	/**
+	 * Cache prepared statements are taken from, null if caching is disabled
+	 */
+	protected final StatementCache statementCache;
+	/**
+	 * Monitor statement executions are reported to, null if they are not timed
+	 */
+	protected final QueryMonitor queryMonitor;
+	
+	static final int DIRTY_AUTO_COMMIT = 1;
+	static final int DIRTY_ISOLATION = 1 << 1;
+	static final int DIRTY_READ_ONLY = 1 << 2;
+	static final int DIRTY_CATALOG = 1 << 3;
+	static final int DIRTY_SCHEMA = 1 << 4;
+	
+	/**
+	 * Which session settings were changed through this wrapper, the values below are only valid
+	 * if their bit is set
+	 */
+	private int dirtyBits = 0;
+	private boolean autoCommit;
+	private int transactionIsolation;
+	private boolean readOnly;
+	private String catalog;
+	private String schema;
+	/**
+	 * Set when statements were executed or a savepoint was set since the last commit or rollback
+	 */
+	private boolean transactionDirty = false;
 	
 	ConnectionWrapper(Connection delegate) {
+		this(delegate, null, null);
+	}
+	
+	/**
+	 * @param delegate the connection to delegate to
+	 * @param statementCache the cache of the physical connection, null to not cache statements
+	 * @param queryMonitor the monitor to report statement executions to, null to not time them
+	 */
+	ConnectionWrapper(Connection delegate, StatementCache statementCache, QueryMonitor queryMonitor) {
 		this.delegate = delegate;
+		this.statementCache = statementCache;
+		this.queryMonitor = queryMonitor;
+	}
+	
+	/**
+	 * @return the prepared statement cache of this connection or null if caching is disabled
+	 */
+	public StatementCache getStatementCache() {
+		return statementCache;
+	}
+	
+	/**
+	 * Remembers that the connection reported an error
+	 *
+	 * @param e the error reported by the delegate
+	 * @return the same error so it can be rethrown
+	 */
+	protected SQLException markError(SQLException e) {
+		errorOccurred = true;
+		return e;
+	}
+	
+	/**
+	 * @return true if a call on this connection failed since the last {@link #clearError()}
+	 */
+	public boolean hasErrorOccurred() {
+		return errorOccurred;
+	}
+	
+	void clearError() {
+		errorOccurred = false;
+	}
+	
+	/**
+	 * Called with every statement created through this wrapper, wraps it for timing if a
+	 * {@link QueryMonitor} is attached. Otherwise statements are wrapped so executions mark the
+	 * transaction as used and failed executions reach {@link #markError(SQLException)}
+	 *
+	 * @param statement the created statement
+	 * @param sql the sql the statement was prepared with, null for plain statements
+	 * @return the statement to hand to the caller
+	 */
+	@SuppressWarnings("unchecked")
+	protected <S extends Statement> S onStatementCreated(S statement, String sql) {
+		if(queryMonitor == null){
+			if(statement instanceof StatementWrapper<?>){
+				return statement;
+			}
+			if(statement instanceof CallableStatement callableStatement){
+				return (S) new CallableStatementWrapper(callableStatement, this){};
+			}
+			if(statement instanceof PreparedStatement preparedStatement){
+				return (S) new PreparedStatementWrapper<>(preparedStatement, this){};
+			}
+			return (S) new StatementWrapper<>(statement, this){};
+		}
+		if(statement instanceof CallableStatement callableStatement){
+			return (S) new InstrumentedCallableStatement(callableStatement, this, queryMonitor, sql);
+		}
+		if(statement instanceof PreparedStatement preparedStatement){
+			return (S) new InstrumentedPreparedStatement(preparedStatement, this, queryMonitor, sql);
+		}
+		return (S) new InstrumentedStatement(statement, this, queryMonitor);
+	}
+	
+	/**
+	 * Called by the statements of this wrapper before they execute
+	 */
+	void markTransactionDirty() {
+		transactionDirty = true;
+	}
+	
+	/**
+	 * @return bit set of the session settings changed through this wrapper
+	 */
+	int getDirtyBits() {
+		return dirtyBits;
+	}
+	
+	/**
+	 * Restores the session settings changed through this wrapper to their defaults, only settings
+	 * that actually differ are sent to the database. An open transaction is rolled back first.
+	 *
+	 * @param defaults the settings the connection had when it was opened
+	 */
+	void resetState(ConnectionDefaults defaults) throws SQLException {
+		boolean currentAutoCommit = (dirtyBits & DIRTY_AUTO_COMMIT) != 0 ? autoCommit : defaults.autoCommit();
+		if(!currentAutoCommit && transactionDirty){
+			delegate.rollback();
+		}
+		transactionDirty = false;
+		
+		if(dirtyBits == 0){
+			return;
+		}
+		if((dirtyBits & DIRTY_AUTO_COMMIT) != 0 && autoCommit != defaults.autoCommit()){
+			delegate.setAutoCommit(defaults.autoCommit());
+		}
+		if((dirtyBits & DIRTY_ISOLATION) != 0 && transactionIsolation != defaults.transactionIsolation()){
+			delegate.setTransactionIsolation(defaults.transactionIsolation());
+		}
+		if((dirtyBits & DIRTY_READ_ONLY) != 0 && readOnly != defaults.readOnly()){
+			delegate.setReadOnly(defaults.readOnly());
+		}
+		if((dirtyBits & DIRTY_CATALOG) != 0 && defaults.catalog() != null && !defaults.catalog().equals(catalog)){
+			delegate.setCatalog(defaults.catalog());
+		}
+		if((dirtyBits & DIRTY_SCHEMA) != 0 && defaults.schema() != null && !defaults.schema().equals(schema)){
+			delegate.setSchema(defaults.schema());
+		}
+		dirtyBits = 0;
 	}
 	
 	@Override
@@ -39,46 +198,113 @@ public abstract class ConnectionWrapper implements Connection{
 	public boolean isWrapperFor(Class<?> iface) throws SQLException {return delegate.isWrapperFor(iface);}
 	
 	@Override
-	public Statement createStatement() throws SQLException {return delegate.createStatement();}
+	public Statement createStatement() throws SQLException {
+		try{
+			return onStatementCreated(delegate.createStatement(), null);
+		} catch(SQLException e){
+			throw markError(e);
+		}
+	}
 	
 	@Override
-	public PreparedStatement prepareStatement(String sql) throws SQLException {return delegate.prepareStatement(sql);}
+	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		try{
+			if(statementCache != null){
+				return onStatementCreated(statementCache.prepare(this, new StatementCache.Key(sql), () -> delegate.prepareStatement(sql)), sql);
+			}
+			return onStatementCreated(delegate.prepareStatement(sql), sql);
+		} catch(SQLException e){
+			throw markError(e);
+		}
+	}
 	
 	@Override
-	public CallableStatement prepareCall(String sql) throws SQLException {return delegate.prepareCall(sql);}
+	public CallableStatement prepareCall(String sql) throws SQLException {
+		try{
+			return onStatementCreated(delegate.prepareCall(sql), sql);
+		} catch(SQLException e){
+			throw markError(e);
+		}
+	}
 	
 	@Override
 	public String nativeSQL(String sql) throws SQLException {return delegate.nativeSQL(sql);}
 	
 	@Override
-	public void setAutoCommit(boolean autoCommit) throws SQLException {delegate.setAutoCommit(autoCommit);}
+	public void setAutoCommit(boolean autoCommit) throws SQLException {
+		try{
+			delegate.setAutoCommit(autoCommit);
+			this.autoCommit = autoCommit;
+			dirtyBits |= DIRTY_AUTO_COMMIT;
+		} catch(SQLException e){
+			throw markError(e);
+		}
+	}
 	
 	@Override
 	public boolean getAutoCommit() throws SQLException {return delegate.getAutoCommit();}
 	
 	@Override
-	public void commit() throws SQLException {delegate.commit();}
+	public void commit() throws SQLException {
+		try{
+			delegate.commit();
+			transactionDirty = false;
+		} catch(SQLException e){
+			throw markError(e);
+		}
+	}
 	
 	@Override
-	public void rollback() throws SQLException {delegate.rollback();}
+	public void rollback() throws SQLException {
+		try{
+			delegate.rollback();
+			transactionDirty = false;
+		} catch(SQLException e){
+			throw markError(e);
+		}
+	}
 	
 	@Override
 	public DatabaseMetaData getMetaData() throws SQLException {return delegate.getMetaData();}
 	
 	@Override
-	public void setReadOnly(boolean readOnly) throws SQLException {delegate.setReadOnly(readOnly);}
+	public void setReadOnly(boolean readOnly) throws SQLException {
+		try{
+			delegate.setReadOnly(readOnly);
+			this.readOnly = readOnly;
+			dirtyBits |= DIRTY_READ_ONLY;
+		} catch(SQLException e){
+			throw markError(e);
+		}
+	}
 	
 	@Override
 	public boolean isReadOnly() throws SQLException {return delegate.isReadOnly();}
 	
 	@Override
-	public void setCatalog(String catalog) throws SQLException {delegate.setCatalog(catalog);}
+	public void setCatalog(String catalog) throws SQLException {
+		try{
+			delegate.setCatalog(catalog);
+			this.catalog = catalog;
+			dirtyBits |= DIRTY_CATALOG;
+		} catch(SQLException e){
+			throw markError(e);
+		}
+	}
 	
 	@Override
 	public String getCatalog() throws SQLException {return delegate.getCatalog();}
 	
 	@Override
-	public void setTransactionIsolation(int level) throws SQLException {delegate.setTransactionIsolation(level);}
+	public void setTransactionIsolation(int level) throws SQLException {
+		try{
+			delegate.setTransactionIsolation(level);
+			this.transactionIsolation = level;
+			dirtyBits |= DIRTY_ISOLATION;
+		} catch(SQLException e){
+			throw markError(e);
+		}
+	}
 	
 	@Override
 	public int getTransactionIsolation() throws SQLException {return delegate.getTransactionIsolation();}
@@ -91,17 +317,32 @@ public abstract class ConnectionWrapper implements Connection{
 	
 	@Override
 	public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
-		return delegate.createStatement(resultSetType, resultSetConcurrency);
+		try{
+			return onStatementCreated(delegate.createStatement(resultSetType, resultSetConcurrency), null);
+		} catch(SQLException e){
+			throw markError(e);
+		}
 	}
 	
 	@Override
 	public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
-		return delegate.prepareStatement(sql, resultSetType, resultSetConcurrency);
+		try{
+			if(statementCache != null){
+				return onStatementCreated(statementCache.prepare(this, new StatementCache.Key(sql, resultSetType, resultSetConcurrency, -1, -1, null), () -> delegate.prepareStatement(sql, resultSetType, resultSetConcurrency)), sql);
+			}
+			return onStatementCreated(delegate.prepareStatement(sql, resultSetType, resultSetConcurrency), sql);
+		} catch(SQLException e){
+			throw markError(e);
+		}
 	}
 	
 	@Override
 	public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
-		return delegate.prepareCall(sql, resultSetType, resultSetConcurrency);
+		try{
+			return onStatementCreated(delegate.prepareCall(sql, resultSetType, resultSetConcurrency), sql);
+		} catch(SQLException e){
+			throw markError(e);
+		}
 	}
 	
 	@Override
@@ -126,17 +367,31 @@ public abstract class ConnectionWrapper implements Connection{
 	
 	@Override
 	public Savepoint setSavepoint() throws SQLException {
-		return delegate.setSavepoint();
+		try{
+			transactionDirty = true;
+			return delegate.setSavepoint();
+		} catch(SQLException e){
+			throw markError(e);
+		}
 	}
 	
 	@Override
 	public Savepoint setSavepoint(String name) throws SQLException {
-		return delegate.setSavepoint(name);
+		try{
+			transactionDirty = true;
+			return delegate.setSavepoint(name);
+		} catch(SQLException e){
+			throw markError(e);
+		}
 	}
 	
 	@Override
 	public void rollback(Savepoint savepoint) throws SQLException {
-		delegate.rollback(savepoint);
+		try{
+			delegate.rollback(savepoint);
+		} catch(SQLException e){
+			throw markError(e);
+		}
 	}
 	
 	@Override
@@ -146,32 +401,68 @@ public abstract class ConnectionWrapper implements Connection{
 	
 	@Override
 	public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
-		return delegate.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
+		try{
+			return onStatementCreated(delegate.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability), null);
+		} catch(SQLException e){
+			throw markError(e);
+		}
 	}
 	
 	@Override
 	public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
-		return delegate.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+		try{
+			if(statementCache != null){
+				return onStatementCreated(statementCache.prepare(this, new StatementCache.Key(sql, resultSetType, resultSetConcurrency, resultSetHoldability, -1, null), () -> delegate.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability)), sql);
+			}
+			return onStatementCreated(delegate.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability), sql);
+		} catch(SQLException e){
+			throw markError(e);
+		}
 	}
 	
 	@Override
 	public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
-		return delegate.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+		try{
+			return onStatementCreated(delegate.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability), sql);
+		} catch(SQLException e){
+			throw markError(e);
+		}
 	}
 	
 	@Override
 	public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
-		return delegate.prepareStatement(sql, autoGeneratedKeys);
+		try{
+			if(statementCache != null){
+				return onStatementCreated(statementCache.prepare(this, new StatementCache.Key(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, -1, autoGeneratedKeys, null), () -> delegate.prepareStatement(sql, autoGeneratedKeys)), sql);
+			}
+			return onStatementCreated(delegate.prepareStatement(sql, autoGeneratedKeys), sql);
+		} catch(SQLException e){
+			throw markError(e);
+		}
 	}
 	
 	@Override
 	public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
-		return delegate.prepareStatement(sql, columnIndexes);
+		try{
+			if(statementCache != null){
+				return onStatementCreated(statementCache.prepare(this, new StatementCache.Key(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, -1, -1, columnIndexes == null ? null : Arrays.stream(columnIndexes).boxed().toList()), () -> delegate.prepareStatement(sql, columnIndexes)), sql);
+			}
+			return onStatementCreated(delegate.prepareStatement(sql, columnIndexes), sql);
+		} catch(SQLException e){
+			throw markError(e);
+		}
 	}
 	
 	@Override
 	public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
-		return delegate.prepareStatement(sql, columnNames);
+		try{
+			if(statementCache != null){
+				return onStatementCreated(statementCache.prepare(this, new StatementCache.Key(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, -1, -1, columnNames == null ? null : List.of(columnNames)), () -> delegate.prepareStatement(sql, columnNames)), sql);
+			}
+			return onStatementCreated(delegate.prepareStatement(sql, columnNames), sql);
+		} catch(SQLException e){
+			throw markError(e);
+		}
 	}
 	
 	@Override
@@ -231,7 +522,13 @@ public abstract class ConnectionWrapper implements Connection{
 	
 	@Override
 	public void setSchema(String schema) throws SQLException {
-		delegate.setSchema(schema);
+		try{
+			delegate.setSchema(schema);
+			this.schema = schema;
+			dirtyBits |= DIRTY_SCHEMA;
+		} catch(SQLException e){
+			throw markError(e);
+		}
 	}
 	
 	@Override
@@ -0,0 +1,244 @@
+package com.wonkglorg.database.datasources;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Properties;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.jar.JarEntry;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Extracts a database file bundled on the classpath. The copy is written to a temporary file next
+ * to the target and moved into place once complete, a partially written database is never
+ * opened. A lock file next to the target serializes extractions of several processes.
+ * <p>
+ * In {@link ExtractionMode#VERIFIED} the sidecar file {@code <name>.extracted} records the version
+ * of the bundled file the copy was made from. The version is the crc the jar stores for the entry,
+ * or the size and modification time of a plain file, so an up to date copy is recognized without
+ * reading the bundled file or the copy. Only for other sources the bundled file is hashed. The
+ * copy itself is not hashed, the application writes to it.
+ */
+final class DatabaseExtractor{
+	private static final Logger log = Logger.getLogger(DatabaseExtractor.class.getName());
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final String SIDECAR_SUFFIX = ".extracted";
+	private static final String LOCK_SUFFIX = ".lock";
+	/**
+	 * Journal files of the replaced database, they must not be applied to the new one
+	 */
+	private static final String[] JOURNAL_SUFFIXES = {"-wal", "-shm", "-journal"};
+	/**
+	 * File locks are held per process, threads of this one are serialized by this lock
+	 */
+	private static final ReentrantLock EXTRACT_LOCK = new ReentrantLock();
+	
+	private DatabaseExtractor() {
+	}
+	
+	/**
+	 * @param resource the bundled database, null to create an empty file if the target is missing
+	 * @param target the file to extract to
+	 * @param mode whether an existing target is checked against the bundled database
+	 */
+	static void extract(URL resource, Path target, ExtractionMode mode) throws IOException {
+		if(mode == ExtractionMode.IF_MISSING && Files.exists(target)){
+			return;
+		}
+		Path directory = target.toAbsolutePath().getParent();
+		Files.createDirectories(directory);
+		if(resource == null){
+			createIfMissing(target);
+			return;
+		}
+		EXTRACT_LOCK.lock();
+		try(FileChannel lockChannel = FileChannel.open(sibling(target, LOCK_SUFFIX), CREATE, WRITE)){
+			//released when the channel is closed
+			lockChannel.lock();
+			extractLocked(resource, target, directory, mode);
+		} finally{
+			EXTRACT_LOCK.unlock();
+		}
+	}
+	
+	private static void extractLocked(URL resource, Path target, Path directory, ExtractionMode mode) throws IOException {
+		boolean exists = Files.exists(target);
+		if(exists && mode == ExtractionMode.IF_MISSING){
+			//extracted by another process while waiting for the lock
+			return;
+		}
+		Path sidecar = sibling(target, SIDECAR_SUFFIX);
+		String version = null;
+		if(mode == ExtractionMode.VERIFIED){
+			version = version(resource);
+			if(exists && version.equals(readSidecar(sidecar).getProperty("source"))){
+				return;
+			}
+			if(exists){
+				log.log(Level.INFO, "Bundled database changed, replacing " + target);
+			}
+		}
+		
+		Path temporary = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+		try{
+			copy(resource, temporary);
+			Files.deleteIfExists(sidecar);
+			for(String suffix : JOURNAL_SUFFIXES){
+				Files.deleteIfExists(sibling(target, suffix));
+			}
+			move(temporary, target);
+			if(mode == ExtractionMode.VERIFIED){
+				writeSidecar(sidecar, directory, version);
+			}
+		} finally{
+			Files.deleteIfExists(temporary);
+		}
+	}
+	
+	/**
+	 * Copies the resource, plain files are transferred by the os without passing through the jvm
+	 */
+	private static void copy(URL resource, Path target) throws IOException {
+		Path file = asFile(resource);
+		if(file != null){
+			try(FileChannel in = FileChannel.open(file, READ); FileChannel out = FileChannel.open(target, WRITE, TRUNCATE_EXISTING)){
+				long size = in.size();
+				long position = 0;
+				while(position < size){
+					position += in.transferTo(position, size - position, out);
+				}
+				out.force(true);
+			}
+			return;
+		}
+		byte[] buffer = new byte[BUFFER_SIZE];
+		try(InputStream in = open(resource); FileChannel out = FileChannel.open(target, WRITE, TRUNCATE_EXISTING)){
+			int read;
+			while((read = in.readNBytes(buffer, 0, buffer.length)) > 0){
+				ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+				while(chunk.hasRemaining()){
+					out.write(chunk);
+				}
+			}
+			out.force(true);
+		}
+	}
+	
+	/**
+	 * @return identifies the content of the bundled database, read from metadata where possible
+	 */
+	private static String version(URL resource) throws IOException {
+		URLConnection connection = resource.openConnection();
+		if(connection instanceof JarURLConnection jarConnection){
+			JarEntry entry = jarConnection.getJarEntry();
+			if(entry != null && entry.getCrc() != -1){
+				return "crc32:" + Long.toHexString(entry.getCrc()) + ":" + entry.getSize();
+			}
+		}
+		Path file = asFile(resource);
+		if(file != null){
+			return "file:" + Files.size(file) + ":" + Files.getLastModifiedTime(file).toMillis();
+		}
+		MessageDigest digest = sha256();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		try(InputStream in = open(resource)){
+			int read;
+			while((read = in.readNBytes(buffer, 0, buffer.length)) > 0){
+				digest.update(buffer, 0, read);
+			}
+		}
+		return "sha256:" + HexFormat.of().formatHex(digest.digest());
+	}
+	
+	private static Path asFile(URL resource) {
+		if(!"file".equals(resource.getProtocol())){
+			return null;
+		}
+		try{
+			return Path.of(resource.toURI());
+		} catch(URISyntaxException | IllegalArgumentException e){
+			return null;
+		}
+	}
+	
+	private static InputStream open(URL resource) throws IOException {
+		URLConnection connection = resource.openConnection();
+		connection.setUseCaches(false);
+		return connection.getInputStream();
+	}
+	
+	private static Properties readSidecar(Path sidecar) {
+		Properties properties = new Properties();
+		if(Files.exists(sidecar)){
+			try(Reader reader = Files.newBufferedReader(sidecar)){
+				properties.load(reader);
+			} catch(IOException | IllegalArgumentException e){
+				log.log(Level.FINE, "Failed to read " + sidecar + ", extracting again", e);
+			}
+		}
+		return properties;
+	}
+	
+	private static void writeSidecar(Path sidecar, Path directory, String version) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("source", version);
+		Path temporary = Files.createTempFile(directory, sidecar.getFileName().toString(), ".tmp");
+		try{
+			try(Writer writer = Files.newBufferedWriter(temporary)){
+				properties.store(writer, "Version of the bundled database this file was extracted from");
+			}
+			move(temporary, sidecar);
+		} finally{
+			Files.deleteIfExists(temporary);
+		}
+	}
+	
+	private static void move(Path source, Path target) throws IOException {
+		try{
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch(AtomicMoveNotSupportedException e){
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	private static void createIfMissing(Path target) throws IOException {
+		try{
+			Files.createFile(target);
+		} catch(FileAlreadyExistsException ignored){
+			//created concurrently
+		}
+	}
+	
+	private static Path sibling(Path file, String suffix) {
+		return file.resolveSibling(file.getFileName() + suffix);
+	}
+	
+	private static MessageDigest sha256() {
+		try{
+			return MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException e){
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+}
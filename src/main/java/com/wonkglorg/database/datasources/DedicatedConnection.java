@@ -0,0 +1,24 @@
+package com.wonkglorg.database.datasources;
+
+import com.wonkglorg.database.metrics.QueryMonitor;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A physical connection handed to a single caller, closing it closes the physical connection
+ */
+final class DedicatedConnection extends ConnectionWrapper{
+	
+	/**
+	 * @param queryMonitor the monitor to report statement executions to, null to not time them
+	 */
+	DedicatedConnection(Connection delegate, QueryMonitor queryMonitor) {
+		super(delegate, null, queryMonitor);
+	}
+	
+	@Override
+	public void close() throws SQLException {
+		delegate.close();
+	}
+}
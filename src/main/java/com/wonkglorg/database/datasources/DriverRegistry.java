@@ -0,0 +1,189 @@
+package com.wonkglorg.database.datasources;
+
+import com.wonkglorg.database.DatabaseType;
+import com.wonkglorg.database.exception.DatabaseDriverNotFoundException;
+
+import java.lang.reflect.InvocationTargetException;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Resolves the jdbc {@link Driver} of every {@link DatabaseType} once and opens connections
+ * through it directly, without loading the driver class and going through the synchronized
+ * driver scan of {@link DriverManager} for every connection.
+ * <p>
+ * A driver is looked up by the class name of its type, the instance the driver registered with
+ * {@link DriverManager} is reused if there is one. Types whose class cannot be loaded fall back to
+ * the registered driver accepting their url prefix. Custom types can bind a driver instance with
+ * {@link #register(DatabaseType, Driver)}.
+ * <p>
+ * Properties set with {@link #setProperties(DatabaseType, Properties)} are passed to every
+ * connection of the type, data sources add their own on top, e.g. socket timeouts or statement
+ * cache flags of the driver.
+ */
+@SuppressWarnings("unused")
+public final class DriverRegistry{
+	private static final Logger log = Logger.getLogger(DriverRegistry.class.getName());
+	private static final Map<DatabaseType, Driver> DRIVERS = new ConcurrentHashMap<>();
+	private static final Map<DatabaseType, Properties> PROPERTIES = new ConcurrentHashMap<>();
+	
+	private DriverRegistry() {
+	}
+	
+	/**
+	 * Binds a driver to a type, replacing the one resolved before
+	 *
+	 * @param type the type, can be a custom one
+	 * @param driver the driver opening its connections
+	 */
+	public static void register(DatabaseType type, Driver driver) {
+		if(driver == null){
+			throw new IllegalArgumentException("driver cannot be null");
+		}
+		DRIVERS.put(type, driver);
+	}
+	
+	/**
+	 * Forgets the driver of the type, the next connection resolves it again
+	 */
+	public static void unregister(DatabaseType type) {
+		DRIVERS.remove(type);
+	}
+	
+	/**
+	 * @param type the type
+	 * @param properties driver properties passed to every connection of the type, null to remove
+	 * them
+	 */
+	public static void setProperties(DatabaseType type, Properties properties) {
+		if(properties == null){
+			PROPERTIES.remove(type);
+			return;
+		}
+		Properties copy = new Properties();
+		copy.putAll(properties);
+		PROPERTIES.put(type, copy);
+	}
+	
+	/**
+	 * @return a copy of the driver properties of the type
+	 */
+	public static Properties getProperties(DatabaseType type) {
+		Properties copy = new Properties();
+		Properties properties = PROPERTIES.get(type);
+		if(properties != null){
+			copy.putAll(properties);
+		}
+		return copy;
+	}
+	
+	/**
+	 * @return the driver of the type, resolved with the first call
+	 * @throws DatabaseDriverNotFoundException if no driver could be found
+	 */
+	public static Driver driver(DatabaseType type) {
+		Driver driver = DRIVERS.get(type);
+		if(driver != null){
+			return driver;
+		}
+		return DRIVERS.computeIfAbsent(type, DriverRegistry::resolve);
+	}
+	
+	/**
+	 * Opens a connection with the properties of the type
+	 *
+	 * @param type the type of the database
+	 * @param url the full jdbc url
+	 * @param user the user, null if the url or properties contain it
+	 * @param password the password, null if not needed
+	 */
+	public static Connection connect(DatabaseType type, String url, String user, String password) throws SQLException {
+		return connect(type, url, user, password, null);
+	}
+	
+	/**
+	 * Opens a connection with the properties of the type and the given ones on top
+	 *
+	 * @param type the type of the database
+	 * @param url the full jdbc url
+	 * @param user the user, null if the url or properties contain it
+	 * @param password the password, null if not needed
+	 * @param properties additional driver properties, null for none
+	 */
+	public static Connection connect(DatabaseType type, String url, String user, String password, Properties properties) throws SQLException {
+		Properties info = getProperties(type);
+		if(properties != null){
+			info.putAll(properties);
+		}
+		if(user != null){
+			info.setProperty("user", user);
+		}
+		if(password != null){
+			info.setProperty("password", password);
+		}
+		Driver driver = driver(type);
+		Connection connection = driver.connect(url, info);
+		if(connection == null){
+			throw new SQLException("Driver " + driver.getClass().getName() + " does not accept the url of " + type.name(), "08001");
+		}
+		return connection;
+	}
+	
+	private static Driver resolve(DatabaseType type) {
+		Class<?> driverClass = loadClass(type.classLoader());
+		if(driverClass == null){
+			try{
+				//drivers registered through the service loader under another class name
+				return DriverManager.getDriver(type.driver());
+			} catch(SQLException e){
+				throw new DatabaseDriverNotFoundException("Database Driver does not exist for " + type, e);
+			}
+		}
+		if(!Driver.class.isAssignableFrom(driverClass)){
+			throw new DatabaseDriverNotFoundException(type.classLoader() + " is not a jdbc driver");
+		}
+		Driver driver = null;
+		//loading the class registered it, reuse that instance
+		for(Driver registered : DriverManager.drivers().toList()){
+			if(registered.getClass() == driverClass){
+				driver = registered;
+				break;
+			}
+		}
+		if(driver == null){
+			try{
+				driver = (Driver) driverClass.getDeclaredConstructor().newInstance();
+			} catch(InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException e){
+				throw new DatabaseDriverNotFoundException("Failed to create driver " + type.classLoader(), e);
+			}
+		}
+		log.log(Level.FINE, "Resolved driver " + driverClass.getName() + " for " + type.name());
+		return driver;
+	}
+	
+	/**
+	 * Tries the class loader of this library first, then the one of the calling thread
+	 */
+	private static Class<?> loadClass(String name) {
+		try{
+			return Class.forName(name, true, DriverRegistry.class.getClassLoader());
+		} catch(ClassNotFoundException e){
+			ClassLoader context = Thread.currentThread().getContextClassLoader();
+			if(context == null){
+				return null;
+			}
+			try{
+				return Class.forName(name, true, context);
+			} catch(ClassNotFoundException notFound){
+				return null;
+			}
+		}
+	}
+}
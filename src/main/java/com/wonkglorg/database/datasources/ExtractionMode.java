@@ -0,0 +1,16 @@
+package com.wonkglorg.database.datasources;
+
+/**
+ * How a {@link FileDataSource} extracts the database file bundled on the classpath
+ */
+public enum ExtractionMode{
+	/**
+	 * Extract only if the database file does not exist yet, an existing file is never replaced
+	 */
+	IF_MISSING,
+	/**
+	 * Record the version of the bundled file next to the extracted copy and replace the copy once
+	 * the bundled file changed. Changes made to the extracted copy are lost when it is replaced
+	 */
+	VERIFIED
+}
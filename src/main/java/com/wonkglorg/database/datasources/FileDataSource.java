@@ -1,17 +1,16 @@
 package com.wonkglorg.database.datasources;
 
 import com.wonkglorg.database.DatabaseType;
-import com.wonkglorg.database.exception.DatabaseDriverNotFoundException;
+import com.wonkglorg.database.metrics.QueryMonitor;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
-import java.net.URLConnection;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
 public class FileDataSource implements TypedDataSource{
@@ -20,7 +19,16 @@ public class FileDataSource implements TypedDataSource{
 	protected final Path dbFile;
 	private final String connectionString;
 	private final DatabaseType databaseType;
-	protected Connection connection;
+	protected volatile Connection connection;
+	private final ReentrantLock connectLock = new ReentrantLock();
+	private volatile ValidationPolicy validationPolicy = ValidationPolicy.DEFAULT;
+	private volatile long lastUsed;
+	private volatile Properties driverProperties = null;
+	private volatile int statementCacheSize = 0;
+	private volatile QueryMonitor queryMonitor = null;
+	private volatile ConnectionInitializer connectionInitializer = ConnectionInitializer.NONE;
+	private volatile ExtractionMode extractionMode = ExtractionMode.IF_MISSING;
+	private boolean extracted = false;
 	
 	/**
 	 * IInstantiates a new Datasource
@@ -69,54 +77,140 @@ public class FileDataSource implements TypedDataSource{
 	}
 	
 	/**
-	 * Opens a new Connection to the database if non exists currently
+	 * Opens a new Connection to the database if none exists currently or the current one failed
+	 * validation
 	 */
-	private synchronized void connect() {
+	private Connection connect() {
+		connectLock.lock();
 		try{
-			Class.forName(databaseType.classLoader());
-			
-			Path databaseFile = dbFile;
-			if(!Files.exists(databaseFile)){
-				copyDatabaseFile(databaseFile, sourceDbFile);
+			Connection current = connection;
+			if(current == null || current.isClosed() || !current.isValid(2)){
+				if(!extracted || !Files.exists(dbFile)){
+					DatabaseExtractor.extract(getResource(sourceDbFile.toString()), dbFile, extractionMode);
+					extracted = true;
+				}
+				current = new UncloseAbleConnection(connectionInitializer.initializeOrClose(DriverRegistry.connect(databaseType, connectionString, null, null, driverProperties)), statementCacheSize > 0 ? new StatementCache(statementCacheSize) : null, queryMonitor);
+				connection = current;
 			}
-			
-			if(connection == null || connection.isClosed() || !connection.isValid(2)){
-				connection = new UncloseAbleConnection(DriverManager.getConnection(connectionString));
+			if(current instanceof ConnectionWrapper wrapper){
+				wrapper.clearError();
 			}
+			return current;
 			
-		} catch(ClassNotFoundException e){
-			throw new DatabaseDriverNotFoundException("Database Driver does not exist for " + getType(), e);
 		} catch(SQLException | IOException e){
 			throw new RuntimeException(e);
+		} finally{
+			connectLock.unlock();
 		}
 	}
 	
 	/**
-	 * Copies the database file from the sourcePath to the destinationPath or creates a new file
-	 * if it
-	 * does not exist.
-	 *
-	 * @param databaseFile the file to copy to
+	 * Returns the open connection, it is only validated when the {@link ValidationPolicy} requires
+	 * it
 	 */
-	private void copyDatabaseFile(Path databaseFile, Path sourceFile) throws IOException {
-		if(databaseFile.getParent() != null){
-			Files.createDirectories(databaseFile.getParent());
-		}
-		try(InputStream resourceStream = getResource(sourceFile.toString())){
-			if(resourceStream != null){
-				Files.createDirectories(databaseFile.getParent());
-				Files.copy(resourceStream, databaseFile);
-			} else {
-				Files.createFile(databaseFile);
+	@Override
+	public Connection getConnection() {
+		Connection current = connection;
+		try{
+			if(current == null || current.isClosed() || validationPolicy.requiresValidation(lastUsed, current instanceof ConnectionWrapper wrapper && wrapper.hasErrorOccurred())){
+				current = connect();
 			}
+		} catch(SQLException e){
+			current = connect();
 		}
-		
+		lastUsed = System.nanoTime();
+		return current;
 	}
 	
+	/**
+	 * Opens an additional physical connection to the file, closing it closes the physical
+	 * connection. It does not use the statement cache
+	 */
 	@Override
-	public Connection getConnection() {
-		connect();
-		return connection;
+	public Connection getExclusiveConnection(AccessIntent intent) throws SQLException {
+		getConnection();
+		return new DedicatedConnection(connectionInitializer.initializeOrClose(DriverRegistry.connect(databaseType, connectionString, null, null, driverProperties)), queryMonitor);
+	}
+	
+	/**
+	 * @param validationPolicy when the connection should be validated before it is handed out
+	 */
+	public void setValidationPolicy(ValidationPolicy validationPolicy) {
+		this.validationPolicy = validationPolicy;
+	}
+	
+	public ValidationPolicy getValidationPolicy() {
+		return validationPolicy;
+	}
+	
+	/**
+	 * @param statementCacheSize how many prepared statements are kept open for reuse, 0 disables
+	 * caching. Only applies to connections opened after this call
+	 */
+	public void setStatementCacheSize(int statementCacheSize) {
+		if(statementCacheSize < 0){
+			throw new IllegalArgumentException("statementCacheSize cannot be negative");
+		}
+		this.statementCacheSize = statementCacheSize;
+	}
+	
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+	
+	/**
+	 * @param queryMonitor the monitor statement executions are reported to, null to not time
+	 * them. Only applies to connections opened after this call
+	 */
+	public void setQueryMonitor(QueryMonitor queryMonitor) {
+		this.queryMonitor = queryMonitor;
+	}
+	
+	public QueryMonitor getQueryMonitor() {
+		return queryMonitor;
+	}
+	
+	/**
+	 * @param driverProperties passed to the driver on top of the ones of
+	 * {@link DriverRegistry#setProperties}, null for none. Only applies to connections opened
+	 * after this call
+	 */
+	public void setDriverProperties(Properties driverProperties) {
+		this.driverProperties = driverProperties;
+	}
+	
+	public Properties getDriverProperties() {
+		return driverProperties;
+	}
+	
+	@Override
+	public boolean supportsConnectionInitializer() {
+		return true;
+	}
+	
+	@Override
+	public void setConnectionInitializer(ConnectionInitializer initializer) {
+		this.connectionInitializer = initializer == null ? ConnectionInitializer.NONE : initializer;
+	}
+	
+	@Override
+	public ConnectionInitializer getConnectionInitializer() {
+		return connectionInitializer;
+	}
+	
+	/**
+	 * @param extractionMode how the bundled database is extracted, checked when the first
+	 * connection is opened
+	 */
+	public void setExtractionMode(ExtractionMode extractionMode) {
+		if(extractionMode == null){
+			throw new IllegalArgumentException("extractionMode cannot be null");
+		}
+		this.extractionMode = extractionMode;
+	}
+	
+	public ExtractionMode getExtractionMode() {
+		return extractionMode;
 	}
 	
 	@Override
@@ -124,24 +218,11 @@ public class FileDataSource implements TypedDataSource{
 		return getConnection();
 	}
 	
-	private InputStream getResource(String filename) {
+	private URL getResource(String filename) {
 		if(filename == null){
 			throw new IllegalArgumentException("Filename cannot be null");
 		}
-		
-		try{
-			URL url = this.getClass().getClassLoader().getResource(filename.replace("\\\\", "/"));
-			
-			if(url == null){
-				return null;
-			}
-			
-			URLConnection urlConnection = url.openConnection();
-			urlConnection.setUseCaches(false);
-			return urlConnection.getInputStream();
-		} catch(IOException ex){
-			return null;
-		}
+		return this.getClass().getClassLoader().getResource(filename.replace("\\\\", "/"));
 	}
 	
 	@Override
@@ -0,0 +1,51 @@
+package com.wonkglorg.database.datasources;
+
+import static com.wonkglorg.database.datasources.InstrumentedStatement.timed;
+import com.wonkglorg.database.metrics.QueryMonitor;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Callable statement reporting slow executions and the execution time of sampled executions to a
+ * {@link QueryMonitor}, bound parameters are not captured
+ */
+final class InstrumentedCallableStatement extends CallableStatementWrapper{
+	private final QueryMonitor monitor;
+	private final String sql;
+	private final String shape;
+	
+	InstrumentedCallableStatement(CallableStatement delegate, Connection connection, QueryMonitor monitor, String sql) {
+		super(delegate, connection);
+		this.monitor = monitor;
+		this.sql = sql;
+		this.shape = monitor.shapeOf(sql);
+	}
+	
+	@Override
+	public ResultSet executeQuery() throws SQLException {
+		return timed(this, monitor, monitor.sample(), shape, sql, null, delegate::executeQuery);
+	}
+	
+	@Override
+	public int executeUpdate() throws SQLException {
+		return timed(this, monitor, monitor.sample(), shape, sql, null, delegate::executeUpdate);
+	}
+	
+	@Override
+	public boolean execute() throws SQLException {
+		return timed(this, monitor, monitor.sample(), shape, sql, null, delegate::execute);
+	}
+	
+	@Override
+	public long executeLargeUpdate() throws SQLException {
+		return timed(this, monitor, monitor.sample(), shape, sql, null, delegate::executeLargeUpdate);
+	}
+	
+	@Override
+	public int[] executeBatch() throws SQLException {
+		return timed(this, monitor, monitor.sample(), shape, sql, null, delegate::executeBatch);
+	}
+}
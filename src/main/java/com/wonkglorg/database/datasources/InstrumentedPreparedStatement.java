@@ -0,0 +1,198 @@
+package com.wonkglorg.database.datasources;
+
+import static com.wonkglorg.database.datasources.InstrumentedStatement.timed;
+import com.wonkglorg.database.metrics.QueryMonitor;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+/**
+ * Prepared statement reporting slow executions and the execution time of sampled executions to a
+ * {@link QueryMonitor}. Whether the next execution is sampled is decided up front so the bound
+ * parameters are only remembered for sampled executions, slow executions that were not sampled
+ * are logged without them.
+ */
+final class InstrumentedPreparedStatement extends PreparedStatementWrapper<PreparedStatement>{
+	private final QueryMonitor monitor;
+	private final String sql;
+	private final String shape;
+	private boolean sampled;
+	private Object[] parameters;
+	
+	InstrumentedPreparedStatement(PreparedStatement delegate, Connection connection, QueryMonitor monitor, String sql) {
+		super(delegate, connection);
+		this.monitor = monitor;
+		this.sql = sql;
+		this.shape = monitor.shapeOf(sql);
+		this.sampled = monitor.sample();
+	}
+	
+	private void remember(int parameterIndex, Object value) {
+		if(!sampled){
+			return;
+		}
+		if(parameters == null){
+			parameters = new Object[Math.max(parameterIndex + 1, 8)];
+		} else if(parameterIndex >= parameters.length){
+			parameters = Arrays.copyOf(parameters, Math.max(parameterIndex + 1, parameters.length * 2));
+		}
+		parameters[parameterIndex] = value;
+	}
+	
+	private <T> T execute(InstrumentedStatement.Execution<T> execution) throws SQLException {
+		boolean timed = sampled;
+		Object[] bound = timed && parameters != null ? Arrays.copyOf(parameters, lastParameterIndex() + 1) : null;
+		sampled = monitor.sample();
+		return timed(this, monitor, timed, shape, sql, bound, execution);
+	}
+	
+	private int lastParameterIndex() {
+		for(int i = parameters.length - 1; i > 0; i--){
+			if(parameters[i] != null){
+				return i;
+			}
+		}
+		return 0;
+	}
+	
+	@Override
+	public ResultSet executeQuery() throws SQLException {
+		return execute(delegate::executeQuery);
+	}
+	
+	@Override
+	public int executeUpdate() throws SQLException {
+		return execute(delegate::executeUpdate);
+	}
+	
+	@Override
+	public boolean execute() throws SQLException {
+		return execute(delegate::execute);
+	}
+	
+	@Override
+	public long executeLargeUpdate() throws SQLException {
+		return execute(delegate::executeLargeUpdate);
+	}
+	
+	@Override
+	public int[] executeBatch() throws SQLException {
+		return execute(delegate::executeBatch);
+	}
+	
+	@Override
+	public long[] executeLargeBatch() throws SQLException {
+		return execute(delegate::executeLargeBatch);
+	}
+	
+	@Override
+	public void clearParameters() throws SQLException {
+		delegate.clearParameters();
+		if(parameters != null){
+			Arrays.fill(parameters, null);
+		}
+	}
+	
+	@Override
+	public void setNull(int parameterIndex, int sqlType) throws SQLException {
+		delegate.setNull(parameterIndex, sqlType);
+		remember(parameterIndex, "NULL");
+	}
+	
+	@Override
+	public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+		delegate.setBoolean(parameterIndex, x);
+		remember(parameterIndex, x);
+	}
+	
+	@Override
+	public void setByte(int parameterIndex, byte x) throws SQLException {
+		delegate.setByte(parameterIndex, x);
+		remember(parameterIndex, x);
+	}
+	
+	@Override
+	public void setShort(int parameterIndex, short x) throws SQLException {
+		delegate.setShort(parameterIndex, x);
+		remember(parameterIndex, x);
+	}
+	
+	@Override
+	public void setInt(int parameterIndex, int x) throws SQLException {
+		delegate.setInt(parameterIndex, x);
+		remember(parameterIndex, x);
+	}
+	
+	@Override
+	public void setLong(int parameterIndex, long x) throws SQLException {
+		delegate.setLong(parameterIndex, x);
+		remember(parameterIndex, x);
+	}
+	
+	@Override
+	public void setFloat(int parameterIndex, float x) throws SQLException {
+		delegate.setFloat(parameterIndex, x);
+		remember(parameterIndex, x);
+	}
+	
+	@Override
+	public void setDouble(int parameterIndex, double x) throws SQLException {
+		delegate.setDouble(parameterIndex, x);
+		remember(parameterIndex, x);
+	}
+	
+	@Override
+	public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+		delegate.setBigDecimal(parameterIndex, x);
+		remember(parameterIndex, x);
+	}
+	
+	@Override
+	public void setString(int parameterIndex, String x) throws SQLException {
+		delegate.setString(parameterIndex, x);
+		remember(parameterIndex, x);
+	}
+	
+	@Override
+	public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+		delegate.setBytes(parameterIndex, x);
+		remember(parameterIndex, x);
+	}
+	
+	@Override
+	public void setDate(int parameterIndex, Date x) throws SQLException {
+		delegate.setDate(parameterIndex, x);
+		remember(parameterIndex, x);
+	}
+	
+	@Override
+	public void setTime(int parameterIndex, Time x) throws SQLException {
+		delegate.setTime(parameterIndex, x);
+		remember(parameterIndex, x);
+	}
+	
+	@Override
+	public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
+		delegate.setTimestamp(parameterIndex, x);
+		remember(parameterIndex, x);
+	}
+	
+	@Override
+	public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
+		delegate.setObject(parameterIndex, x, targetSqlType);
+		remember(parameterIndex, x);
+	}
+	
+	@Override
+	public void setObject(int parameterIndex, Object x) throws SQLException {
+		delegate.setObject(parameterIndex, x);
+		remember(parameterIndex, x);
+	}
+}
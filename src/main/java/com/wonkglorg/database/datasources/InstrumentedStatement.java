@@ -0,0 +1,177 @@
+package com.wonkglorg.database.datasources;
+
+import com.wonkglorg.database.metrics.QueryMonitor;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Statement reporting slow executions and the execution time of sampled executions to a
+ * {@link QueryMonitor}
+ */
+final class InstrumentedStatement extends StatementWrapper<Statement>{
+	private final QueryMonitor monitor;
+	/**
+	 * First sql added to the current batch, batches are reported under its shape
+	 */
+	private String batchSql;
+	
+	InstrumentedStatement(Statement delegate, Connection connection, QueryMonitor monitor) {
+		super(delegate, connection);
+		this.monitor = monitor;
+	}
+	
+	/**
+	 * A call to the wrapped statement
+	 */
+	@FunctionalInterface
+	interface Execution<T>{
+		T execute() throws SQLException;
+	}
+	
+	/**
+	 * Runs and times the execution, it is reported to the monitor if it was sampled or slower than
+	 * the threshold. The execution and its failures are reported to the connection of the statement
+	 *
+	 * @param statement the statement that executes
+	 * @param monitor the monitor to report to
+	 * @param sampled if the execution should be added to the statistics
+	 * @param shape the normalized sql or null to normalize the sql if sampled
+	 * @param sql the executed sql
+	 * @param parameters the bound parameters indexed by parameter index, may be null
+	 * @param execution the call to time
+	 * @return the result of the execution
+	 */
+	static <T> T timed(StatementWrapper<?> statement, QueryMonitor monitor, boolean sampled, String shape, String sql, Object[] parameters, Execution<T> execution) throws SQLException {
+		statement.executing();
+		try{
+			long start = System.nanoTime();
+			T result = execution.execute();
+			long elapsed = System.nanoTime() - start;
+			if(sampled){
+				monitor.record(shape != null ? shape : monitor.shapeOf(sql), elapsed, updatedRowsOf(result));
+			}
+			if(monitor.isSlow(elapsed)){
+				monitor.recordSlowQuery(sql, elapsed, parameters);
+			}
+			return result;
+		} catch(SQLException e){
+			throw statement.executeFailed(e);
+		}
+	}
+	
+	private static long updatedRowsOf(Object result) {
+		if(result instanceof Integer count){
+			return Math.max(count, 0);
+		}
+		if(result instanceof Long count){
+			return Math.max(count, 0);
+		}
+		long rows = 0;
+		if(result instanceof int[] counts){
+			for(int count : counts){
+				rows += Math.max(count, 0);
+			}
+		} else if(result instanceof long[] counts){
+			for(long count : counts){
+				rows += Math.max(count, 0);
+			}
+		}
+		return rows;
+	}
+	
+	@Override
+	public ResultSet executeQuery(String sql) throws SQLException {
+		return timed(this, monitor, monitor.sample(), null, sql, null, () -> delegate.executeQuery(sql));
+	}
+	
+	@Override
+	public int executeUpdate(String sql) throws SQLException {
+		return timed(this, monitor, monitor.sample(), null, sql, null, () -> delegate.executeUpdate(sql));
+	}
+	
+	@Override
+	public boolean execute(String sql) throws SQLException {
+		return timed(this, monitor, monitor.sample(), null, sql, null, () -> delegate.execute(sql));
+	}
+	
+	@Override
+	public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+		return timed(this, monitor, monitor.sample(), null, sql, null, () -> delegate.executeUpdate(sql, autoGeneratedKeys));
+	}
+	
+	@Override
+	public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+		return timed(this, monitor, monitor.sample(), null, sql, null, () -> delegate.executeUpdate(sql, columnIndexes));
+	}
+	
+	@Override
+	public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+		return timed(this, monitor, monitor.sample(), null, sql, null, () -> delegate.executeUpdate(sql, columnNames));
+	}
+	
+	@Override
+	public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+		return timed(this, monitor, monitor.sample(), null, sql, null, () -> delegate.execute(sql, autoGeneratedKeys));
+	}
+	
+	@Override
+	public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+		return timed(this, monitor, monitor.sample(), null, sql, null, () -> delegate.execute(sql, columnIndexes));
+	}
+	
+	@Override
+	public boolean execute(String sql, String[] columnNames) throws SQLException {
+		return timed(this, monitor, monitor.sample(), null, sql, null, () -> delegate.execute(sql, columnNames));
+	}
+	
+	@Override
+	public long executeLargeUpdate(String sql) throws SQLException {
+		return timed(this, monitor, monitor.sample(), null, sql, null, () -> delegate.executeLargeUpdate(sql));
+	}
+	
+	@Override
+	public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+		return timed(this, monitor, monitor.sample(), null, sql, null, () -> delegate.executeLargeUpdate(sql, autoGeneratedKeys));
+	}
+	
+	@Override
+	public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+		return timed(this, monitor, monitor.sample(), null, sql, null, () -> delegate.executeLargeUpdate(sql, columnIndexes));
+	}
+	
+	@Override
+	public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+		return timed(this, monitor, monitor.sample(), null, sql, null, () -> delegate.executeLargeUpdate(sql, columnNames));
+	}
+	
+	@Override
+	public void addBatch(String sql) throws SQLException {
+		delegate.addBatch(sql);
+		if(batchSql == null){
+			batchSql = sql;
+		}
+	}
+	
+	@Override
+	public void clearBatch() throws SQLException {
+		delegate.clearBatch();
+		batchSql = null;
+	}
+	
+	@Override
+	public int[] executeBatch() throws SQLException {
+		String sql = batchSql;
+		batchSql = null;
+		return timed(this, monitor, monitor.sample(), null, sql, null, delegate::executeBatch);
+	}
+	
+	@Override
+	public long[] executeLargeBatch() throws SQLException {
+		String sql = batchSql;
+		batchSql = null;
+		return timed(this, monitor, monitor.sample(), null, sql, null, delegate::executeLargeBatch);
+	}
+}
@@ -0,0 +1,69 @@
+package com.wonkglorg.database.datasources;
+
+import java.lang.ref.Cleaner;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Borrow state of a single {@link PooledConnection}, only created if leak detection or
+ * reclamation is enabled. Kept separate from the connection wrapper so it can be registered with
+ * a {@link Cleaner}, if the wrapper is garbage collected without being closed the tracker hands
+ * its entry back to the pool.
+ */
+final class LeakTracker implements Runnable{
+	private static final Cleaner CLEANER = Cleaner.create();
+	
+	private final PoolEntry entry;
+	private final PooledServerDataSource pool;
+	final long borrowedAt;
+	/**
+	 * Where the connection was borrowed, null if this borrow was not sampled
+	 */
+	final Throwable borrowTrace;
+	private final AtomicBoolean returned = new AtomicBoolean();
+	/**
+	 * Set once the connection was reported as held for too long
+	 */
+	volatile boolean reported;
+	private Cleaner.Cleanable cleanable;
+	
+	LeakTracker(PoolEntry entry, PooledServerDataSource pool, long borrowedAt, Throwable borrowTrace) {
+		this.entry = entry;
+		this.pool = pool;
+		this.borrowedAt = borrowedAt;
+		this.borrowTrace = borrowTrace;
+	}
+	
+	/**
+	 * Starts watching the wrapper, it must not be referenced by the tracker
+	 */
+	void register(PooledConnection connection) {
+		cleanable = CLEANER.register(connection, this);
+	}
+	
+	/**
+	 * Marks the connection as returned, only the first caller gets true
+	 */
+	boolean markReturned() {
+		if(!returned.compareAndSet(false, true)){
+			return false;
+		}
+		if(cleanable != null){
+			cleanable.clean();
+		}
+		return true;
+	}
+	
+	boolean isReturned() {
+		return returned.get();
+	}
+	
+	/**
+	 * Called by the cleaner, after {@link #markReturned()} this does nothing
+	 */
+	@Override
+	public void run() {
+		if(returned.compareAndSet(false, true)){
+			pool.reclaimConnection(entry, this);
+		}
+	}
+}
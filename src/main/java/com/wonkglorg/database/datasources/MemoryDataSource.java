@@ -1,19 +1,20 @@
 package com.wonkglorg.database.datasources;
 
 import com.wonkglorg.database.DatabaseType;
-import com.wonkglorg.database.exception.DatabaseDriverNotFoundException;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public class MemoryDataSource implements TypedDataSource{
+public class MemoryDataSource implements TypedDataSource, AutoCloseable{
 	private static final Logger log = Logger.getLogger(MemoryDataSource.class.getName());
 	private final String connectionString;
 	private final DatabaseType databaseType;
-	protected Connection connection;
+	protected volatile Connection connection;
+	private final ReentrantLock connectLock = new ReentrantLock();
+	private volatile ConnectionInitializer connectionInitializer = ConnectionInitializer.NONE;
 	
 	/**
 	 * IInstantiates a new Datasource
@@ -21,7 +22,7 @@ public class MemoryDataSource implements TypedDataSource{
 	 * @param type the type of database to connect to (has to be a file based one)
 	 */
 	public MemoryDataSource(DatabaseType type) {
-		this(type, type.driver());
+		this(type, "");
 	}
 	
 	/**
@@ -43,23 +44,87 @@ public class MemoryDataSource implements TypedDataSource{
 			return;
 		}
 		
+		connectLock.lock();
 		try{
-			Class.forName(databaseType.classLoader());
-			connection = DriverManager.getConnection(databaseType.driver() + connectionString);
-			
-		} catch(ClassNotFoundException e){
-			throw new DatabaseDriverNotFoundException("Database Driver does not exist for " + getType(), e);
+			if(connection == null){
+				connection = new UncloseAbleConnection(connectionInitializer.initializeOrClose(DriverRegistry.connect(databaseType, databaseType.driver() + connectionString, null, null)));
+			}
 		} catch(SQLException e){
 			throw new RuntimeException(e);
+		} finally{
+			connectLock.unlock();
 		}
 	}
 	
+	/**
+	 * Returns the connection of the database, closing it does nothing so it can be shared. Use
+	 * {@link #close()} to close it
+	 */
 	@Override
 	public Connection getConnection() {
 		connect();
 		return connection;
 	}
 	
+	/**
+	 * Closes the connection, a private memory database is gone afterwards. The next
+	 * {@link #getConnection()} opens a new one
+	 */
+	@Override
+	public void close() {
+		connectLock.lock();
+		try{
+			Connection current = connection;
+			connection = null;
+			if(current instanceof ConnectionWrapper wrapper){
+				wrapper.delegate.close();
+			} else if(current != null){
+				current.close();
+			}
+		} catch(SQLException e){
+			throw new RuntimeException(e);
+		} finally{
+			connectLock.unlock();
+		}
+	}
+	
+	@Override
+	public boolean supportsConnectionInitializer() {
+		return true;
+	}
+	
+	@Override
+	public void setConnectionInitializer(ConnectionInitializer initializer) {
+		this.connectionInitializer = initializer == null ? ConnectionInitializer.NONE : initializer;
+	}
+	
+	@Override
+	public ConnectionInitializer getConnectionInitializer() {
+		return connectionInitializer;
+	}
+	
+	/**
+	 * Opens an additional physical connection to the same database, only shared memory databases
+	 * can be reached by more than one connection. The caller has to close it
+	 */
+	public Connection openConnection() throws SQLException {
+		connect();
+		return connectionInitializer.initializeOrClose(DriverRegistry.connect(databaseType, databaseType.driver() + connectionString, null, null));
+	}
+	
+	/**
+	 * Opens an additional physical connection for shared memory databases. A private memory
+	 * database only exists on its one connection, so it returns the shared connection and callers
+	 * have to make sure no one else uses it meanwhile
+	 */
+	@Override
+	public Connection getExclusiveConnection(AccessIntent intent) throws SQLException {
+		if(DatabaseType.SQLITE_MEMORY.equals(databaseType)){
+			return getConnection();
+		}
+		return new DedicatedConnection(openConnection(), null);
+	}
+	
 	@Override
 	public Connection getConnection(String username, String password) {
 		return getConnection();
@@ -0,0 +1,388 @@
+package com.wonkglorg.database.datasources;
+
+import com.wonkglorg.database.metrics.QueryMonitor;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Settings for a {@link PooledServerDataSource}, all setters return the config itself so they can
+ * be chained.
+ * <pre>
+ *     {@code
+ * new PoolConfig().setMinIdle(5).setMaxPoolSize(20).setCreationParallelism(4);
+ * }
+ * </pre>
+ */
+@SuppressWarnings("unused")
+public class PoolConfig{
+	private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+	
+	private String poolName = null;
+	private boolean registerMBean = false;
+	private int minIdle = 0;
+	private int maxPoolSize = 10;
+	private int creationParallelism = 2;
+	private long connectionTimeout = 30_000;
+	private long idleTimeout = 600_000;
+	private long maxLifetime = 1_800_000;
+	private long keepaliveTime = 120_000;
+	private long housekeepingPeriod = 30_000;
+	private int statementCacheSize = 0;
+	private QueryMonitor queryMonitor = null;
+	private long leakDetectionThreshold = 0;
+	private ConnectionInitializer connectionInitializer = ConnectionInitializer.NONE;
+	private int leakTraceSampleRate = 10;
+	private boolean reclaimLeakedConnections = false;
+	private Properties driverProperties = null;
+	
+	/**
+	 * @return the name of the pool, used for thread names and the JMX registration
+	 */
+	public String getPoolName() {
+		if(poolName == null){
+			poolName = "pool-" + POOL_COUNTER.incrementAndGet();
+		}
+		return poolName;
+	}
+	
+	/**
+	 * @param poolName the name of the pool, used for thread names and the JMX registration
+	 */
+	public PoolConfig setPoolName(String poolName) {
+		this.poolName = poolName;
+		return this;
+	}
+	
+	/**
+	 * @return true if the pool registers a {@link com.wonkglorg.database.metrics.PoolMXBean}
+	 */
+	public boolean isRegisterMBean() {
+		return registerMBean;
+	}
+	
+	/**
+	 * @param registerMBean true to expose the pool metrics through JMX under
+	 * {@code com.wonkglorg.database:type=Pool,name=<poolName>}
+	 */
+	public PoolConfig setRegisterMBean(boolean registerMBean) {
+		this.registerMBean = registerMBean;
+		return this;
+	}
+	
+	/**
+	 * @return the number of idle connections the pool tries to keep open
+	 */
+	public int getMinIdle() {
+		return minIdle;
+	}
+	
+	/**
+	 * @param minIdle the number of idle connections the pool tries to keep open, these are
+	 * opened in the background when the pool is created
+	 */
+	public PoolConfig setMinIdle(int minIdle) {
+		if(minIdle < 0){
+			throw new IllegalArgumentException("minIdle cannot be negative");
+		}
+		this.minIdle = minIdle;
+		return this;
+	}
+	
+	/**
+	 * @return the maximum number of physical connections the pool opens
+	 */
+	public int getMaxPoolSize() {
+		return maxPoolSize;
+	}
+	
+	/**
+	 * @param maxPoolSize the maximum number of physical connections the pool opens
+	 */
+	public PoolConfig setMaxPoolSize(int maxPoolSize) {
+		if(maxPoolSize < 1){
+			throw new IllegalArgumentException("maxPoolSize has to be at least 1");
+		}
+		this.maxPoolSize = maxPoolSize;
+		return this;
+	}
+	
+	/**
+	 * @return how many connections may be opened at the same time
+	 */
+	public int getCreationParallelism() {
+		return creationParallelism;
+	}
+	
+	/**
+	 * @param creationParallelism how many connections may be opened at the same time
+	 */
+	public PoolConfig setCreationParallelism(int creationParallelism) {
+		if(creationParallelism < 1){
+			throw new IllegalArgumentException("creationParallelism has to be at least 1");
+		}
+		this.creationParallelism = creationParallelism;
+		return this;
+	}
+	
+	/**
+	 * @return how long in milliseconds a borrower waits for a connection, 0 waits indefinitely
+	 */
+	public long getConnectionTimeout() {
+		return connectionTimeout;
+	}
+	
+	/**
+	 * @param connectionTimeout how long in milliseconds a borrower waits for a connection before
+	 * a {@link com.wonkglorg.database.exception.ConnectionTimeoutException} is thrown, 0 waits
+	 * indefinitely
+	 */
+	public PoolConfig setConnectionTimeout(long connectionTimeout) {
+		if(connectionTimeout < 0){
+			throw new IllegalArgumentException("connectionTimeout cannot be negative");
+		}
+		this.connectionTimeout = connectionTimeout;
+		return this;
+	}
+	
+	/**
+	 * @return how long in milliseconds a connection may stay idle before it is closed, 0 never
+	 * closes idle connections
+	 */
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+	
+	/**
+	 * @param idleTimeout how long in milliseconds a connection may stay idle before it is closed,
+	 * the pool never shrinks below min idle this way. 0 never closes idle connections
+	 */
+	public PoolConfig setIdleTimeout(long idleTimeout) {
+		if(idleTimeout < 0){
+			throw new IllegalArgumentException("idleTimeout cannot be negative");
+		}
+		this.idleTimeout = idleTimeout;
+		return this;
+	}
+	
+	/**
+	 * @return the maximum time in milliseconds a connection stays open, 0 for no limit
+	 */
+	public long getMaxLifetime() {
+		return maxLifetime;
+	}
+	
+	/**
+	 * @param maxLifetime the maximum time in milliseconds a connection stays open, each
+	 * connection retires up to 2.5% earlier so they do not all reconnect at the same time. 0 for
+	 * no limit
+	 */
+	public PoolConfig setMaxLifetime(long maxLifetime) {
+		if(maxLifetime < 0){
+			throw new IllegalArgumentException("maxLifetime cannot be negative");
+		}
+		this.maxLifetime = maxLifetime;
+		return this;
+	}
+	
+	/**
+	 * @return how long in milliseconds a connection has to be idle before it is pinged, 0 to not
+	 * send keepalives
+	 */
+	public long getKeepaliveTime() {
+		return keepaliveTime;
+	}
+	
+	/**
+	 * @param keepaliveTime how long in milliseconds a connection has to be idle before it is
+	 * pinged to keep it from being closed by the server or a firewall, 0 to not send keepalives
+	 */
+	public PoolConfig setKeepaliveTime(long keepaliveTime) {
+		if(keepaliveTime < 0){
+			throw new IllegalArgumentException("keepaliveTime cannot be negative");
+		}
+		this.keepaliveTime = keepaliveTime;
+		return this;
+	}
+	
+	/**
+	 * @return how often in milliseconds the pool checks its idle connections
+	 */
+	public long getHousekeepingPeriod() {
+		return housekeepingPeriod;
+	}
+	
+	/**
+	 * @param housekeepingPeriod how often in milliseconds the pool checks its idle connections
+	 * for eviction, retirement and keepalive
+	 */
+	public PoolConfig setHousekeepingPeriod(long housekeepingPeriod) {
+		if(housekeepingPeriod < 1){
+			throw new IllegalArgumentException("housekeepingPeriod has to be at least 1");
+		}
+		this.housekeepingPeriod = housekeepingPeriod;
+		return this;
+	}
+	
+	/**
+	 * @return how many prepared statements are cached per connection, 0 if caching is disabled
+	 */
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+	
+	/**
+	 * @param statementCacheSize how many prepared statements are cached per connection, closing
+	 * a cached statement keeps it open for the next borrower preparing the same sql. 0 disables
+	 * caching
+	 */
+	public PoolConfig setStatementCacheSize(int statementCacheSize) {
+		if(statementCacheSize < 0){
+			throw new IllegalArgumentException("statementCacheSize cannot be negative");
+		}
+		this.statementCacheSize = statementCacheSize;
+		return this;
+	}
+	
+	/**
+	 * @return the monitor statement executions are reported to, null if they are not timed
+	 */
+	public QueryMonitor getQueryMonitor() {
+		return queryMonitor;
+	}
+	
+	/**
+	 * @param queryMonitor the monitor statement executions on pooled connections are reported
+	 * to, null to not time them
+	 */
+	public PoolConfig setQueryMonitor(QueryMonitor queryMonitor) {
+		this.queryMonitor = queryMonitor;
+		return this;
+	}
+	
+	/**
+	 * @return how long in milliseconds a connection can be borrowed before it is reported as a
+	 * possible leak, 0 if borrowed connections are not checked
+	 */
+	public long getLeakDetectionThreshold() {
+		return leakDetectionThreshold;
+	}
+	
+	/**
+	 * @param leakDetectionThreshold how long in milliseconds a connection can be borrowed before
+	 * it is reported as a possible leak, 0 to not check borrowed connections. Checked by the
+	 * housekeeper so leaks are reported up to one housekeeping period late
+	 */
+	public PoolConfig setLeakDetectionThreshold(long leakDetectionThreshold) {
+		if(leakDetectionThreshold < 0){
+			throw new IllegalArgumentException("leakDetectionThreshold cannot be negative");
+		}
+		this.leakDetectionThreshold = leakDetectionThreshold;
+		return this;
+	}
+	
+	/**
+	 * @return one in how many borrows records the stack trace of the borrower
+	 */
+	public int getLeakTraceSampleRate() {
+		return leakTraceSampleRate;
+	}
+	
+	/**
+	 * @param leakTraceSampleRate one in how many borrows records the stack trace of the borrower
+	 * for leak reports, 1 records every borrow. Only used if a leak detection threshold is set
+	 */
+	public PoolConfig setLeakTraceSampleRate(int leakTraceSampleRate) {
+		if(leakTraceSampleRate < 1){
+			throw new IllegalArgumentException("leakTraceSampleRate has to be at least 1");
+		}
+		this.leakTraceSampleRate = leakTraceSampleRate;
+		return this;
+	}
+	
+	/**
+	 * @return true if connections garbage collected without being closed are reclaimed
+	 */
+	public boolean isReclaimLeakedConnections() {
+		return reclaimLeakedConnections;
+	}
+	
+	/**
+	 * @param reclaimLeakedConnections true to close the physical connection of a borrowed
+	 * connection that is garbage collected without being closed and refill its slot. Every borrow
+	 * then registers with a {@link java.lang.ref.Cleaner}, which synchronizes internally, so this
+	 * is off by default
+	 */
+	public PoolConfig setReclaimLeakedConnections(boolean reclaimLeakedConnections) {
+		this.reclaimLeakedConnections = reclaimLeakedConnections;
+		return this;
+	}
+	
+	/**
+	 * @return the initializer run on every new physical connection
+	 */
+	public ConnectionInitializer getConnectionInitializer() {
+		return connectionInitializer;
+	}
+	
+	/**
+	 * @param connectionInitializer run once on every physical connection the pool opens, before
+	 * its session defaults are captured
+	 */
+	public PoolConfig setConnectionInitializer(ConnectionInitializer connectionInitializer) {
+		this.connectionInitializer = connectionInitializer == null ? ConnectionInitializer.NONE : connectionInitializer;
+		return this;
+	}
+	
+	/**
+	 * @return the driver properties of the physical connections, null if there are none
+	 */
+	public Properties getDriverProperties() {
+		return driverProperties;
+	}
+	
+	/**
+	 * @param driverProperties passed to the driver for every physical connection on top of the
+	 * ones of {@link DriverRegistry#setProperties}, e.g. socket timeouts or server side statement
+	 * caching. null for none
+	 */
+	public PoolConfig setDriverProperties(Properties driverProperties) {
+		this.driverProperties = driverProperties;
+		return this;
+	}
+	
+	/**
+	 * @return a config with the same settings, changing one does not change the other. The driver
+	 * properties and the query monitor are shared
+	 */
+	public PoolConfig copy() {
+		PoolConfig copy = new PoolConfig();
+		copy.poolName = poolName;
+		copy.registerMBean = registerMBean;
+		copy.minIdle = minIdle;
+		copy.maxPoolSize = maxPoolSize;
+		copy.creationParallelism = creationParallelism;
+		copy.connectionTimeout = connectionTimeout;
+		copy.idleTimeout = idleTimeout;
+		copy.maxLifetime = maxLifetime;
+		copy.keepaliveTime = keepaliveTime;
+		copy.housekeepingPeriod = housekeepingPeriod;
+		copy.statementCacheSize = statementCacheSize;
+		copy.queryMonitor = queryMonitor;
+		copy.leakDetectionThreshold = leakDetectionThreshold;
+		copy.connectionInitializer = connectionInitializer;
+		copy.leakTraceSampleRate = leakTraceSampleRate;
+		copy.reclaimLeakedConnections = reclaimLeakedConnections;
+		copy.driverProperties = driverProperties;
+		return copy;
+	}
+	
+	/**
+	 * Checks the settings against each other
+	 */
+	void validate() {
+		if(minIdle > maxPoolSize){
+			throw new IllegalArgumentException("minIdle (" + minIdle + ") cannot be larger than maxPoolSize (" + maxPoolSize + ")");
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package com.wonkglorg.database.datasources;
+
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single physical connection tracked by a {@link ConnectionBag}. The state is changed with
+ * compare and set only, whoever wins the swap to {@link #STATE_IN_USE} owns the connection.
+ */
+final class PoolEntry{
+	static final int STATE_NOT_IN_USE = 0;
+	static final int STATE_IN_USE = 1;
+	static final int STATE_REMOVED = -1;
+	static final int STATE_RESERVED = -2;
+	
+	final Connection connection;
+	/**
+	 * Prepared statements of this connection, shared by every borrower. Null if disabled
+	 */
+	final StatementCache statementCache;
+	/**
+	 * Session settings borrowers get the connection with
+	 */
+	final ConnectionDefaults defaults;
+	private final AtomicInteger state = new AtomicInteger(STATE_NOT_IN_USE);
+	final long createdAt;
+	/**
+	 * How long after creation the connection is retired in nanoseconds, 0 if it never is
+	 */
+	final long lifetime;
+	volatile long lastAccessed;
+	volatile long lastKeepalive;
+	/**
+	 * Set for borrowed connections that should be closed instead of returned to the pool
+	 */
+	volatile boolean evicted;
+	/**
+	 * Borrow state of the current borrower, null while the connection is not borrowed or the
+	 * borrow is not tracked
+	 */
+	volatile LeakTracker leakTracker;
+	
+	PoolEntry(Connection connection, ConnectionDefaults defaults, long lifetimeNanos, StatementCache statementCache) {
+		this.connection = connection;
+		this.defaults = defaults;
+		this.statementCache = statementCache;
+		this.createdAt = System.nanoTime();
+		this.lifetime = lifetimeNanos;
+		this.lastAccessed = createdAt;
+		this.lastKeepalive = createdAt;
+	}
+	
+	int getState() {
+		return state.get();
+	}
+	
+	void setState(int newState) {
+		state.set(newState);
+	}
+	
+	boolean compareAndSet(int expect, int update) {
+		return state.compareAndSet(expect, update);
+	}
+	
+	boolean isExpired(long now) {
+		return lifetime > 0 && now - createdAt >= lifetime;
+	}
+}
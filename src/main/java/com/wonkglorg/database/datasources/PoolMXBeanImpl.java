@@ -0,0 +1,112 @@
+package com.wonkglorg.database.datasources;
+
+import com.wonkglorg.database.metrics.LatencyHistogram;
+import com.wonkglorg.database.metrics.PoolMXBean;
+import com.wonkglorg.database.metrics.PoolMetrics;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * Exposes the metrics of a {@link PooledServerDataSource} through JMX
+ */
+final class PoolMXBeanImpl implements PoolMXBean{
+	private final PooledServerDataSource pool;
+	
+	PoolMXBeanImpl(PooledServerDataSource pool) {
+		this.pool = pool;
+	}
+	
+	private static double millis(LatencyHistogram.Snapshot snapshot, ToLongFunction<LatencyHistogram.Snapshot> value) {
+		return value.applyAsLong(snapshot) / 1_000_000.0;
+	}
+	
+	@Override
+	public int getActiveConnections() {
+		return pool.getMetrics().active();
+	}
+	
+	@Override
+	public int getIdleConnections() {
+		return pool.getMetrics().idle();
+	}
+	
+	@Override
+	public int getThreadsAwaitingConnection() {
+		return pool.getMetrics().waiting();
+	}
+	
+	@Override
+	public int getTotalConnections() {
+		return pool.getMetrics().total();
+	}
+	
+	@Override
+	public int getMaxPoolSize() {
+		return pool.getMetrics().maxPoolSize();
+	}
+	
+	@Override
+	public long getCreatedConnections() {
+		return pool.getMetrics().created();
+	}
+	
+	@Override
+	public long getDestroyedConnections() {
+		return pool.getMetrics().destroyed();
+	}
+	
+	@Override
+	public long getCreationFailures() {
+		return pool.getMetrics().creationFailures();
+	}
+	
+	@Override
+	public long getBorrowCount() {
+		return pool.getMetrics().borrowed();
+	}
+	
+	@Override
+	public long getTimeoutCount() {
+		return pool.getMetrics().timeouts();
+	}
+	
+	@Override
+	public long getLeakCount() {
+		return pool.getMetrics().leaks();
+	}
+	
+	@Override
+	public long getReclaimedCount() {
+		return pool.getMetrics().reclaimed();
+	}
+	
+	@Override
+	public double getBorrowWaitMeanMillis() {
+		return millis(pool.getMetrics().borrowWait(), LatencyHistogram.Snapshot::mean);
+	}
+	
+	@Override
+	public double getBorrowWaitP99Millis() {
+		return millis(pool.getMetrics().borrowWait(), LatencyHistogram.Snapshot::p99);
+	}
+	
+	@Override
+	public double getBorrowWaitMaxMillis() {
+		return millis(pool.getMetrics().borrowWait(), LatencyHistogram.Snapshot::max);
+	}
+	
+	@Override
+	public double getHoldTimeMeanMillis() {
+		return millis(pool.getMetrics().holdTime(), LatencyHistogram.Snapshot::mean);
+	}
+	
+	@Override
+	public double getHoldTimeP99Millis() {
+		return millis(pool.getMetrics().holdTime(), LatencyHistogram.Snapshot::p99);
+	}
+	
+	@Override
+	public double getHoldTimeMaxMillis() {
+		return millis(pool.getMetrics().holdTime(), LatencyHistogram.Snapshot::max);
+	}
+}
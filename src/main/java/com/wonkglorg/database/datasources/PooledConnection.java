@@ -1,21 +1,109 @@
 package com.wonkglorg.database.datasources;
 
 import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class PooledConnection extends UncloseAbleConnection{
+	private static final Logger log = Logger.getLogger(PooledConnection.class.getName());
+	private static final AtomicIntegerFieldUpdater<PooledConnection> RETURNED = AtomicIntegerFieldUpdater.newUpdater(PooledConnection.class, "returned");
+	
 	private final PooledServerDataSource pool;
-	private boolean returned = false;
+	private final PoolEntry entry;
+	private final long borrowedAt;
+	/**
+	 * Borrow state for leak detection and reclamation, null if both are disabled
+	 */
+	private final LeakTracker leakTracker;
+	/**
+	 * 1 once returned, only used without a leak tracker
+	 */
+	private volatile int returned = 0;
+	/**
+	 * Statements created by this borrower, the ones still open on return are closed
+	 */
+	private final List<Statement> openStatements = new ArrayList<>();
 	
+	/**
+	 * Wraps a connection opened outside the pool, closing the wrapper hands the connection to the
+	 * pool which then lends it out like its own connections
+	 *
+	 * @deprecated borrow connections with {@link PooledServerDataSource#getConnection()}, this
+	 * constructor only exists for code written against the old pool
+	 */
+	@Deprecated
 	public PooledConnection(Connection delegate, PooledServerDataSource pool) {
-		super(delegate);
+		this(pool.adoptConnection(delegate), pool);
+	}
+	
+	private PooledConnection(PoolEntry entry, PooledServerDataSource pool) {
+		this(entry, pool, System.nanoTime());
+	}
+	
+	private PooledConnection(PoolEntry entry, PooledServerDataSource pool, long borrowedAt) {
+		this(entry, pool, borrowedAt, pool.trackBorrow(entry, borrowedAt));
+	}
+	
+	/**
+	 * @param leakTracker the borrow state for leak detection and reclamation, null if both are
+	 * disabled
+	 */
+	PooledConnection(PoolEntry entry, PooledServerDataSource pool, long borrowedAt, LeakTracker leakTracker) {
+		super(entry.connection, entry.statementCache, pool.getConfig().getQueryMonitor());
+		this.entry = entry;
 		this.pool = pool;
+		this.borrowedAt = borrowedAt;
+		this.leakTracker = leakTracker;
+		if(leakTracker != null && pool.getConfig().isReclaimLeakedConnections()){
+			leakTracker.register(this);
+		}
+	}
+	
+	@Override
+	protected <S extends Statement> S onStatementCreated(S statement, String sql) {
+		if(openStatements.size() >= 32){
+			openStatements.removeIf(PooledConnection::isStatementClosed);
+		}
+		S created = super.onStatementCreated(statement, sql);
+		openStatements.add(created);
+		return created;
 	}
 	
 	@Override
 	public void close() {
-		if(!returned){
-			returned = true;
-			pool.releaseConnection(super.delegate);
+		boolean first = leakTracker != null ? leakTracker.markReturned() : RETURNED.compareAndSet(this, 0, 1);
+		if(first){
+			closeOpenStatements();
+			pool.releaseConnection(entry, this, borrowedAt, leakTracker);
+		}
+	}
+	
+	@Override
+	public boolean isClosed() throws SQLException {
+		return (leakTracker != null ? leakTracker.isReturned() : returned == 1) || super.isClosed();
+	}
+	
+	private void closeOpenStatements() {
+		for(Statement statement : openStatements){
+			try{
+				statement.close();
+			} catch(SQLException e){
+				log.log(Level.FINE, "Failed to close statement left open by borrower", e);
+			}
+		}
+		openStatements.clear();
+	}
+	
+	private static boolean isStatementClosed(Statement statement) {
+		try{
+			return statement.isClosed();
+		} catch(SQLException e){
+			return true;
 		}
 	}
-}
\ No newline at end of file
+}
@@ -1,76 +1,566 @@
 package com.wonkglorg.database.datasources;
 
 import com.wonkglorg.database.DatabaseType;
-import com.wonkglorg.database.exception.DatabaseDriverNotFoundException;
+import com.wonkglorg.database.exception.ConnectionTimeoutException;
+import com.wonkglorg.database.metrics.LatencyHistogram;
+import com.wonkglorg.database.metrics.PoolMetrics;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.util.ArrayDeque;
-import java.util.Queue;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public class PooledServerDataSource implements TypedDataSource{
+public class PooledServerDataSource implements TypedDataSource, AutoCloseable{
 	private static final Logger log = Logger.getLogger(ServerDataSource.class.getName());
+	/**
+	 * How long to wait before opening another connection after one failed to open while
+	 * borrowers are waiting
+	 */
+	private static final long CREATION_RETRY_MILLIS = 250;
+	private static final int KEEPALIVE_TIMEOUT_SECONDS = 5;
 	
 	private final DatabaseType databaseType;
 	private final String url;
 	private final String user;
 	private final String password;
 	
-	private final int maxPoolSize = 10;
+	private final PoolConfig config;
+	private volatile ConnectionInitializer connectionInitializer;
 	
-	private final Queue<Connection> available = new ArrayDeque<>();
-	private int createdConnections = 0;
+	private final ConnectionBag bag = new ConnectionBag();
+	private final AtomicInteger createdConnections = new AtomicInteger();
+	private final ThreadPoolExecutor creator;
+	private final ScheduledExecutorService housekeeper;
+	private volatile boolean closed = false;
+	/**
+	 * Why the last connection failed to open, cleared once one opens again. Reported as the cause
+	 * of borrow timeouts
+	 */
+	private volatile Throwable lastCreationFailure;
+	
+	private final LongAdder createdCount = new LongAdder();
+	private final LongAdder destroyedCount = new LongAdder();
+	private final LongAdder creationFailures = new LongAdder();
+	private final LongAdder borrowCount = new LongAdder();
+	private final LongAdder timeoutCount = new LongAdder();
+	private final LongAdder leakCount = new LongAdder();
+	private final LongAdder reclaimedCount = new LongAdder();
+	private final LatencyHistogram borrowWait = new LatencyHistogram();
+	private final LatencyHistogram holdTime = new LatencyHistogram();
+	private ObjectName mBeanName;
 	
 	public PooledServerDataSource(DatabaseType type, String url, String user, String password) {
+		this(type, url, user, password, new PoolConfig());
+	}
+	
+	/**
+	 * Creates a new pool and starts opening the configured amount of idle connections in the
+	 * background
+	 *
+	 * @param config the pool settings, should not be modified once the pool is created
+	 */
+	public PooledServerDataSource(DatabaseType type, String url, String user, String password, PoolConfig config) {
+		config.validate();
 		this.databaseType = type;
 		this.url = url;
 		this.user = user;
 		this.password = password;
+		this.config = config;
+		this.connectionInitializer = config.getConnectionInitializer();
+		
+		AtomicInteger threadCount = new AtomicInteger();
+		int parallelism = config.getCreationParallelism();
+		this.creator = new ThreadPoolExecutor(parallelism, parallelism, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+			Thread thread = new Thread(runnable, config.getPoolName() + "-creator-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.creator.allowCoreThreadTimeOut(true);
+		
+		this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, config.getPoolName() + "-housekeeper");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.housekeeper.scheduleWithFixedDelay(this::housekeep, config.getHousekeepingPeriod(), config.getHousekeepingPeriod(), TimeUnit.MILLISECONDS);
+		
+		if(config.isRegisterMBean()){
+			registerMBean();
+		}
+		
+		fillPool();
 	}
 	
-	private synchronized Connection createConnection() throws SQLException {
+	private void registerMBean() {
 		try{
-			Class.forName(databaseType.classLoader());
-		} catch(ClassNotFoundException e){
-			throw new DatabaseDriverNotFoundException("Database Driver does not exist for " + getType(), e);
+			mBeanName = new ObjectName("com.wonkglorg.database:type=Pool,name=" + ObjectName.quote(config.getPoolName()));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new PoolMXBeanImpl(this), mBeanName);
+		} catch(JMException e){
+			log.log(Level.WARNING, "Failed to register pool MBean for " + config.getPoolName(), e);
+			mBeanName = null;
 		}
+	}
+	
+	/**
+	 * Opens a new physical connection, called on the creator threads. Overriding classes can
+	 * prepare the connection before the pool captures its session defaults
+	 */
+	protected Connection createConnection() throws SQLException {
+		return connectionInitializer.initializeOrClose(DriverRegistry.connect(databaseType, databaseType.driver() + url, user, password, config.getDriverProperties()));
+	}
+	
+	/**
+	 * Reserves a slot and opens a new connection on the creator threads, borrowers never wait for
+	 * the result directly so they can pick up a connection released in the meantime
+	 *
+	 * @return the future of the creation or null if the pool is already full
+	 */
+	private CompletableFuture<Void> addConnectionAsync() {
+		int created;
+		do{
+			created = createdConnections.get();
+			if(closed || created >= config.getMaxPoolSize()){
+				return null;
+			}
+		} while(!createdConnections.compareAndSet(created, created + 1));
 		
-		createdConnections++;
-		return DriverManager.getConnection(getType().driver() + url, user, password);
+		try{
+			return CompletableFuture.runAsync(() -> {
+				try{
+					Connection connection = createConnection();
+					if(closed){
+						closeQuietly(connection);
+						createdConnections.decrementAndGet();
+						return;
+					}
+					bag.add(newEntry(connection));
+					lastCreationFailure = null;
+					createdCount.increment();
+				} catch(SQLException e){
+					creationFailed(e);
+					log.log(Level.WARNING, "Failed to open pooled connection for " + getType(), e);
+					throw new RuntimeException(e);
+				} catch(RuntimeException e){
+					creationFailed(e);
+					throw e;
+				}
+			}, creator);
+		} catch(RejectedExecutionException e){
+			createdConnections.decrementAndGet();
+			return null;
+		}
+	}
+	
+	/**
+	 * Frees the reserved slot and retries after a short delay while borrowers are still waiting
+	 * for a connection, they wait on the handoff until their timeout instead of polling
+	 */
+	private void creationFailed(Throwable failure) {
+		createdConnections.decrementAndGet();
+		creationFailures.increment();
+		lastCreationFailure = failure;
+		if(!closed && bag.getWaitingThreads() > 0){
+			try{
+				housekeeper.schedule(() -> {
+					if(bag.getWaitingThreads() > 0){
+						addConnectionAsync();
+					}
+				}, CREATION_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+			} catch(RejectedExecutionException e){
+				log.log(Level.FINE, "Pool closed before retrying connection creation", e);
+			}
+		}
 	}
 	
+	/**
+	 * Creates the pool entry of a freshly opened connection, the connection is closed if its
+	 * session defaults cannot be read
+	 */
+	private PoolEntry newEntry(Connection connection) throws SQLException {
+		ConnectionDefaults defaults;
+		try{
+			defaults = ConnectionDefaults.capture(connection);
+		} catch(SQLException e){
+			closeQuietly(connection);
+			throw e;
+		}
+		int cacheSize = config.getStatementCacheSize();
+		return new PoolEntry(connection, defaults, lifetimeWithJitter(), cacheSize > 0 ? new StatementCache(cacheSize) : null);
+	}
+	
+	/**
+	 * Adds a connection opened outside the pool as a borrowed entry, it joins the pool once the
+	 * borrower returns it. Only used by the deprecated {@link PooledConnection} constructor
+	 */
+	PoolEntry adoptConnection(Connection connection) {
+		if(closed){
+			throw new IllegalStateException("Pool has been closed");
+		}
+		PoolEntry entry;
+		try{
+			entry = newEntry(connection);
+		} catch(SQLException e){
+			throw new RuntimeException(e);
+		}
+		entry.setState(PoolEntry.STATE_IN_USE);
+		createdConnections.incrementAndGet();
+		bag.add(entry);
+		createdCount.increment();
+		return entry;
+	}
+	
+	/**
+	 * @return the configured max lifetime in nanoseconds shortened by up to 2.5% so connections
+	 * opened together do not all retire together
+	 */
+	private long lifetimeWithJitter() {
+		long maxLifetime = TimeUnit.MILLISECONDS.toNanos(config.getMaxLifetime());
+		if(maxLifetime == 0){
+			return 0;
+		}
+		return maxLifetime - ThreadLocalRandom.current().nextLong(maxLifetime / 40 + 1);
+	}
+	
+	/**
+	 * Opens connections in the background until min idle is reached
+	 */
+	private void fillPool() {
+		int missing = Math.min(config.getMaxPoolSize() - createdConnections.get(), config.getMinIdle() - bag.getCount(PoolEntry.STATE_NOT_IN_USE)) - creator.getQueue().size();
+		for(int i = 0; i < missing; i++){
+			if(addConnectionAsync() == null){
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Borrows a connection from the pool, waiting up to the configured connection timeout if
+	 * none is available
+	 *
+	 * @return the borrowed connection, closing it returns it to the pool
+	 * @throws ConnectionTimeoutException if no connection became available in time, caused by
+	 * the last connection creation failure if there was one
+	 * @throws IllegalStateException if the pool is closed before or while waiting
+	 */
 	@Override
-	public synchronized Connection getConnection() {
+	public Connection getConnection() {
+		if(closed){
+			throw new IllegalStateException("Pool has been closed");
+		}
+		long timeout = config.getConnectionTimeout();
+		long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+		long start = System.nanoTime();
 		try{
-			if(!available.isEmpty()){
-				return new PooledConnection(available.poll(), this);
+			PoolEntry entry = borrowEntry(0);
+			
+			while(entry == null){
+				long remaining = timeout == 0 ? Long.MAX_VALUE : timeoutNanos - (System.nanoTime() - start);
+				if(remaining <= 0){
+					throw timeoutException(timeout);
+				}
+				addConnectionAsync();
+				entry = borrowEntry(remaining);
 			}
 			
-			if(createdConnections < maxPoolSize){
-				return new PooledConnection(createConnection(), this);
+			if(config.getMinIdle() > 0){
+				fillPool();
 			}
 			
-			while(available.isEmpty()){
-				try{
-					wait();
-				} catch(InterruptedException e){
-					Thread.currentThread().interrupt();
-					throw new RuntimeException(e);
-				}
+			long now = System.nanoTime();
+			borrowWait.record(now - start);
+			borrowCount.increment();
+			return new PooledConnection(entry, this, now, trackBorrow(entry, now));
+			
+		} catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Borrows an entry from the bag, entries that have to be retired are closed instead of being
+	 * returned
+	 */
+	private PoolEntry borrowEntry(long timeoutNanos) throws InterruptedException {
+		PoolEntry entry = bag.borrow(timeoutNanos, TimeUnit.NANOSECONDS);
+		if(entry != null && (entry.evicted || entry.isExpired(System.nanoTime()))){
+			destroyEntry(entry);
+			return null;
+		}
+		return entry;
+	}
+	
+	/**
+	 * Starts tracking a borrow for leak detection and reclamation
+	 *
+	 * @return the tracker or null if neither is enabled, borrows then skip it entirely
+	 */
+	LeakTracker trackBorrow(PoolEntry entry, long borrowedAt) {
+		if(config.getLeakDetectionThreshold() == 0 && !config.isReclaimLeakedConnections()){
+			return null;
+		}
+		LeakTracker leakTracker = new LeakTracker(entry, this, borrowedAt, captureBorrowTrace());
+		entry.leakTracker = leakTracker;
+		return leakTracker;
+	}
+	
+	private Throwable captureBorrowTrace() {
+		if(config.getLeakDetectionThreshold() == 0){
+			return null;
+		}
+		int rate = config.getLeakTraceSampleRate();
+		if(rate > 1 && ThreadLocalRandom.current().nextInt(rate) != 0){
+			return null;
+		}
+		return new Throwable("Connection borrowed by " + Thread.currentThread().getName());
+	}
+	
+	private ConnectionTimeoutException timeoutException(long timeout) {
+		timeoutCount.increment();
+		int idle = bag.getCount(PoolEntry.STATE_NOT_IN_USE);
+		int active = bag.getCount(PoolEntry.STATE_IN_USE);
+		return new ConnectionTimeoutException(timeout, active, idle, bag.getWaitingThreads(), bag.size(), config.getMaxPoolSize(), lastCreationFailure);
+	}
+	
+	/**
+	 * Returns a borrowed connection, settings the borrower changed are restored first. If that
+	 * fails the connection is closed instead.
+	 *
+	 * @param entry the entry that was borrowed
+	 * @param borrowed the connection the borrower used
+	 * @param borrowedAt when the connection was borrowed
+	 * @param leakTracker the borrow state of the connection, null if it was not tracked
+	 */
+	void releaseConnection(PoolEntry entry, ConnectionWrapper borrowed, long borrowedAt, LeakTracker leakTracker) {
+		long held = System.nanoTime() - borrowedAt;
+		holdTime.record(held);
+		if(leakTracker != null){
+			entry.leakTracker = null;
+		}
+		if(leakTracker != null && leakTracker.reported){
+			log.log(Level.INFO, "Connection of " + config.getPoolName() + " previously reported as leaked was returned after " + TimeUnit.NANOSECONDS.toMillis(held) + "ms");
+		}
+		if(!closed){
+			try{
+				borrowed.resetState(entry.defaults);
+			} catch(SQLException e){
+				log.log(Level.WARNING, "Failed to reset pooled connection, closing it", e);
+				entry.evicted = true;
+			}
+		}
+		if(closed || entry.evicted || entry.isExpired(System.nanoTime())){
+			destroyEntry(entry);
+			fillPool();
+			return;
+		}
+		bag.requite(entry);
+	}
+	
+	/**
+	 * Called once a borrowed connection was garbage collected without being closed. The state of
+	 * the connection is unknown so it is closed instead of being returned
+	 */
+	void reclaimConnection(PoolEntry entry, LeakTracker leakTracker) {
+		reclaimedCount.increment();
+		entry.leakTracker = null;
+		log.log(Level.WARNING, "Connection of " + config.getPoolName() + " was garbage collected without being closed, reclaiming it", leakTracker.borrowTrace);
+		entry.evicted = true;
+		destroyEntry(entry);
+		if(!closed){
+			fillPool();
+		}
+	}
+	
+	/**
+	 * Reports connections borrowed for longer than the leak detection threshold, each borrow is
+	 * reported once
+	 */
+	private void detectLeaks(long now) {
+		long threshold = TimeUnit.MILLISECONDS.toNanos(config.getLeakDetectionThreshold());
+		if(threshold == 0){
+			return;
+		}
+		for(PoolEntry entry : bag.values()){
+			LeakTracker leakTracker = entry.leakTracker;
+			if(leakTracker == null || leakTracker.reported || leakTracker.isReturned() || now - leakTracker.borrowedAt < threshold){
+				continue;
 			}
+			leakTracker.reported = true;
+			leakCount.increment();
+			log.log(Level.WARNING, "Connection of " + config.getPoolName() + " borrowed for " + TimeUnit.NANOSECONDS.toMillis(now - leakTracker.borrowedAt) + "ms, possible leak" + (leakTracker.borrowTrace == null ? " (borrow trace not sampled)" : ""), leakTracker.borrowTrace);
+		}
+	}
+	
+	/**
+	 * Runs periodically, retires expired connections, closes connections idle for too long down
+	 * to min idle and pings the remaining idle ones. Borrowed connections are never touched, if
+	 * they expired they are only flagged and closed once returned.
+	 */
+	private void housekeep() {
+		try{
+			long now = System.nanoTime();
+			detectLeaks(now);
+			long idleTimeout = TimeUnit.MILLISECONDS.toNanos(config.getIdleTimeout());
+			long keepaliveTime = TimeUnit.MILLISECONDS.toNanos(config.getKeepaliveTime());
+			int removableIdle = bag.getCount(PoolEntry.STATE_NOT_IN_USE) - config.getMinIdle();
 			
-			return new PooledConnection(available.poll(), this);
+			for(PoolEntry entry : bag.values()){
+				if(entry.isExpired(now)){
+					if(entry.compareAndSet(PoolEntry.STATE_NOT_IN_USE, PoolEntry.STATE_RESERVED)){
+						destroyEntry(entry);
+						removableIdle--;
+					} else {
+						entry.evicted = true;
+					}
+					continue;
+				}
+				
+				if(!entry.compareAndSet(PoolEntry.STATE_NOT_IN_USE, PoolEntry.STATE_RESERVED)){
+					continue;
+				}
+				
+				if(idleTimeout > 0 && removableIdle > 0 && now - entry.lastAccessed > idleTimeout){
+					destroyEntry(entry);
+					removableIdle--;
+					continue;
+				}
+				
+				if(keepaliveTime > 0 && now - Math.max(entry.lastAccessed, entry.lastKeepalive) > keepaliveTime){
+					if(!isAlive(entry)){
+						log.log(Level.FINE, "Closing dead pooled connection for " + getType());
+						destroyEntry(entry);
+						continue;
+					}
+					entry.lastKeepalive = System.nanoTime();
+				}
+				
+				bag.unreserve(entry);
+			}
 			
+			fillPool();
+		} catch(RuntimeException e){
+			log.log(Level.WARNING, "Pool housekeeping failed for " + getType(), e);
+		}
+	}
+	
+	private boolean isAlive(PoolEntry entry) {
+		try{
+			return entry.connection.isValid(KEEPALIVE_TIMEOUT_SECONDS);
 		} catch(SQLException e){
-			throw new RuntimeException(e);
+			return false;
 		}
 	}
 	
-	synchronized void releaseConnection(Connection connection) {
-		available.offer(connection);
-		notifyAll();
+	/**
+	 * Removes the entry from the pool and closes its physical connection
+	 */
+	private void destroyEntry(PoolEntry entry) {
+		if(bag.remove(entry)){
+			createdConnections.decrementAndGet();
+			destroyedCount.increment();
+			if(entry.statementCache != null){
+				entry.statementCache.clear();
+			}
+			closeQuietly(entry.connection);
+		}
+	}
+	
+	private void closeQuietly(Connection connection) {
+		try{
+			connection.close();
+		} catch(SQLException e){
+			log.log(Level.FINE, "Failed to close pooled connection", e);
+		}
+	}
+	
+	/**
+	 * Closes all idle connections, borrowed connections are closed once they are returned.
+	 * Borrowers still waiting for a connection fail with an {@link IllegalStateException}
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		bag.close();
+		housekeeper.shutdownNow();
+		if(mBeanName != null){
+			try{
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(mBeanName);
+			} catch(JMException e){
+				log.log(Level.FINE, "Failed to unregister pool MBean", e);
+			}
+		}
+		creator.shutdown();
+		for(PoolEntry entry : bag.values()){
+			if(entry.compareAndSet(PoolEntry.STATE_NOT_IN_USE, PoolEntry.STATE_RESERVED)){
+				destroyEntry(entry);
+			}
+		}
+	}
+	
+	/**
+	 * @return the current state of the pool, cheap enough to be polled regularly
+	 */
+	public PoolMetrics getMetrics() {
+		int active = 0;
+		int idle = 0;
+		List<PoolEntry> entries = bag.values();
+		for(PoolEntry entry : entries){
+			switch(entry.getState()){
+				case PoolEntry.STATE_IN_USE -> active++;
+				case PoolEntry.STATE_NOT_IN_USE -> idle++;
+				default -> {
+				}
+			}
+		}
+		return new PoolMetrics(config.getPoolName(), active, idle, bag.getWaitingThreads(), entries.size(), config.getMaxPoolSize(), createdCount.sum(), destroyedCount.sum(), creationFailures.sum(), borrowCount.sum(), timeoutCount.sum(), leakCount.sum(), reclaimedCount.sum(), borrowWait.snapshot(), holdTime.snapshot());
+	}
+	
+	@Override
+	public boolean supportsConnectionInitializer() {
+		return true;
+	}
+	
+	/**
+	 * @param initializer run once on every physical connection opened after this call, idle
+	 * connections that are already open are not affected
+	 */
+	@Override
+	public void setConnectionInitializer(ConnectionInitializer initializer) {
+		this.connectionInitializer = initializer == null ? ConnectionInitializer.NONE : initializer;
+	}
+	
+	@Override
+	public ConnectionInitializer getConnectionInitializer() {
+		return connectionInitializer;
+	}
+	
+	/**
+	 * @return the maximum size of the pool
+	 */
+	@Override
+	public int getMaxConnections() {
+		return config.getMaxPoolSize();
+	}
+	
+	/**
+	 * @return the settings this pool was created with
+	 */
+	public PoolConfig getConfig() {
+		return config;
 	}
 	
 	@Override
@@ -0,0 +1,562 @@
+package com.wonkglorg.database.datasources;
+
+import com.wonkglorg.database.DatabaseType;
+import com.wonkglorg.database.exception.ConnectionTimeoutException;
+import com.wonkglorg.database.metrics.PoolMetrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends writes to a primary data source and reads to replicas. Connections borrowed with
+ * {@link AccessIntent#READ}, or switched with {@link Connection#setReadOnly(boolean)} while no
+ * transaction is open, are taken from a replica. All other connections are taken from the
+ * primary.
+ * <p>
+ * Replicas are picked by {@link Balancing}. A replica that fails to open or validate a
+ * connection, on a read or in the background probe, is taken out of rotation until a probe
+ * succeeds again. A pool that only timed out because all of its connections were in use is busy,
+ * not broken: the read moves on to the next replica and the replica stays in rotation. Without a
+ * healthy replica reads go to the primary.
+ * <p>
+ * Switching between primary and replica releases the previous connection, session settings
+ * made on it are not carried over.
+ * <pre>
+ *     {@code
+ * RoutingDataSource dataSource = new RoutingDataSource(primary)
+ *         .addReplica(replicaA, 1)
+ *         .addReplica(replicaB, 2);
+ * try(Connection connection = dataSource.getConnection(AccessIntent.READ)){
+ *     ...
+ * }
+ * }
+ * </pre>
+ */
+@SuppressWarnings("unused")
+public class RoutingDataSource implements TypedDataSource, AutoCloseable{
+	private static final Logger log = Logger.getLogger(RoutingDataSource.class.getName());
+	private static final AtomicInteger ROUTER_COUNTER = new AtomicInteger();
+	private static final int PROBE_TIMEOUT_SECONDS = 2;
+	
+	private final TypedDataSource primary;
+	private final List<Replica> replicas = new CopyOnWriteArrayList<>();
+	private final AtomicLong roundRobin = new AtomicLong();
+	private final ScheduledExecutorService prober;
+	private ScheduledFuture<?> probeTask;
+	private volatile Balancing balancing = Balancing.LEAST_OUTSTANDING;
+	private volatile long probeInterval = 5000;
+	private volatile boolean closed = false;
+	
+	private final LongAdder primaryReads = new LongAdder();
+	
+	/**
+	 * How a replica is picked for a read
+	 */
+	public enum Balancing{
+		/**
+		 * The replica with the fewest borrowed connections relative to its weight
+		 */
+		LEAST_OUTSTANDING,
+		/**
+		 * Every replica in turn, as often as its weight
+		 */
+		WEIGHTED_ROUND_ROBIN
+	}
+	
+	/**
+	 * @param primary the data source all writes go to
+	 */
+	public RoutingDataSource(TypedDataSource primary) {
+		this.primary = primary;
+		int id = ROUTER_COUNTER.incrementAndGet();
+		this.prober = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "replica-prober-" + id);
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.probeTask = prober.scheduleWithFixedDelay(this::probe, probeInterval, probeInterval, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * @param replica a data source reading from a replica of the primary
+	 * @param weight the share of reads the replica gets relative to the others
+	 */
+	public RoutingDataSource addReplica(TypedDataSource replica, int weight) {
+		if(weight < 1){
+			throw new IllegalArgumentException("weight has to be at least 1");
+		}
+		replicas.add(new Replica(replica, weight));
+		return this;
+	}
+	
+	public RoutingDataSource setBalancing(Balancing balancing) {
+		if(balancing == null){
+			throw new IllegalArgumentException("balancing cannot be null");
+		}
+		this.balancing = balancing;
+		return this;
+	}
+	
+	public Balancing getBalancing() {
+		return balancing;
+	}
+	
+	/**
+	 * @param millis how often every replica is checked with {@link Connection#isValid(int)}
+	 */
+	public synchronized RoutingDataSource setProbeInterval(long millis) {
+		if(millis < 1){
+			throw new IllegalArgumentException("probeInterval has to be at least 1");
+		}
+		this.probeInterval = millis;
+		if(!closed){
+			probeTask.cancel(false);
+			probeTask = prober.scheduleWithFixedDelay(this::probe, millis, millis, TimeUnit.MILLISECONDS);
+		}
+		return this;
+	}
+	
+	public long getProbeInterval() {
+		return probeInterval;
+	}
+	
+	/**
+	 * Returns a connection to the primary, it moves to a replica when set read only
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		return getConnection(AccessIntent.WRITE);
+	}
+	
+	/**
+	 * @param intent {@link AccessIntent#READ} to borrow from a replica
+	 */
+	@Override
+	public Connection getConnection(AccessIntent intent) throws SQLException {
+		if(closed){
+			throw new SQLException("RoutingDataSource has been closed");
+		}
+		RoutingConnection handler = new RoutingConnection(this, intent == AccessIntent.READ);
+		handler.target();
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, handler);
+	}
+	
+	/**
+	 * Returns an exclusive connection of the primary, routed connections can move between data
+	 * sources so they are never handed out exclusively
+	 */
+	@Override
+	public Connection getExclusiveConnection(AccessIntent intent) throws SQLException {
+		if(closed){
+			throw new SQLException("RoutingDataSource has been closed");
+		}
+		return primary.getExclusiveConnection(intent);
+	}
+	
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return getConnection();
+	}
+	
+	/**
+	 * Borrows from a healthy replica, trying the others if it fails
+	 *
+	 * @return the borrowed connection, the replica it came from is set on the handler, null if it
+	 * came from the primary
+	 */
+	private Connection borrowRead(RoutingConnection handler) throws SQLException {
+		List<Replica> candidates = new ArrayList<>(replicas);
+		while(true){
+			Replica replica = pick(candidates);
+			if(replica == null){
+				break;
+			}
+			replica.outstanding.incrementAndGet();
+			try{
+				Connection connection = replica.dataSource.getConnection(AccessIntent.READ);
+				replica.borrows.increment();
+				handler.replica = replica;
+				return connection;
+			} catch(SQLException | RuntimeException e){
+				replica.outstanding.decrementAndGet();
+				if(isSaturated(e)){
+					log.log(Level.FINE, "Replica " + replica.dataSource + " is saturated, trying the next one", e);
+				} else {
+					markUnhealthy(replica, e);
+				}
+				candidates.remove(replica);
+			}
+		}
+		primaryReads.increment();
+		handler.replica = null;
+		return primary.getConnection(AccessIntent.READ);
+	}
+	
+	private Replica pick(List<Replica> candidates) {
+		int size = candidates.size();
+		if(size == 0){
+			return null;
+		}
+		if(balancing == Balancing.WEIGHTED_ROUND_ROBIN){
+			int totalWeight = 0;
+			for(Replica replica : candidates){
+				if(replica.healthy){
+					totalWeight += replica.weight;
+				}
+			}
+			if(totalWeight == 0){
+				return null;
+			}
+			long slot = Math.floorMod(roundRobin.getAndIncrement(), totalWeight);
+			for(Replica replica : candidates){
+				if(replica.healthy){
+					slot -= replica.weight;
+					if(slot < 0){
+						return replica;
+					}
+				}
+			}
+			return null;
+		}
+		//start at a random replica so ties do not always go to the first one
+		int offset = ThreadLocalRandom.current().nextInt(size);
+		Replica best = null;
+		double bestLoad = Double.MAX_VALUE;
+		for(int i = 0; i < size; i++){
+			Replica replica = candidates.get((offset + i) % size);
+			if(!replica.healthy){
+				continue;
+			}
+			double load = (double) replica.outstanding.get() / replica.weight;
+			if(load < bestLoad){
+				best = replica;
+				bestLoad = load;
+			}
+		}
+		return best;
+	}
+	
+	private void markUnhealthy(Replica replica, Throwable cause) {
+		if(replica.healthy){
+			replica.healthy = false;
+			log.log(Level.WARNING, "Replica " + replica.dataSource + " taken out of rotation", cause);
+		}
+	}
+	
+	/**
+	 * @return true if the failure only means every connection of a pool was in use, pools that
+	 * could not open a connection give the cause of that as the cause of the timeout
+	 */
+	private static boolean isSaturated(Throwable failure) {
+		return failure instanceof ConnectionTimeoutException timeout && timeout.getCause() == null;
+	}
+	
+	/**
+	 * @return true if borrowing from the replica would have to wait for a connection to be
+	 * returned
+	 */
+	private static boolean isBusy(Replica replica) {
+		PooledServerDataSource pool = null;
+		if(replica.dataSource instanceof PooledServerDataSource pooled){
+			pool = pooled;
+		} else if(replica.dataSource instanceof WalFileDataSource wal){
+			pool = wal.getReadPool();
+		}
+		if(pool != null){
+			PoolMetrics metrics = pool.getMetrics();
+			return metrics.waiting() > 0 || metrics.idle() == 0 && metrics.total() >= metrics.maxPoolSize();
+		}
+		return replica.outstanding.get() >= replica.dataSource.getMaxConnections(AccessIntent.READ);
+	}
+	
+	/**
+	 * Checks every replica that has a connection to spare, unhealthy ones that respond are put
+	 * back into rotation. Busy replicas are skipped, the probe would only take a connection from
+	 * the reads or wait for one
+	 */
+	private void probe() {
+		for(Replica replica : replicas){
+			try{
+				if(isBusy(replica)){
+					continue;
+				}
+			} catch(RuntimeException e){
+				markUnhealthy(replica, e);
+				continue;
+			}
+			try(Connection connection = replica.dataSource.getConnection(AccessIntent.READ)){
+				if(!connection.isValid(PROBE_TIMEOUT_SECONDS)){
+					markUnhealthy(replica, null);
+					continue;
+				}
+				if(!replica.healthy){
+					replica.healthy = true;
+					log.log(Level.INFO, "Replica " + replica.dataSource + " back in rotation");
+				}
+			} catch(SQLException | RuntimeException e){
+				if(!isSaturated(e)){
+					markUnhealthy(replica, e);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return the state of every replica
+	 */
+	public List<ReplicaStatus> getReplicaStatus() {
+		List<ReplicaStatus> status = new ArrayList<>(replicas.size());
+		for(Replica replica : replicas){
+			status.add(new ReplicaStatus(replica.dataSource, replica.weight, replica.healthy, replica.outstanding.get(), replica.borrows.sum()));
+		}
+		return status;
+	}
+	
+	/**
+	 * @return reads sent to the primary because no replica was healthy
+	 */
+	public long getPrimaryReadCount() {
+		return primaryReads.sum();
+	}
+	
+	public TypedDataSource getPrimary() {
+		return primary;
+	}
+	
+	@Override
+	public DatabaseType getType() {
+		return primary.getType();
+	}
+	
+	@Override
+	public int getMaxConnections() {
+		return primary.getMaxConnections() + getMaxConnections(AccessIntent.READ);
+	}
+	
+	/**
+	 * @return the connections of the primary for writes, of all replicas for reads
+	 */
+	@Override
+	public int getMaxConnections(AccessIntent intent) {
+		if(intent == AccessIntent.WRITE || replicas.isEmpty()){
+			return primary.getMaxConnections(intent);
+		}
+		int total = 0;
+		for(Replica replica : replicas){
+			total += replica.dataSource.getMaxConnections(AccessIntent.READ);
+		}
+		return total;
+	}
+	
+	/**
+	 * @return true if the primary and every replica support initializers
+	 */
+	@Override
+	public boolean supportsConnectionInitializer() {
+		if(!primary.supportsConnectionInitializer()){
+			return false;
+		}
+		for(Replica replica : replicas){
+			if(!replica.dataSource.supportsConnectionInitializer()){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Sets the initializer on the primary and every replica, none is changed if one of them does
+	 * not support initializers
+	 */
+	@Override
+	public void setConnectionInitializer(ConnectionInitializer initializer) {
+		if(!supportsConnectionInitializer()){
+			throw new UnsupportedOperationException("The primary or a replica does not support connection initializers");
+		}
+		primary.setConnectionInitializer(initializer);
+		for(Replica replica : replicas){
+			replica.dataSource.setConnectionInitializer(initializer);
+		}
+	}
+	
+	@Override
+	public ConnectionInitializer getConnectionInitializer() {
+		return primary.getConnectionInitializer();
+	}
+	
+	/**
+	 * Stops probing and closes the primary and replicas that can be closed
+	 */
+	@Override
+	public synchronized void close() {
+		if(closed){
+			return;
+		}
+		closed = true;
+		prober.shutdownNow();
+		closeQuietly(primary);
+		for(Replica replica : replicas){
+			closeQuietly(replica.dataSource);
+		}
+	}
+	
+	private static void closeQuietly(TypedDataSource dataSource) {
+		if(dataSource instanceof AutoCloseable closeable){
+			try{
+				closeable.close();
+			} catch(Exception e){
+				log.log(Level.FINE, "Failed to close " + dataSource, e);
+			}
+		}
+	}
+	
+	/**
+	 * @param dataSource the replica
+	 * @param weight its share of reads
+	 * @param healthy false while it is out of rotation
+	 * @param outstanding connections currently borrowed from it
+	 * @param borrows connections borrowed from it in total
+	 */
+	public record ReplicaStatus(TypedDataSource dataSource, int weight, boolean healthy, int outstanding, long borrows){
+	}
+	
+	private static final class Replica{
+		private final TypedDataSource dataSource;
+		private final int weight;
+		private final AtomicInteger outstanding = new AtomicInteger();
+		private final LongAdder borrows = new LongAdder();
+		private volatile boolean healthy = true;
+		
+		private Replica(TypedDataSource dataSource, int weight) {
+			this.dataSource = dataSource;
+			this.weight = weight;
+		}
+	}
+	
+	/**
+	 * Backs the connections handed out, calls go to the connection of the current mode which is
+	 * borrowed on first use
+	 */
+	private static final class RoutingConnection implements InvocationHandler{
+		private final RoutingDataSource router;
+		private boolean readOnly;
+		private Connection target;
+		/**
+		 * The replica the target was borrowed from, null if it came from the primary
+		 */
+		private Replica replica;
+		private boolean closed = false;
+		
+		private RoutingConnection(RoutingDataSource router, boolean readOnly) {
+			this.router = router;
+			this.readOnly = readOnly;
+		}
+		
+		private Connection target() throws SQLException {
+			if(closed){
+				throw new SQLException("Connection is closed");
+			}
+			if(target == null){
+				target = readOnly ? router.borrowRead(this) : router.primary.getConnection();
+			}
+			return target;
+		}
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch(method.getName()){
+				case "close" -> {
+					close();
+					return null;
+				}
+				case "isClosed" -> {
+					return closed;
+				}
+				case "setReadOnly" -> {
+					setReadOnly((Boolean) args[0]);
+					return null;
+				}
+				case "isReadOnly" -> {
+					return readOnly;
+				}
+				case "equals" -> {
+					return proxy == args[0];
+				}
+				case "hashCode" -> {
+					return System.identityHashCode(proxy);
+				}
+				case "toString" -> {
+					return "RoutingConnection[" + (readOnly ? "replica" : "primary") + ", " + target + "]";
+				}
+				default -> {
+					try{
+						return method.invoke(target(), args);
+					} catch(InvocationTargetException e){
+						throw e.getCause();
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Switches between primary and replica unless a transaction is open, inside one the call is
+		 * ignored and the transaction stays on its connection
+		 */
+		private void setReadOnly(boolean readOnly) throws SQLException {
+			if(closed){
+				throw new SQLException("Connection is closed");
+			}
+			if(readOnly == this.readOnly){
+				return;
+			}
+			if(target != null && !target.getAutoCommit()){
+				log.log(Level.FINE, "Ignoring setReadOnly(" + readOnly + ") inside a transaction");
+				return;
+			}
+			release();
+			this.readOnly = readOnly;
+		}
+		
+		private void close() throws SQLException {
+			if(closed){
+				return;
+			}
+			closed = true;
+			release();
+		}
+		
+		private void release() throws SQLException {
+			Connection current = target;
+			Replica from = replica;
+			target = null;
+			replica = null;
+			if(current == null){
+				return;
+			}
+			try{
+				current.close();
+			} finally{
+				if(from != null){
+					from.outstanding.decrementAndGet();
+				}
+			}
+		}
+	}
+}
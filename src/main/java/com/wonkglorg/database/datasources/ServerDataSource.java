@@ -1,11 +1,12 @@
 package com.wonkglorg.database.datasources;
 
 import com.wonkglorg.database.DatabaseType;
-import com.wonkglorg.database.exception.DatabaseDriverNotFoundException;
+import com.wonkglorg.database.metrics.QueryMonitor;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -17,7 +18,14 @@ public class ServerDataSource implements TypedDataSource{
 	private final String user;
 	private final String password;
 	
-	protected Connection connection;
+	protected volatile Connection connection;
+	private final ReentrantLock connectLock = new ReentrantLock();
+	private volatile ValidationPolicy validationPolicy = ValidationPolicy.DEFAULT;
+	private volatile long lastUsed;
+	private volatile Properties driverProperties = null;
+	private volatile int statementCacheSize = 0;
+	private volatile QueryMonitor queryMonitor = null;
+	private volatile ConnectionInitializer connectionInitializer = ConnectionInitializer.NONE;
 	
 	public ServerDataSource(DatabaseType type, String url, String user, String password) {
 		this.databaseType = type;
@@ -27,27 +35,120 @@ public class ServerDataSource implements TypedDataSource{
 	}
 	
 	/**
-	 * Opens a new Connection if none exists (same behavior as FileDataSource)
+	 * Opens a new Connection if none exists or the current one failed validation (same behavior
+	 * as FileDataSource)
 	 */
-	private synchronized void connect() {
+	private Connection connect() {
+		connectLock.lock();
 		try{
-			Class.forName(databaseType.classLoader());
-			
-			if(connection == null || connection.isClosed() || !connection.isValid(2)){
-				connection = new UncloseAbleConnection(DriverManager.getConnection(getType().driver() + url, user, password));
+			Connection current = connection;
+			if(current == null || current.isClosed() || !current.isValid(2)){
+				current = new UncloseAbleConnection(connectionInitializer.initializeOrClose(DriverRegistry.connect(databaseType, databaseType.driver() + url, user, password, driverProperties)), statementCacheSize > 0 ? new StatementCache(statementCacheSize) : null, queryMonitor);
+				connection = current;
+			}
+			if(current instanceof ConnectionWrapper wrapper){
+				wrapper.clearError();
 			}
+			return current;
 			
-		} catch(ClassNotFoundException e){
-			throw new DatabaseDriverNotFoundException("Database Driver does not exist for " + getType(), e);
 		} catch(SQLException e){
 			throw new RuntimeException(e);
+		} finally{
+			connectLock.unlock();
 		}
 	}
 	
+	/**
+	 * Returns the open connection, it is only validated with a round trip to the server when the
+	 * {@link ValidationPolicy} requires it
+	 */
 	@Override
 	public Connection getConnection() {
-		connect();
-		return connection;
+		Connection current = connection;
+		try{
+			if(current == null || current.isClosed() || validationPolicy.requiresValidation(lastUsed, current instanceof ConnectionWrapper wrapper && wrapper.hasErrorOccurred())){
+				current = connect();
+			}
+		} catch(SQLException e){
+			current = connect();
+		}
+		lastUsed = System.nanoTime();
+		return current;
+	}
+	
+	/**
+	 * Opens an additional physical connection to the server, closing it closes the physical
+	 * connection. It does not use the statement cache
+	 */
+	@Override
+	public Connection getExclusiveConnection(AccessIntent intent) throws SQLException {
+		return new DedicatedConnection(connectionInitializer.initializeOrClose(DriverRegistry.connect(databaseType, databaseType.driver() + url, user, password, driverProperties)), queryMonitor);
+	}
+	
+	/**
+	 * @param validationPolicy when the connection should be validated before it is handed out
+	 */
+	public void setValidationPolicy(ValidationPolicy validationPolicy) {
+		this.validationPolicy = validationPolicy;
+	}
+	
+	public ValidationPolicy getValidationPolicy() {
+		return validationPolicy;
+	}
+	
+	/**
+	 * @param statementCacheSize how many prepared statements are kept open for reuse, 0 disables
+	 * caching. Only applies to connections opened after this call
+	 */
+	public void setStatementCacheSize(int statementCacheSize) {
+		if(statementCacheSize < 0){
+			throw new IllegalArgumentException("statementCacheSize cannot be negative");
+		}
+		this.statementCacheSize = statementCacheSize;
+	}
+	
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+	
+	/**
+	 * @param queryMonitor the monitor statement executions are reported to, null to not time
+	 * them. Only applies to connections opened after this call
+	 */
+	public void setQueryMonitor(QueryMonitor queryMonitor) {
+		this.queryMonitor = queryMonitor;
+	}
+	
+	public QueryMonitor getQueryMonitor() {
+		return queryMonitor;
+	}
+	
+	/**
+	 * @param driverProperties passed to the driver on top of the ones of
+	 * {@link DriverRegistry#setProperties}, null for none. Only applies to connections opened
+	 * after this call
+	 */
+	public void setDriverProperties(Properties driverProperties) {
+		this.driverProperties = driverProperties;
+	}
+	
+	public Properties getDriverProperties() {
+		return driverProperties;
+	}
+	
+	@Override
+	public boolean supportsConnectionInitializer() {
+		return true;
+	}
+	
+	@Override
+	public void setConnectionInitializer(ConnectionInitializer initializer) {
+		this.connectionInitializer = initializer == null ? ConnectionInitializer.NONE : initializer;
+	}
+	
+	@Override
+	public ConnectionInitializer getConnectionInitializer() {
+		return connectionInitializer;
 	}
 	
 	@Override
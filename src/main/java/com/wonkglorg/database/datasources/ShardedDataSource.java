@@ -0,0 +1,241 @@
+package com.wonkglorg.database.datasources;
+
+import com.wonkglorg.database.DatabaseType;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Spreads keys over several data sources of the same type with consistent hashing. Every shard
+ * is placed on a hash ring at {@link #getVirtualNodes()} points, a key belongs to the shard at
+ * the first point following its hash. Adding a shard only moves the keys that now fall before
+ * one of its points, about {@code 1 / shards} of all keys.
+ * <p>
+ * The hash is computed from the utf-8 bytes of {@link String#valueOf(Object)} of the key, or the
+ * key itself for byte arrays, and is the same in every jvm. Shard names decide the placement,
+ * they have to stay the same across restarts.
+ * <p>
+ * It is not a data source of its own, connections need a shard key, see
+ * {@link #getConnection(Object, AccessIntent)}. Use
+ * {@link com.wonkglorg.database.databases.ShardedDatabase} to run statements on all shards.
+ */
+@SuppressWarnings("unused")
+public class ShardedDataSource implements AutoCloseable{
+	private static final Logger log = Logger.getLogger(ShardedDataSource.class.getName());
+	private final int virtualNodes;
+	private volatile Ring ring = new Ring(new TreeMap<>(), new LinkedHashMap<>());
+	
+	/**
+	 * Places every shard at 160 points of the ring
+	 */
+	public ShardedDataSource() {
+		this(160);
+	}
+	
+	/**
+	 * @param virtualNodes at how many points of the ring every shard is placed, more points
+	 * spread keys more evenly
+	 */
+	public ShardedDataSource(int virtualNodes) {
+		if(virtualNodes < 1){
+			throw new IllegalArgumentException("virtualNodes has to be at least 1");
+		}
+		this.virtualNodes = virtualNodes;
+	}
+	
+	/**
+	 * Adds a shard to the ring, keys now mapped to it have to be moved to it afterwards, see
+	 * {@link com.wonkglorg.database.databases.ShardedDatabase#rebalance(String, String)}
+	 *
+	 * @param name the name of the shard, decides its place on the ring
+	 * @param dataSource the data source of the shard
+	 */
+	public synchronized ShardedDataSource addShard(String name, TypedDataSource dataSource) {
+		Ring current = ring;
+		if(current.shards.containsKey(name)){
+			throw new IllegalArgumentException("Shard " + name + " already exists");
+		}
+		if(!current.shards.isEmpty() && !getType().equals(dataSource.getType())){
+			throw new IllegalArgumentException("Shard " + name + " is " + dataSource.getType().name() + " but the other shards are " + getType().name());
+		}
+		TreeMap<Long, String> points = new TreeMap<>(current.points);
+		for(int i = 0; i < virtualNodes; i++){
+			long point = hash((name + "#" + i).getBytes(StandardCharsets.UTF_8));
+			String previous = points.putIfAbsent(point, name);
+			if(previous != null){
+				log.log(Level.FINE, "Virtual node " + i + " of " + name + " collides with " + previous);
+			}
+		}
+		Map<String, TypedDataSource> shards = new LinkedHashMap<>(current.shards);
+		shards.put(name, dataSource);
+		ring = new Ring(points, shards);
+		return this;
+	}
+	
+	/**
+	 * Removes a shard from the ring, its keys fall to the following shards. Its data has to be
+	 * moved before
+	 *
+	 * @return the data source of the shard, it is not closed
+	 */
+	public synchronized TypedDataSource removeShard(String name) {
+		Ring current = ring;
+		TypedDataSource removed = current.shards.get(name);
+		if(removed == null){
+			throw new IllegalArgumentException("Shard " + name + " does not exist");
+		}
+		TreeMap<Long, String> points = new TreeMap<>(current.points);
+		points.values().removeIf(name::equals);
+		Map<String, TypedDataSource> shards = new LinkedHashMap<>(current.shards);
+		shards.remove(name);
+		ring = new Ring(points, shards);
+		return removed;
+	}
+	
+	/**
+	 * @return the name of the shard the key belongs to
+	 */
+	public String shardFor(Object key) {
+		Ring current = ring;
+		if(current.points.isEmpty()){
+			throw new IllegalStateException("No shards have been added");
+		}
+		Map.Entry<Long, String> point = current.points.ceilingEntry(hash(keyBytes(key)));
+		return point != null ? point.getValue() : current.points.firstEntry().getValue();
+	}
+	
+	/**
+	 * @return the data source of the shard the key belongs to
+	 */
+	public TypedDataSource dataSourceFor(Object key) {
+		return ring.shards.get(shardFor(key));
+	}
+	
+	/**
+	 * @param key the shard key
+	 * @param intent what the connection will be used for
+	 * @return a connection to the shard the key belongs to
+	 */
+	public Connection getConnection(Object key, AccessIntent intent) throws SQLException {
+		return dataSourceFor(key).getConnection(intent);
+	}
+	
+	/**
+	 * @return every shard by name, in the order they were added
+	 */
+	public Map<String, TypedDataSource> getShards() {
+		return ring.shards;
+	}
+	
+	public int getVirtualNodes() {
+		return virtualNodes;
+	}
+	
+	/**
+	 * @return the type of the shards
+	 */
+	public DatabaseType getType() {
+		Map<String, TypedDataSource> shards = ring.shards;
+		if(shards.isEmpty()){
+			throw new IllegalStateException("No shards have been added");
+		}
+		return shards.values().iterator().next().getType();
+	}
+	
+	/**
+	 * @return the connections of all shards
+	 */
+	public int getMaxConnections() {
+		int total = 0;
+		for(TypedDataSource shard : ring.shards.values()){
+			total += shard.getMaxConnections();
+		}
+		return Math.max(1, total);
+	}
+	
+	/**
+	 * @return the connections for the intent of all shards
+	 */
+	public int getMaxConnections(AccessIntent intent) {
+		int total = 0;
+		for(TypedDataSource shard : ring.shards.values()){
+			total += shard.getMaxConnections(intent);
+		}
+		return Math.max(1, total);
+	}
+	
+	/**
+	 * Sets the initializer on every shard added so far, none is changed if one of them does not
+	 * support initializers
+	 *
+	 * @throws UnsupportedOperationException if a shard does not support initializers
+	 */
+	public void setConnectionInitializer(ConnectionInitializer initializer) {
+		for(Map.Entry<String, TypedDataSource> shard : ring.shards.entrySet()){
+			if(!shard.getValue().supportsConnectionInitializer()){
+				throw new UnsupportedOperationException("Shard " + shard.getKey() + " does not support connection initializers");
+			}
+		}
+		for(TypedDataSource shard : ring.shards.values()){
+			shard.setConnectionInitializer(initializer);
+		}
+	}
+	
+	/**
+	 * Closes every shard that can be closed
+	 */
+	@Override
+	public void close() {
+		for(Map.Entry<String, TypedDataSource> shard : ring.shards.entrySet()){
+			if(shard.getValue() instanceof AutoCloseable closeable){
+				try{
+					closeable.close();
+				} catch(Exception e){
+					log.log(Level.WARNING, "Failed to close shard " + shard.getKey(), e);
+				}
+			}
+		}
+	}
+	
+	private static byte[] keyBytes(Object key) {
+		if(key instanceof byte[] bytes){
+			return bytes;
+		}
+		return String.valueOf(key).getBytes(StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * FNV-1a followed by the splitmix64 finalizer, stable across jvms and evenly spread
+	 */
+	static long hash(byte[] bytes) {
+		long hash = 0xcbf29ce484222325L;
+		for(byte b : bytes){
+			hash ^= b & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+		hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+		return hash ^ (hash >>> 31);
+	}
+	
+	/**
+	 * Immutable snapshot of the ring, replaced as a whole when shards change
+	 */
+	private static final class Ring{
+		private final NavigableMap<Long, String> points;
+		private final Map<String, TypedDataSource> shards;
+		
+		private Ring(TreeMap<Long, String> points, Map<String, TypedDataSource> shards) {
+			this.points = Collections.unmodifiableNavigableMap(points);
+			this.shards = Collections.unmodifiableMap(shards);
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.wonkglorg.database.datasources;
+
+import java.util.List;
+
+/**
+ * Predefined sqlite tuning for {@link ConnectionInitializer#addProfile(SqliteProfile)}. Every
+ * profile sets {@code journal_mode}, {@code synchronous}, {@code cache_size},
+ * {@code mmap_size}, {@code temp_store} and {@code busy_timeout}. Memory databases ignore the
+ * journal mode.
+ */
+public enum SqliteProfile{
+	/**
+	 * WAL with {@code synchronous=NORMAL}, a crash can lose the last transactions but never
+	 * corrupts the database. Large cache and memory mapping for write heavy workloads
+	 */
+	THROUGHPUT("throughput", "WAL", "NORMAL", -65_536, 268_435_456L, "MEMORY", 5_000),
+	/**
+	 * WAL with {@code synchronous=FULL}, every commit is on disk once it returns
+	 */
+	DURABLE("durable", "WAL", "FULL", -16_384, 0, "DEFAULT", 10_000),
+	/**
+	 * WAL with a large cache and memory mapping for mostly reading workloads
+	 */
+	READ_MOSTLY("read-mostly", "WAL", "NORMAL", -131_072, 1_073_741_824L, "MEMORY", 5_000);
+	
+	private final String profileName;
+	private final List<String> pragmas;
+	
+	/**
+	 * @param cacheSize negative values are in KiB, positive ones in pages
+	 * @param mmapSize bytes of the file to memory map, 0 disables memory mapping
+	 * @param busyTimeout how long in milliseconds to wait for a lock before failing with
+	 * {@code SQLITE_BUSY}
+	 */
+	SqliteProfile(String profileName, String journalMode, String synchronous, int cacheSize, long mmapSize, String tempStore, int busyTimeout) {
+		this.profileName = profileName;
+		this.pragmas = List.of("PRAGMA journal_mode=" + journalMode,
+				"PRAGMA synchronous=" + synchronous,
+				"PRAGMA cache_size=" + cacheSize,
+				"PRAGMA mmap_size=" + mmapSize,
+				"PRAGMA temp_store=" + tempStore,
+				"PRAGMA busy_timeout=" + busyTimeout);
+	}
+	
+	/**
+	 * @return the pragma statements of this profile in execution order
+	 */
+	public List<String> pragmas() {
+		return pragmas;
+	}
+	
+	/**
+	 * @return the name of the profile, as accepted by {@link #byName(String)}
+	 */
+	public String profileName() {
+		return profileName;
+	}
+	
+	/**
+	 * @param name the name of the profile ("throughput", "durable" or "read-mostly")
+	 * @return the profile
+	 * @throws IllegalArgumentException if no profile has that name
+	 */
+	public static SqliteProfile byName(String name) {
+		for(SqliteProfile profile : values()){
+			if(profile.profileName.equalsIgnoreCase(name)){
+				return profile;
+			}
+		}
+		throw new IllegalArgumentException("Unknown sqlite profile " + name);
+	}
+}
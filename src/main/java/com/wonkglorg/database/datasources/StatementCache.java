@@ -0,0 +1,324 @@
+package com.wonkglorg.database.datasources;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Least recently used cache of prepared statements belonging to a single physical connection.
+ * <p>
+ * A statement is taken out of the cache while it is in use and put back once the caller closes
+ * it, so the same statement is never handed out twice at the same time. Statements pushed out of
+ * the cache are closed.
+ */
+public final class StatementCache{
+	private static final Logger log = Logger.getLogger(StatementCache.class.getName());
+	
+	private final int maxSize;
+	private final LinkedHashMap<Key, PreparedStatement> cache;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	
+	/**
+	 * Everything that makes two prepared statements interchangeable
+	 *
+	 * @param holdability the result set holdability, -1 if the driver default is used
+	 * @param autoGeneratedKeys the generated keys flag, -1 if none was given
+	 * @param columns the generated key columns, null if none were given
+	 */
+	record Key(String sql, int resultSetType, int resultSetConcurrency, int holdability, int autoGeneratedKeys, List<?> columns){
+		Key(String sql) {
+			this(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, -1, -1, null);
+		}
+	}
+	
+	/**
+	 * Creates the statement when it is not cached
+	 */
+	@FunctionalInterface
+	interface StatementFactory{
+		PreparedStatement create() throws SQLException;
+	}
+	
+	/**
+	 * @param maxSize the maximum number of idle statements kept open
+	 */
+	public StatementCache(int maxSize) {
+		if(maxSize < 1){
+			throw new IllegalArgumentException("maxSize has to be at least 1");
+		}
+		this.maxSize = maxSize;
+		this.cache = new LinkedHashMap<>(Math.min(maxSize, 64) * 2, 0.75f, true);
+	}
+	
+	/**
+	 * Returns a cached statement for the key or creates a new one
+	 *
+	 * @param connection the connection the statement should report as its owner
+	 * @param key the key of the statement
+	 * @param factory creates the statement on a cache miss
+	 * @return a statement that returns itself to the cache when closed
+	 */
+	PreparedStatement prepare(Connection connection, Key key, StatementFactory factory) throws SQLException {
+		PreparedStatement statement;
+		synchronized(this){
+			statement = cache.remove(key);
+		}
+		if(statement != null){
+			hits.increment();
+		} else {
+			misses.increment();
+			statement = factory.create();
+		}
+		return new CachedPreparedStatement(statement, connection, this, key);
+	}
+	
+	/**
+	 * Puts a statement that is no longer in use back into the cache
+	 */
+	void offer(Key key, PreparedStatement statement) {
+		List<PreparedStatement> toClose = new ArrayList<>(1);
+		synchronized(this){
+			PreparedStatement previous = cache.putIfAbsent(key, statement);
+			if(previous != null){
+				toClose.add(statement);
+			}
+			Iterator<PreparedStatement> iterator = cache.values().iterator();
+			while(cache.size() > maxSize && iterator.hasNext()){
+				toClose.add(iterator.next());
+				iterator.remove();
+				evictions.increment();
+			}
+		}
+		toClose.forEach(StatementCache::closeQuietly);
+	}
+	
+	/**
+	 * Closes all idle statements
+	 */
+	public void clear() {
+		List<PreparedStatement> toClose;
+		synchronized(this){
+			toClose = new ArrayList<>(cache.values());
+			cache.clear();
+		}
+		toClose.forEach(StatementCache::closeQuietly);
+	}
+	
+	static void closeQuietly(PreparedStatement statement) {
+		try{
+			statement.close();
+		} catch(SQLException e){
+			log.log(Level.FINE, "Failed to close cached statement", e);
+		}
+	}
+	
+	public synchronized int size() {
+		return cache.size();
+	}
+	
+	public int getMaxSize() {
+		return maxSize;
+	}
+	
+	public long getHits() {
+		return hits.sum();
+	}
+	
+	public long getMisses() {
+		return misses.sum();
+	}
+	
+	public long getEvictions() {
+		return evictions.sum();
+	}
+	
+	/**
+	 * @return the share of prepares served from the cache between 0 and 1
+	 */
+	public double getHitRate() {
+		long hit = hits.sum();
+		long total = hit + misses.sum();
+		return total == 0 ? 0 : (double) hit / total;
+	}
+	
+	/**
+	 * Statement handed out by the cache, closing it only returns the underlying statement. Settings
+	 * the borrower changed are restored first, once closed every call fails like on a closed
+	 * statement
+	 */
+	private static final class CachedPreparedStatement extends PreparedStatementWrapper<PreparedStatement>{
+		private static final int CHANGED_MAX_ROWS = 1;
+		private static final int CHANGED_FETCH_SIZE = 1 << 1;
+		private static final int CHANGED_QUERY_TIMEOUT = 1 << 2;
+		private static final int CHANGED_FETCH_DIRECTION = 1 << 3;
+		private static final int CHANGED_MAX_FIELD_SIZE = 1 << 4;
+		
+		private final StatementCache cache;
+		private final Key key;
+		private boolean closed = false;
+		/**
+		 * False once the borrower asked for the statement not to be reused, it is closed instead of
+		 * returned to the cache then
+		 */
+		private boolean poolable = true;
+		/**
+		 * Which settings were changed, the original values below are only valid if their bit is set
+		 */
+		private int changedBits = 0;
+		private int maxRows;
+		private int fetchSize;
+		private int queryTimeout;
+		private int fetchDirection;
+		private int maxFieldSize;
+		
+		CachedPreparedStatement(PreparedStatement delegate, Connection connection, StatementCache cache, Key key) {
+			super(delegate, connection);
+			this.cache = cache;
+			this.key = key;
+		}
+		
+		@Override
+		protected PreparedStatement delegate() throws SQLException {
+			if(closed){
+				throw new SQLException("Statement is closed");
+			}
+			return delegate;
+		}
+		
+		@Override
+		public void setMaxRows(int max) throws SQLException {
+			rememberMaxRows();
+			delegate().setMaxRows(max);
+		}
+		
+		@Override
+		public void setLargeMaxRows(long max) throws SQLException {
+			rememberMaxRows();
+			delegate().setLargeMaxRows(max);
+		}
+		
+		private void rememberMaxRows() throws SQLException {
+			if((changedBits & CHANGED_MAX_ROWS) == 0){
+				maxRows = delegate().getMaxRows();
+				changedBits |= CHANGED_MAX_ROWS;
+			}
+		}
+		
+		@Override
+		public void setFetchSize(int rows) throws SQLException {
+			if((changedBits & CHANGED_FETCH_SIZE) == 0){
+				fetchSize = delegate().getFetchSize();
+				changedBits |= CHANGED_FETCH_SIZE;
+			}
+			delegate().setFetchSize(rows);
+		}
+		
+		@Override
+		public void setQueryTimeout(int seconds) throws SQLException {
+			if((changedBits & CHANGED_QUERY_TIMEOUT) == 0){
+				queryTimeout = delegate().getQueryTimeout();
+				changedBits |= CHANGED_QUERY_TIMEOUT;
+			}
+			delegate().setQueryTimeout(seconds);
+		}
+		
+		@Override
+		public void setFetchDirection(int direction) throws SQLException {
+			if((changedBits & CHANGED_FETCH_DIRECTION) == 0){
+				fetchDirection = delegate().getFetchDirection();
+				changedBits |= CHANGED_FETCH_DIRECTION;
+			}
+			delegate().setFetchDirection(direction);
+		}
+		
+		@Override
+		public void setMaxFieldSize(int max) throws SQLException {
+			if((changedBits & CHANGED_MAX_FIELD_SIZE) == 0){
+				maxFieldSize = delegate().getMaxFieldSize();
+				changedBits |= CHANGED_MAX_FIELD_SIZE;
+			}
+			delegate().setMaxFieldSize(max);
+		}
+		
+		@Override
+		public void setPoolable(boolean poolable) throws SQLException {
+			delegate();
+			this.poolable = poolable;
+		}
+		
+		@Override
+		public boolean isPoolable() throws SQLException {
+			delegate();
+			return poolable;
+		}
+		
+		/**
+		 * Restores the settings changed by the borrower
+		 */
+		private void resetSettings() throws SQLException {
+			if(changedBits == 0){
+				return;
+			}
+			if((changedBits & CHANGED_MAX_ROWS) != 0){
+				delegate.setMaxRows(maxRows);
+			}
+			if((changedBits & CHANGED_FETCH_SIZE) != 0){
+				delegate.setFetchSize(fetchSize);
+			}
+			if((changedBits & CHANGED_QUERY_TIMEOUT) != 0){
+				delegate.setQueryTimeout(queryTimeout);
+			}
+			if((changedBits & CHANGED_FETCH_DIRECTION) != 0){
+				delegate.setFetchDirection(fetchDirection);
+			}
+			if((changedBits & CHANGED_MAX_FIELD_SIZE) != 0){
+				delegate.setMaxFieldSize(maxFieldSize);
+			}
+			changedBits = 0;
+		}
+		
+		@Override
+		public void close() throws SQLException {
+			if(closed){
+				return;
+			}
+			closed = true;
+			try{
+				if(delegate.isClosed()){
+					return;
+				}
+				if(!poolable){
+					delegate.close();
+					return;
+				}
+				ResultSet resultSet = delegate.getResultSet();
+				if(resultSet != null){
+					resultSet.close();
+				}
+				delegate.clearParameters();
+				delegate.clearBatch();
+				delegate.clearWarnings();
+				resetSettings();
+			} catch(SQLException e){
+				closeQuietly(delegate);
+				return;
+			}
+			cache.offer(key, delegate);
+		}
+		
+		@Override
+		public boolean isClosed() throws SQLException {
+			return closed || delegate.isClosed();
+		}
+	}
+}
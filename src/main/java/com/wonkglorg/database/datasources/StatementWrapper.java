@@ -0,0 +1,399 @@
+package com.wonkglorg.database.datasources;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+
+/**
+ * Base class for statements handed out in place of the driver's statement, delegates every call
+ * to the wrapped statement.
+ *
+ * @param <S> the type of the wrapped statement
+ */
+public abstract class StatementWrapper<S extends Statement> implements Statement{
+	
+	protected final S delegate;
+	protected final Connection connection;
+	/**
+	 * The connection wrapper executions are reported to, null if the statement belongs to a plain
+	 * connection
+	 */
+	private final ConnectionWrapper owner;
+	
+	/**
+	 * @param delegate the statement to delegate to
+	 * @param connection the connection returned from {@link #getConnection()}, this should be the
+	 * wrapped connection the statement was created from so callers never see the raw driver
+	 * connection
+	 */
+	StatementWrapper(S delegate, Connection connection) {
+		this.delegate = delegate;
+		this.connection = connection;
+		this.owner = connection instanceof ConnectionWrapper wrapper ? wrapper : null;
+	}
+	
+	/**
+	 * @return the statement calls are delegated to, subclasses can refuse calls here by throwing
+	 */
+	protected S delegate() throws SQLException {
+		return delegate;
+	}
+	
+	/**
+	 * Called before every execution, tells the owning connection that its transaction was used
+	 * so it is rolled back if the connection is returned to a pool without a commit
+	 */
+	void executing() {
+		if(owner != null){
+			owner.markTransactionDirty();
+		}
+	}
+	
+	/**
+	 * Reports a failed execution to the owning connection, so data sources validate it before
+	 * handing it out again
+	 *
+	 * @param e the error reported by the delegate
+	 * @return the same error so it can be rethrown
+	 */
+	SQLException executeFailed(SQLException e) {
+		return owner != null ? owner.markError(e) : e;
+	}
+	
+	@Override
+	public ResultSet executeQuery(String sql) throws SQLException {
+		executing();
+		try{
+			return delegate().executeQuery(sql);
+		} catch(SQLException e){
+			throw executeFailed(e);
+		}
+	}
+	
+	@Override
+	public int executeUpdate(String sql) throws SQLException {
+		executing();
+		try{
+			return delegate().executeUpdate(sql);
+		} catch(SQLException e){
+			throw executeFailed(e);
+		}
+	}
+	
+	@Override
+	public void close() throws SQLException {
+		delegate().close();
+	}
+	
+	@Override
+	public int getMaxFieldSize() throws SQLException {
+		return delegate().getMaxFieldSize();
+	}
+	
+	@Override
+	public void setMaxFieldSize(int max) throws SQLException {
+		delegate().setMaxFieldSize(max);
+	}
+	
+	@Override
+	public int getMaxRows() throws SQLException {
+		return delegate().getMaxRows();
+	}
+	
+	@Override
+	public void setMaxRows(int max) throws SQLException {
+		delegate().setMaxRows(max);
+	}
+	
+	@Override
+	public void setEscapeProcessing(boolean enable) throws SQLException {
+		delegate().setEscapeProcessing(enable);
+	}
+	
+	@Override
+	public int getQueryTimeout() throws SQLException {
+		return delegate().getQueryTimeout();
+	}
+	
+	@Override
+	public void setQueryTimeout(int seconds) throws SQLException {
+		delegate().setQueryTimeout(seconds);
+	}
+	
+	@Override
+	public void cancel() throws SQLException {
+		delegate().cancel();
+	}
+	
+	@Override
+	public SQLWarning getWarnings() throws SQLException {
+		return delegate().getWarnings();
+	}
+	
+	@Override
+	public void clearWarnings() throws SQLException {
+		delegate().clearWarnings();
+	}
+	
+	@Override
+	public void setCursorName(String name) throws SQLException {
+		delegate().setCursorName(name);
+	}
+	
+	@Override
+	public boolean execute(String sql) throws SQLException {
+		executing();
+		try{
+			return delegate().execute(sql);
+		} catch(SQLException e){
+			throw executeFailed(e);
+		}
+	}
+	
+	@Override
+	public ResultSet getResultSet() throws SQLException {
+		return delegate().getResultSet();
+	}
+	
+	@Override
+	public int getUpdateCount() throws SQLException {
+		return delegate().getUpdateCount();
+	}
+	
+	@Override
+	public boolean getMoreResults() throws SQLException {
+		return delegate().getMoreResults();
+	}
+	
+	@Override
+	public void setFetchDirection(int direction) throws SQLException {
+		delegate().setFetchDirection(direction);
+	}
+	
+	@Override
+	public int getFetchDirection() throws SQLException {
+		return delegate().getFetchDirection();
+	}
+	
+	@Override
+	public void setFetchSize(int rows) throws SQLException {
+		delegate().setFetchSize(rows);
+	}
+	
+	@Override
+	public int getFetchSize() throws SQLException {
+		return delegate().getFetchSize();
+	}
+	
+	@Override
+	public int getResultSetConcurrency() throws SQLException {
+		return delegate().getResultSetConcurrency();
+	}
+	
+	@Override
+	public int getResultSetType() throws SQLException {
+		return delegate().getResultSetType();
+	}
+	
+	@Override
+	public void addBatch(String sql) throws SQLException {
+		delegate().addBatch(sql);
+	}
+	
+	@Override
+	public void clearBatch() throws SQLException {
+		delegate().clearBatch();
+	}
+	
+	@Override
+	public int[] executeBatch() throws SQLException {
+		executing();
+		try{
+			return delegate().executeBatch();
+		} catch(SQLException e){
+			throw executeFailed(e);
+		}
+	}
+	
+	@Override
+	public Connection getConnection() throws SQLException {
+		return connection;
+	}
+	
+	@Override
+	public boolean getMoreResults(int current) throws SQLException {
+		return delegate().getMoreResults(current);
+	}
+	
+	@Override
+	public ResultSet getGeneratedKeys() throws SQLException {
+		return delegate().getGeneratedKeys();
+	}
+	
+	@Override
+	public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+		executing();
+		try{
+			return delegate().executeUpdate(sql, autoGeneratedKeys);
+		} catch(SQLException e){
+			throw executeFailed(e);
+		}
+	}
+	
+	@Override
+	public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+		executing();
+		try{
+			return delegate().executeUpdate(sql, columnIndexes);
+		} catch(SQLException e){
+			throw executeFailed(e);
+		}
+	}
+	
+	@Override
+	public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+		executing();
+		try{
+			return delegate().executeUpdate(sql, columnNames);
+		} catch(SQLException e){
+			throw executeFailed(e);
+		}
+	}
+	
+	@Override
+	public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+		executing();
+		try{
+			return delegate().execute(sql, autoGeneratedKeys);
+		} catch(SQLException e){
+			throw executeFailed(e);
+		}
+	}
+	
+	@Override
+	public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+		executing();
+		try{
+			return delegate().execute(sql, columnIndexes);
+		} catch(SQLException e){
+			throw executeFailed(e);
+		}
+	}
+	
+	@Override
+	public boolean execute(String sql, String[] columnNames) throws SQLException {
+		executing();
+		try{
+			return delegate().execute(sql, columnNames);
+		} catch(SQLException e){
+			throw executeFailed(e);
+		}
+	}
+	
+	@Override
+	public int getResultSetHoldability() throws SQLException {
+		return delegate().getResultSetHoldability();
+	}
+	
+	@Override
+	public boolean isClosed() throws SQLException {
+		return delegate().isClosed();
+	}
+	
+	@Override
+	public void setPoolable(boolean poolable) throws SQLException {
+		delegate().setPoolable(poolable);
+	}
+	
+	@Override
+	public boolean isPoolable() throws SQLException {
+		return delegate().isPoolable();
+	}
+	
+	@Override
+	public void closeOnCompletion() throws SQLException {
+		delegate().closeOnCompletion();
+	}
+	
+	@Override
+	public boolean isCloseOnCompletion() throws SQLException {
+		return delegate().isCloseOnCompletion();
+	}
+	
+	@Override
+	public long getLargeUpdateCount() throws SQLException {
+		return delegate().getLargeUpdateCount();
+	}
+	
+	@Override
+	public void setLargeMaxRows(long max) throws SQLException {
+		delegate().setLargeMaxRows(max);
+	}
+	
+	@Override
+	public long getLargeMaxRows() throws SQLException {
+		return delegate().getLargeMaxRows();
+	}
+	
+	@Override
+	public long[] executeLargeBatch() throws SQLException {
+		executing();
+		try{
+			return delegate().executeLargeBatch();
+		} catch(SQLException e){
+			throw executeFailed(e);
+		}
+	}
+	
+	@Override
+	public long executeLargeUpdate(String sql) throws SQLException {
+		executing();
+		try{
+			return delegate().executeLargeUpdate(sql);
+		} catch(SQLException e){
+			throw executeFailed(e);
+		}
+	}
+	
+	@Override
+	public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+		executing();
+		try{
+			return delegate().executeLargeUpdate(sql, autoGeneratedKeys);
+		} catch(SQLException e){
+			throw executeFailed(e);
+		}
+	}
+	
+	@Override
+	public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+		executing();
+		try{
+			return delegate().executeLargeUpdate(sql, columnIndexes);
+		} catch(SQLException e){
+			throw executeFailed(e);
+		}
+	}
+	
+	@Override
+	public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+		executing();
+		try{
+			return delegate().executeLargeUpdate(sql, columnNames);
+		} catch(SQLException e){
+			throw executeFailed(e);
+		}
+	}
+	
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		return delegate().unwrap(iface);
+	}
+	
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return delegate().isWrapperFor(iface);
+	}
+}
@@ -4,6 +4,7 @@ import com.wonkglorg.database.DatabaseType;
 
 import javax.sql.DataSource;
 import java.io.PrintWriter;
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
 import java.util.logging.Logger;
@@ -15,6 +16,73 @@ public interface TypedDataSource extends DataSource{
 	
 	DatabaseType getType();
 	
+	/**
+	 * Returns a connection suited for the intended use, data sources that do not separate reads
+	 * from writes return the same connection as {@link #getConnection()}
+	 *
+	 * @param intent what the connection will be used for
+	 */
+	default Connection getConnection(AccessIntent intent) throws SQLException {
+		return getConnection();
+	}
+	
+	/**
+	 * Returns a connection no other caller uses until it is closed, for work that changes its
+	 * session state such as a transaction with auto commit turned off. Data sources sharing one
+	 * connection between all callers open an additional physical connection, the default returns
+	 * {@link #getConnection(AccessIntent)} which suits data sources lending their connections out
+	 * one caller at a time such as pools
+	 *
+	 * @param intent what the connection will be used for
+	 * @return the connection, the caller has to close it
+	 */
+	default Connection getExclusiveConnection(AccessIntent intent) throws SQLException {
+		return getConnection(intent);
+	}
+	
+	/**
+	 * @return how many connections can be used at the same time, data sources holding a single
+	 * connection share it between all callers and return 1
+	 */
+	default int getMaxConnections() {
+		return 1;
+	}
+	
+	/**
+	 * @param intent what the connections will be used for
+	 * @return how many connections for the intent can be used at the same time, at most
+	 * {@link #getMaxConnections()}
+	 */
+	default int getMaxConnections(AccessIntent intent) {
+		return getMaxConnections();
+	}
+	
+	/**
+	 * @return true if {@link #setConnectionInitializer(ConnectionInitializer)} is supported, data
+	 * sources wrapping others check this before passing an initializer on
+	 */
+	default boolean supportsConnectionInitializer() {
+		return false;
+	}
+	
+	/**
+	 * Data sources wrapping others pass the initializer on to all of them
+	 *
+	 * @param initializer run once on every physical connection opened after this call, null for
+	 * {@link ConnectionInitializer#NONE}
+	 * @throws UnsupportedOperationException if {@link #supportsConnectionInitializer()} is false
+	 */
+	default void setConnectionInitializer(ConnectionInitializer initializer) {
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support connection initializers");
+	}
+	
+	/**
+	 * @return the initializer run on every new physical connection
+	 */
+	default ConnectionInitializer getConnectionInitializer() {
+		return ConnectionInitializer.NONE;
+	}
+	
 	@Override
 	default PrintWriter getLogWriter() throws SQLException {
 		return null;
@@ -1,5 +1,7 @@
 package com.wonkglorg.database.datasources;
 
+import com.wonkglorg.database.metrics.QueryMonitor;
+
 import java.sql.Connection;
 import java.sql.SQLException;
 
@@ -8,6 +10,15 @@ public class UncloseAbleConnection extends ConnectionWrapper{
 		super(delegate);
 	}
 	
+	/**
+	 * @param statementCache the prepared statement cache of the physical connection, null to not
+	 * cache statements
+	 * @param queryMonitor the monitor to report statement executions to, null to not time them
+	 */
+	public UncloseAbleConnection(Connection delegate, StatementCache statementCache, QueryMonitor queryMonitor) {
+		super(delegate, statementCache, queryMonitor);
+	}
+	
 	@Override
 	public void close() throws SQLException {
 		//do nothing
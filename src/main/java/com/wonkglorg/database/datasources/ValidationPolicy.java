@@ -0,0 +1,82 @@
+package com.wonkglorg.database.datasources;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a data source holding a single long lived connection checks it with
+ * {@link java.sql.Connection#isValid(int)} before handing it out. Checking costs a round trip to
+ * the database so it should only be done when the connection could have gone stale.
+ * <p>
+ * Regardless of the policy a connection the driver already reports as closed is always reopened.
+ *
+ * @param mode when to validate
+ * @param idleMillis how long the connection has to be unused before it is validated, only used
+ * by {@link Mode#AFTER_IDLE}
+ */
+public record ValidationPolicy(Mode mode, long idleMillis){
+	public enum Mode{
+		/**
+		 * Validate on every use
+		 */
+		ALWAYS,
+		/**
+		 * Validate once the connection was unused for a while or a use of it failed
+		 */
+		AFTER_IDLE,
+		/**
+		 * Validate only after a use of the connection failed
+		 */
+		ON_ERROR,
+		/**
+		 * Never validate
+		 */
+		NEVER
+	}
+	
+	/**
+	 * Validates after 30 seconds of inactivity or an error
+	 */
+	public static final ValidationPolicy DEFAULT = afterIdle(30_000);
+	
+	public ValidationPolicy {
+		if(mode == null){
+			throw new IllegalArgumentException("mode cannot be null");
+		}
+		if(idleMillis < 0){
+			throw new IllegalArgumentException("idleMillis cannot be negative");
+		}
+	}
+	
+	public static ValidationPolicy always() {
+		return new ValidationPolicy(Mode.ALWAYS, 0);
+	}
+	
+	/**
+	 * @param idleMillis how long the connection has to be unused before it is validated again
+	 */
+	public static ValidationPolicy afterIdle(long idleMillis) {
+		return new ValidationPolicy(Mode.AFTER_IDLE, idleMillis);
+	}
+	
+	public static ValidationPolicy onError() {
+		return new ValidationPolicy(Mode.ON_ERROR, 0);
+	}
+	
+	public static ValidationPolicy never() {
+		return new ValidationPolicy(Mode.NEVER, 0);
+	}
+	
+	/**
+	 * @param lastUsed the last time (in {@link System#nanoTime()}) the connection was handed out
+	 * @param errorOccurred if a use of the connection failed since it was last validated
+	 * @return true if the connection has to be validated before it is handed out again
+	 */
+	boolean requiresValidation(long lastUsed, boolean errorOccurred) {
+		return switch(mode){
+			case ALWAYS -> true;
+			case AFTER_IDLE -> errorOccurred || System.nanoTime() - lastUsed > TimeUnit.MILLISECONDS.toNanos(idleMillis);
+			case ON_ERROR -> errorOccurred;
+			case NEVER -> false;
+		};
+	}
+}
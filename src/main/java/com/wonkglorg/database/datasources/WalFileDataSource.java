@@ -0,0 +1,215 @@
+package com.wonkglorg.database.datasources;
+
+import com.wonkglorg.database.DatabaseType;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sqlite file data source in write ahead log mode. Writes go through the single connection of
+ * {@link FileDataSource}, reads borrow one of a pool of read only connections. In WAL mode
+ * readers do not block the writer or each other, so read throughput scales with the number of
+ * read connections.
+ * <p>
+ * {@link #getConnection()} returns the writer connection, use
+ * {@link #getConnection(AccessIntent)} with {@link AccessIntent#READ} to borrow a reader. Readers
+ * are pooled connections and have to be closed to be returned.
+ * <pre>
+ *     {@code
+ * try(Connection connection = dataSource.getConnection(AccessIntent.READ)){
+ *     ...
+ * }
+ * }
+ * </pre>
+ */
+@SuppressWarnings("unused")
+public class WalFileDataSource extends FileDataSource implements AutoCloseable{
+	private static final Logger log = Logger.getLogger(WalFileDataSource.class.getName());
+	private final PoolConfig readPoolConfig;
+	private final ReentrantLock lock = new ReentrantLock();
+	private volatile ReadPool readers;
+	private volatile boolean walEnabled = false;
+	private boolean closed = false;
+	
+	/**
+	 * @param type the type of database to connect to (has to be sqlite)
+	 * @param file the file to connect to (or create if absent)
+	 */
+	public WalFileDataSource(DatabaseType type, Path file) {
+		this(type, file, file, defaultReadPoolConfig(file));
+	}
+	
+	/**
+	 * @param type the type of database to connect to (has to be sqlite)
+	 * @param sourceFile the location to copy it from if it exists
+	 * @param file the file to connect to (or create if absent)
+	 * @param readPoolConfig the settings of the read connection pool, the max pool size is the
+	 * number of concurrent readers
+	 */
+	public WalFileDataSource(DatabaseType type, Path sourceFile, Path file, PoolConfig readPoolConfig) {
+		super(type, sourceFile, file);
+		this.readPoolConfig = readPoolConfig;
+	}
+	
+	private static PoolConfig defaultReadPoolConfig(Path file) {
+		return new PoolConfig().setPoolName(file.getFileName() + "-readers").setMaxPoolSize(Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Returns the writer connection, the database is switched to WAL mode the first time it is
+	 * opened
+	 */
+	@Override
+	public Connection getConnection() {
+		Connection writer = super.getConnection();
+		if(!walEnabled){
+			enableWal(writer);
+		}
+		return writer;
+	}
+	
+	/**
+	 * @param intent {@link AccessIntent#READ} to borrow a pooled read only connection,
+	 * {@link AccessIntent#WRITE} for the writer connection
+	 */
+	@Override
+	public Connection getConnection(AccessIntent intent) {
+		if(intent == AccessIntent.WRITE){
+			return getConnection();
+		}
+		return getReadPool().getConnection();
+	}
+	
+	/**
+	 * @param intent {@link AccessIntent#READ} to borrow a pooled read only connection,
+	 * {@link AccessIntent#WRITE} to open an additional writer connection. SQLite still serializes
+	 * it with the shared writer through the file lock
+	 */
+	@Override
+	public Connection getExclusiveConnection(AccessIntent intent) throws SQLException {
+		if(intent == AccessIntent.WRITE){
+			getConnection();
+			return super.getExclusiveConnection(intent);
+		}
+		return getReadPool().getConnection();
+	}
+	
+	private void enableWal(Connection writer) {
+		lock.lock();
+		try(Statement statement = writer.createStatement()){
+			if(!walEnabled){
+				statement.execute("PRAGMA journal_mode=WAL");
+				walEnabled = true;
+			}
+		} catch(SQLException e){
+			throw new RuntimeException("Failed to switch " + dbFile + " to WAL mode", e);
+		} finally{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return the readers and the writer
+	 */
+	@Override
+	public int getMaxConnections() {
+		return readPoolConfig.getMaxPoolSize() + 1;
+	}
+	
+	@Override
+	public int getMaxConnections(AccessIntent intent) {
+		return intent == AccessIntent.WRITE ? 1 : readPoolConfig.getMaxPoolSize();
+	}
+	
+	/**
+	 * @param initializer run on the writer and every reader opened after this call, readers run
+	 * it before they are made read only
+	 */
+	@Override
+	public void setConnectionInitializer(ConnectionInitializer initializer) {
+		lock.lock();
+		try{
+			super.setConnectionInitializer(initializer);
+			if(readers != null){
+				readers.setConnectionInitializer(initializer);
+			}
+		} finally{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return the pool of read connections, created with the first read. The file has to exist and
+	 * be in WAL mode before readers open it, so the writer is opened first
+	 */
+	public PooledServerDataSource getReadPool() {
+		ReadPool current = readers;
+		if(current != null){
+			return current;
+		}
+		getConnection();
+		lock.lock();
+		try{
+			if(closed){
+				throw new IllegalStateException("Data source has been closed");
+			}
+			if(readers == null){
+				//the caller's config is left as it was passed in
+				readers = new ReadPool(getType(), dbFile.toString(), readPoolConfig.copy().setConnectionInitializer(getConnectionInitializer()));
+			}
+			return readers;
+		} finally{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Closes the read pool and the writer connection
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try{
+			closed = true;
+			if(readers != null){
+				readers.close();
+			}
+			Connection writer = connection;
+			if(writer instanceof ConnectionWrapper wrapper){
+				wrapper.delegate.close();
+			} else if(writer != null){
+				writer.close();
+			}
+		} catch(SQLException e){
+			log.log(Level.FINE, "Failed to close writer connection", e);
+		} finally{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Pool whose connections refuse writes
+	 */
+	private static final class ReadPool extends PooledServerDataSource{
+		private ReadPool(DatabaseType type, String file, PoolConfig config) {
+			super(type, file, null, null, config);
+		}
+		
+		@Override
+		protected Connection createConnection() throws SQLException {
+			Connection connection = super.createConnection();
+			try(Statement statement = connection.createStatement()){
+				statement.execute("PRAGMA query_only=ON");
+			} catch(SQLException e){
+				connection.close();
+				throw e;
+			}
+			return connection;
+		}
+	}
+}
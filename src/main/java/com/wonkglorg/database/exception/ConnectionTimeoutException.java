@@ -0,0 +1,50 @@
+package com.wonkglorg.database.exception;
+
+/**
+ * Thrown when no pooled connection could be acquired within the configured timeout, contains
+ * the state of the pool at the time the borrower gave up.
+ */
+public class ConnectionTimeoutException extends RuntimeException{
+	private static final long serialVersionUID = 1L;
+	
+	private final long timeoutMillis;
+	private final int active;
+	private final int idle;
+	private final int waiting;
+	private final int total;
+	private final int maxPoolSize;
+	
+	public ConnectionTimeoutException(long timeoutMillis, int active, int idle, int waiting, int total, int maxPoolSize, Throwable cause) {
+		super("Connection not available after " + timeoutMillis + "ms (active=" + active + ", idle=" + idle + ", waiting=" + waiting + ", total=" + total + ", max=" + maxPoolSize + ")", cause);
+		this.timeoutMillis = timeoutMillis;
+		this.active = active;
+		this.idle = idle;
+		this.waiting = waiting;
+		this.total = total;
+		this.maxPoolSize = maxPoolSize;
+	}
+	
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+	
+	public int getActive() {
+		return active;
+	}
+	
+	public int getIdle() {
+		return idle;
+	}
+	
+	public int getWaiting() {
+		return waiting;
+	}
+	
+	public int getTotal() {
+		return total;
+	}
+	
+	public int getMaxPoolSize() {
+		return maxPoolSize;
+	}
+}
@@ -0,0 +1,114 @@
+package com.wonkglorg.database.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed size log linear histogram for durations in nanoseconds.
+ * <p>
+ * Every power of two is split into 8 linear buckets so recorded values keep a relative error of
+ * at most 12.5% over the full range of a long. Recording is a couple of bit operations and one
+ * atomic increment without any allocation, so it can stay enabled on hot paths.
+ */
+public final class LatencyHistogram{
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder total = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	
+	/**
+	 * Records a single value, negative values are recorded as 0
+	 *
+	 * @param nanos the duration to record
+	 */
+	public void record(long nanos) {
+		long value = Math.max(nanos, 0);
+		counts.incrementAndGet(indexOf(value));
+		total.increment();
+		sum.add(value);
+	}
+	
+	static int indexOf(long value) {
+		if(value < SUB_BUCKETS){
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+	}
+	
+	/**
+	 * @return the highest value that falls into the bucket
+	 */
+	static long upperBoundOf(int index) {
+		if(index < SUB_BUCKETS){
+			return index;
+		}
+		int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+		long subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+		long lower = (SUB_BUCKETS + subBucket) << shift;
+		return lower + (1L << shift) - 1;
+	}
+	
+	/**
+	 * Takes a consistent enough view of the histogram, values recorded while the snapshot is taken
+	 * may or may not be included
+	 */
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		long count = 0;
+		int highest = -1;
+		for(int i = 0; i < BUCKETS; i++){
+			long bucketCount = counts.get(i);
+			copy[i] = bucketCount;
+			count += bucketCount;
+			if(bucketCount > 0){
+				highest = i;
+			}
+		}
+		if(count == 0){
+			return new Snapshot(0, 0, 0, 0, 0, 0);
+		}
+		long mean = sum.sum() / Math.max(total.sum(), 1);
+		return new Snapshot(count, mean, valueAt(copy, count, 0.50), valueAt(copy, count, 0.95), valueAt(copy, count, 0.99), upperBoundOf(highest));
+	}
+	
+	private static long valueAt(long[] buckets, long count, double percentile) {
+		long rank = (long) Math.ceil(percentile * count);
+		long seen = 0;
+		for(int i = 0; i < buckets.length; i++){
+			seen += buckets[i];
+			if(seen >= rank){
+				return upperBoundOf(i);
+			}
+		}
+		return 0;
+	}
+	
+	/**
+	 * Clears all recorded values
+	 */
+	public void reset() {
+		for(int i = 0; i < BUCKETS; i++){
+			counts.set(i, 0);
+		}
+		total.reset();
+		sum.reset();
+	}
+	
+	/**
+	 * Summary of a histogram, all values are in nanoseconds
+	 *
+	 * @param count the number of recorded values
+	 * @param mean the average of the recorded values
+	 * @param p50 the median
+	 * @param p95 the 95th percentile
+	 * @param p99 the 99th percentile
+	 * @param max the highest recorded value
+	 */
+	public record Snapshot(long count, long mean, long p50, long p95, long p99, long max){
+	}
+}
@@ -0,0 +1,43 @@
+package com.wonkglorg.database.metrics;
+
+/**
+ * JMX view of a connection pool, registered as
+ * {@code com.wonkglorg.database:type=Pool,name=<poolName>}. Durations are in milliseconds.
+ */
+public interface PoolMXBean{
+	int getActiveConnections();
+	
+	int getIdleConnections();
+	
+	int getThreadsAwaitingConnection();
+	
+	int getTotalConnections();
+	
+	int getMaxPoolSize();
+	
+	long getCreatedConnections();
+	
+	long getDestroyedConnections();
+	
+	long getCreationFailures();
+	
+	long getBorrowCount();
+	
+	long getTimeoutCount();
+	
+	long getLeakCount();
+	
+	long getReclaimedCount();
+	
+	double getBorrowWaitMeanMillis();
+	
+	double getBorrowWaitP99Millis();
+	
+	double getBorrowWaitMaxMillis();
+	
+	double getHoldTimeMeanMillis();
+	
+	double getHoldTimeP99Millis();
+	
+	double getHoldTimeMaxMillis();
+}
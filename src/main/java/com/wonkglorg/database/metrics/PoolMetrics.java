@@ -0,0 +1,38 @@
+package com.wonkglorg.database.metrics;
+
+/**
+ * Point in time view of a connection pool
+ *
+ * @param poolName the name of the pool
+ * @param active connections currently borrowed
+ * @param idle connections currently available
+ * @param waiting threads currently waiting for a connection
+ * @param total physical connections currently open
+ * @param maxPoolSize the maximum number of physical connections
+ * @param created physical connections opened since the pool was created
+ * @param destroyed physical connections closed since the pool was created
+ * @param creationFailures failed attempts to open a physical connection
+ * @param borrowed successful borrows
+ * @param timeouts borrows that gave up after the connection timeout
+ * @param leaks borrowed connections reported as held longer than the leak detection threshold
+ * @param reclaimed borrowed connections reclaimed after being garbage collected without being
+ * closed
+ * @param borrowWait time borrowers waited for a connection
+ * @param holdTime time borrowers held on to a connection
+ */
+public record PoolMetrics(String poolName,
+		int active,
+		int idle,
+		int waiting,
+		int total,
+		int maxPoolSize,
+		long created,
+		long destroyed,
+		long creationFailures,
+		long borrowed,
+		long timeouts,
+		long leaks,
+		long reclaimed,
+		LatencyHistogram.Snapshot borrowWait,
+		LatencyHistogram.Snapshot holdTime){
+}
@@ -0,0 +1,273 @@
+package com.wonkglorg.database.metrics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Collects execution times of statements created through a connection the monitor is attached
+ * to. Statements are grouped by their shape, the sql with all literals replaced by {@code ?}, so
+ * the same query with different values is counted together.
+ * <p>
+ * Every execution is timed and checked against the slow query threshold, slow executions are
+ * logged together with a summary of their bound parameters. Only a sample of executions is added
+ * to the per shape statistics to keep the overhead low, all numbers reported there are for the
+ * sampled executions only.
+ * <pre>
+ *     {@code
+ * QueryMonitor monitor = new QueryMonitor().setSampleRate(10).setSlowQueryThreshold(200);
+ * dataSource.setQueryMonitor(monitor);
+ * }
+ * </pre>
+ */
+@SuppressWarnings("unused")
+public class QueryMonitor{
+	private static final Logger log = Logger.getLogger(QueryMonitor.class.getName());
+	private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+	private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?(?![\\w.])");
+	private static final Pattern PARAMETER_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+	private static final String OTHER_SHAPE = "<other>";
+	private static final int MAX_PARAMETER_LENGTH = 64;
+	
+	private static final int MAX_CACHED_SHAPES = 10_000;
+	
+	private final ConcurrentHashMap<String, ShapeStatistics> statistics = new ConcurrentHashMap<>();
+	/**
+	 * Normalized shapes of sql seen before, prepared statements are normalized on every prepare
+	 */
+	private final ConcurrentHashMap<String, String> shapes = new ConcurrentHashMap<>();
+	private final ArrayDeque<SlowQuery> slowQueries = new ArrayDeque<>();
+	private volatile int sampleRate = 1;
+	private volatile long slowQueryThresholdNanos = TimeUnit.SECONDS.toNanos(1);
+	private volatile int maxShapes = 1000;
+	private volatile int maxSlowQueries = 100;
+	
+	/**
+	 * @param sampleRate add one in this many executions to the statistics, 1 adds every execution
+	 */
+	public QueryMonitor setSampleRate(int sampleRate) {
+		if(sampleRate < 1){
+			throw new IllegalArgumentException("sampleRate has to be at least 1");
+		}
+		this.sampleRate = sampleRate;
+		return this;
+	}
+	
+	public int getSampleRate() {
+		return sampleRate;
+	}
+	
+	/**
+	 * @param millis executions taking longer than this are logged as slow queries, sampled or not
+	 */
+	public QueryMonitor setSlowQueryThreshold(long millis) {
+		this.slowQueryThresholdNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+		return this;
+	}
+	
+	public long getSlowQueryThreshold() {
+		return TimeUnit.NANOSECONDS.toMillis(slowQueryThresholdNanos);
+	}
+	
+	/**
+	 * @param maxShapes how many different query shapes are tracked, further shapes are counted
+	 * together as {@code <other>}
+	 */
+	public QueryMonitor setMaxShapes(int maxShapes) {
+		this.maxShapes = maxShapes;
+		return this;
+	}
+	
+	/**
+	 * @param maxSlowQueries how many of the most recent slow queries are kept
+	 */
+	public QueryMonitor setMaxSlowQueries(int maxSlowQueries) {
+		this.maxSlowQueries = maxSlowQueries;
+		return this;
+	}
+	
+	/**
+	 * Decides if the next execution should be added to the statistics
+	 *
+	 * @return true if it should be
+	 */
+	public boolean sample() {
+		int rate = sampleRate;
+		return rate == 1 || ThreadLocalRandom.current().nextInt(rate) == 0;
+	}
+	
+	/**
+	 * Adds a sampled execution to the statistics of its shape
+	 *
+	 * @param shape the normalized sql, see {@link #normalize(String)}
+	 * @param nanos how long the execution took
+	 * @param updatedRows the update count of the execution, 0 for queries
+	 */
+	public void record(String shape, long nanos, long updatedRows) {
+		ShapeStatistics shapeStatistics = statistics.get(shape);
+		if(shapeStatistics == null){
+			String key = statistics.size() < maxShapes ? shape : OTHER_SHAPE;
+			shapeStatistics = statistics.computeIfAbsent(key, ignored -> new ShapeStatistics());
+		}
+		shapeStatistics.executions.increment();
+		shapeStatistics.updatedRows.add(updatedRows);
+		shapeStatistics.latency.record(nanos);
+	}
+	
+	/**
+	 * @param nanos how long an execution took
+	 * @return true if it is slower than the threshold
+	 */
+	public boolean isSlow(long nanos) {
+		return nanos >= slowQueryThresholdNanos;
+	}
+	
+	/**
+	 * Logs an execution slower than the threshold and keeps it in the slow query log
+	 *
+	 * @param sql the sql as executed
+	 * @param nanos how long the execution took
+	 * @param parameters the bound parameters indexed by their parameter index (index 0 is unused)
+	 * or null if they were not captured
+	 */
+	public void recordSlowQuery(String sql, long nanos, Object[] parameters) {
+		SlowQuery slowQuery = new SlowQuery(sql, TimeUnit.NANOSECONDS.toMillis(nanos), summarize(parameters), System.currentTimeMillis());
+		log.log(Level.WARNING, "Slow query ({0}ms): {1} parameters: {2}", new Object[]{slowQuery.millis(), sql, slowQuery.parameters()});
+		synchronized(slowQueries){
+			slowQueries.addLast(slowQuery);
+			while(slowQueries.size() > maxSlowQueries){
+				slowQueries.removeFirst();
+			}
+		}
+	}
+	
+	/**
+	 * @return the statistics of every tracked query shape, slowest total time first
+	 */
+	public List<QueryStatistics> getStatistics() {
+		List<QueryStatistics> result = new ArrayList<>(statistics.size());
+		statistics.forEach((shape, value) -> result.add(new QueryStatistics(shape, value.executions.sum(), value.updatedRows.sum(), value.latency.snapshot())));
+		result.sort(Comparator.comparingLong((QueryStatistics value) -> value.executions() * value.latency().mean()).reversed());
+		return result;
+	}
+	
+	/**
+	 * @return the most recent slow queries, oldest first
+	 */
+	public List<SlowQuery> getSlowQueries() {
+		synchronized(slowQueries){
+			return new ArrayList<>(slowQueries);
+		}
+	}
+	
+	/**
+	 * Clears all collected statistics and slow queries
+	 */
+	public void reset() {
+		statistics.clear();
+		shapes.clear();
+		synchronized(slowQueries){
+			slowQueries.clear();
+		}
+	}
+	
+	/**
+	 * Same as {@link #normalize(String)} but remembers the shapes of recently seen sql
+	 *
+	 * @param sql the sql to normalize
+	 * @return the shape of the sql
+	 */
+	public String shapeOf(String sql) {
+		if(sql == null){
+			return "";
+		}
+		String shape = shapes.get(sql);
+		if(shape == null){
+			shape = normalize(sql);
+			if(shapes.size() < MAX_CACHED_SHAPES){
+				shapes.put(sql, shape);
+			}
+		}
+		return shape;
+	}
+	
+	/**
+	 * Reduces sql to its shape by replacing literals with {@code ?}, collapsing parameter lists
+	 * and whitespace
+	 *
+	 * @param sql the sql to normalize
+	 * @return the shape of the sql
+	 */
+	public static String normalize(String sql) {
+		if(sql == null){
+			return "";
+		}
+		String shape = STRING_LITERAL.matcher(sql).replaceAll("?");
+		shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+		shape = PARAMETER_LIST.matcher(shape).replaceAll("(?)");
+		return WHITESPACE.matcher(shape).replaceAll(" ").trim();
+	}
+	
+	private static String summarize(Object[] parameters) {
+		if(parameters == null){
+			return "";
+		}
+		StringBuilder builder = new StringBuilder("[");
+		for(int i = 1; i < parameters.length; i++){
+			if(i > 1){
+				builder.append(", ");
+			}
+			Object value = parameters[i];
+			if(value == null){
+				builder.append("null");
+			} else if(value instanceof byte[] bytes){
+				builder.append("byte[").append(bytes.length).append(']');
+			} else {
+				String text = value.toString();
+				if(text.length() > MAX_PARAMETER_LENGTH){
+					text = text.substring(0, MAX_PARAMETER_LENGTH) + "...";
+				}
+				builder.append(value instanceof CharSequence ? "'" + text + "'" : text);
+			}
+		}
+		return builder.append(']').toString();
+	}
+	
+	private static final class ShapeStatistics{
+		private final LongAdder executions = new LongAdder();
+		private final LongAdder updatedRows = new LongAdder();
+		private final LatencyHistogram latency = new LatencyHistogram();
+	}
+	
+	/**
+	 * Statistics of a single query shape
+	 *
+	 * @param shape the normalized sql
+	 * @param executions the number of sampled executions
+	 * @param updatedRows the summed update counts of the sampled executions, rows returned by
+	 * queries are not counted
+	 * @param latency execution times in nanoseconds
+	 */
+	public record QueryStatistics(String shape, long executions, long updatedRows, LatencyHistogram.Snapshot latency){
+	}
+	
+	/**
+	 * An execution that took longer than the threshold
+	 *
+	 * @param sql the executed sql
+	 * @param millis how long it took
+	 * @param parameters summary of the bound parameters, empty if they were not captured
+	 * @param timestamp when it finished in epoch milliseconds
+	 */
+	public record SlowQuery(String sql, long millis, String parameters, long timestamp){
+	}
+}
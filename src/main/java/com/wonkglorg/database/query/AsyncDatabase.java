@@ -0,0 +1,466 @@
+package com.wonkglorg.database.query;
+
+import com.wonkglorg.database.datasources.AccessIntent;
+import com.wonkglorg.database.datasources.TypedDataSource;
+
+import java.lang.reflect.InvocationTargetException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs queries of a data source in the background and returns their results as
+ * {@link CompletableFuture}s. At most {@link TypedDataSource#getMaxConnections()} tasks run at the
+ * same time, and no more than {@link TypedDataSource#getMaxConnections(AccessIntent)} of one
+ * intent, so callers never oversubscribe the connections of the data source.
+ * <p>
+ * Submitted tasks that are not yet running are limited to {@code maxPending}. Once the limit is
+ * reached {@link #submit(AccessIntent, ConnectionTask)} waits up to the submit timeout for a
+ * task to finish and fails the returned future with a {@link RejectedExecutionException} if none
+ * does.
+ * <p>
+ * Tasks wait in one queue per intent and are handed to a thread only once their intent has a free
+ * connection, a burst of writes never takes the threads reads could run on. With virtual threads,
+ * available from java 21, every task gets its own virtual thread. Otherwise a pool of platform
+ * threads as large as the connection limit runs the tasks.
+ * <pre>
+ *     {@code
+ * CompletableFuture<List<String>> names = database.async().query("SELECT name FROM users WHERE age > ?", row -> row.getString(1), 18);
+ * }
+ * </pre>
+ */
+@SuppressWarnings("unused")
+public class AsyncDatabase implements AutoCloseable{
+	private static final Logger log = Logger.getLogger(AsyncDatabase.class.getName());
+	private static final AtomicInteger EXECUTOR_COUNTER = new AtomicInteger();
+	
+	private final TypedDataSource dataSource;
+	private final ExecutorService executor;
+	private final boolean virtualThreads;
+	private final int maxPending;
+	private final Semaphore pending;
+	private final Semaphore running;
+	private final Semaphore readers;
+	private final Semaphore writers;
+	private final Queue<QueuedTask<?>> queuedReads = new ConcurrentLinkedQueue<>();
+	private final Queue<QueuedTask<?>> queuedWrites = new ConcurrentLinkedQueue<>();
+	private final Object idle = new Object();
+	private volatile long submitTimeoutNanos = 0;
+	private volatile QueryCache queryCache = null;
+	private volatile boolean closed = false;
+	
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final LongAdder completed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	
+	/**
+	 * Creates a facade running on platform threads
+	 *
+	 * @param dataSource the data source to borrow connections from
+	 * @param maxPending how many submitted tasks can wait to be run
+	 */
+	public AsyncDatabase(TypedDataSource dataSource, int maxPending) {
+		this(dataSource, maxPending, false);
+	}
+	
+	/**
+	 * @param dataSource the data source to borrow connections from
+	 * @param maxPending how many submitted tasks can wait to be run
+	 * @param virtualThreads true to run every task on its own virtual thread, falls back to
+	 * platform threads if the jvm does not support them
+	 */
+	public AsyncDatabase(TypedDataSource dataSource, int maxPending, boolean virtualThreads) {
+		if(maxPending < 1){
+			throw new IllegalArgumentException("maxPending has to be at least 1");
+		}
+		int maxConnections = Math.max(1, dataSource.getMaxConnections());
+		this.dataSource = dataSource;
+		this.maxPending = maxPending;
+		this.pending = new Semaphore(maxConnections + maxPending);
+		this.running = new Semaphore(maxConnections);
+		this.readers = new Semaphore(Math.max(1, Math.min(maxConnections, dataSource.getMaxConnections(AccessIntent.READ))));
+		this.writers = new Semaphore(Math.max(1, Math.min(maxConnections, dataSource.getMaxConnections(AccessIntent.WRITE))));
+		ExecutorService virtualExecutor = virtualThreads ? newVirtualThreadExecutor() : null;
+		if(virtualThreads && virtualExecutor == null){
+			log.log(Level.INFO, "Virtual threads are not supported by this jvm, using platform threads");
+		}
+		this.virtualThreads = virtualExecutor != null;
+		this.executor = virtualExecutor != null ? virtualExecutor : newPlatformExecutor(maxConnections);
+	}
+	
+	/**
+	 * Work done with a connection
+	 *
+	 * @param <R> the result type
+	 */
+	@FunctionalInterface
+	public interface ConnectionTask<R>{
+		/**
+		 * @param connection the borrowed connection, closed after the task returns
+		 * @return the result the future completes with
+		 */
+		R execute(Connection connection) throws SQLException;
+	}
+	
+	/**
+	 * @return true if the jvm can run tasks on virtual threads
+	 */
+	public static boolean isVirtualThreadSupported() {
+		ExecutorService executor = newVirtualThreadExecutor();
+		if(executor == null){
+			return false;
+		}
+		executor.shutdown();
+		return true;
+	}
+	
+	private static ExecutorService newVirtualThreadExecutor() {
+		try{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch(NoSuchMethodException | IllegalAccessException e){
+			return null;
+		} catch(InvocationTargetException e){
+			//preview feature not enabled
+			log.log(Level.FINE, "Virtual threads are not available", e.getCause());
+			return null;
+		}
+	}
+	
+	private static ExecutorService newPlatformExecutor(int threads) {
+		int id = EXECUTOR_COUNTER.incrementAndGet();
+		AtomicInteger threadCounter = new AtomicInteger();
+		return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+			Thread thread = new Thread(runnable, "async-database-" + id + "-" + threadCounter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	/**
+	 * @param millis how long a submit waits for room when {@code maxPending} tasks are waiting, 0
+	 * to reject right away
+	 */
+	public AsyncDatabase setSubmitTimeout(long millis) {
+		if(millis < 0){
+			throw new IllegalArgumentException("submitTimeout cannot be negative");
+		}
+		this.submitTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+		return this;
+	}
+	
+	public long getSubmitTimeout() {
+		return TimeUnit.NANOSECONDS.toMillis(submitTimeoutNanos);
+	}
+	
+	/**
+	 * Runs the task with a connection for the intent
+	 *
+	 * @param intent what the connection is used for
+	 * @param task the work to do, the connection is closed afterwards
+	 * @return completes with the result of the task, or exceptionally if it failed or was rejected
+	 */
+	public <R> CompletableFuture<R> submit(AccessIntent intent, ConnectionTask<R> task) {
+		return submit(intent, task, null);
+	}
+	
+	/**
+	 * @param sql the statement the task runs if it is a single known one, writes of other tasks
+	 * clear the whole query cache
+	 */
+	private <R> CompletableFuture<R> submit(AccessIntent intent, ConnectionTask<R> task, String sql) {
+		CompletableFuture<R> future = new CompletableFuture<>();
+		if(closed){
+			future.completeExceptionally(new RejectedExecutionException("AsyncDatabase has been closed"));
+			return future;
+		}
+		if(!acquirePending()){
+			rejected.increment();
+			future.completeExceptionally(new RejectedExecutionException("Too many pending tasks, limit is " + maxPending));
+			return future;
+		}
+		inFlight.incrementAndGet();
+		queue(intent).offer(new QueuedTask<>(intent, task, sql, future));
+		dispatch(intent);
+		return future;
+	}
+	
+	/**
+	 * Hands queued tasks of the intent to the executor while the intent has permits left, so no
+	 * thread is taken by a task that would only wait for a connection
+	 */
+	private void dispatch(AccessIntent intent) {
+		Semaphore intentPermits = permits(intent);
+		Queue<QueuedTask<?>> queue = queue(intent);
+		while(!queue.isEmpty() && intentPermits.tryAcquire()){
+			QueuedTask<?> next = queue.poll();
+			if(next == null){
+				//taken by a concurrent dispatch
+				intentPermits.release();
+				continue;
+			}
+			try{
+				executor.execute(() -> run(next));
+			} catch(RejectedExecutionException e){
+				intentPermits.release();
+				rejected.increment();
+				finished();
+				next.future().completeExceptionally(e);
+			}
+		}
+	}
+	
+	private Semaphore permits(AccessIntent intent) {
+		return intent == AccessIntent.WRITE ? writers : readers;
+	}
+	
+	private Queue<QueuedTask<?>> queue(AccessIntent intent) {
+		return intent == AccessIntent.WRITE ? queuedWrites : queuedReads;
+	}
+	
+	private void finished() {
+		pending.release();
+		if(inFlight.decrementAndGet() == 0){
+			synchronized(idle){
+				idle.notifyAll();
+			}
+		}
+	}
+	
+	private boolean acquirePending() {
+		long timeout = submitTimeoutNanos;
+		if(timeout == 0){
+			return pending.tryAcquire();
+		}
+		try{
+			return pending.tryAcquire(timeout, TimeUnit.NANOSECONDS);
+		} catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+	
+	/**
+	 * Runs a dispatched task, the intent permit was taken by {@link #dispatch(AccessIntent)}
+	 */
+	private <R> void run(QueuedTask<R> queued) {
+		AccessIntent intent = queued.intent();
+		CompletableFuture<R> future = queued.future();
+		boolean acquiredRunning = false;
+		try{
+			running.acquire();
+			acquiredRunning = true;
+			R result;
+			try(Connection connection = dataSource.getConnection(intent)){
+				result = queued.task().execute(connection);
+			}
+			if(intent == AccessIntent.WRITE){
+				invalidateCache(queued.sql());
+			}
+			completed.increment();
+			future.complete(result);
+		} catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			failed.increment();
+			future.completeExceptionally(new CompletionException("Interrupted before the task ran", e));
+		} catch(Throwable e){
+			failed.increment();
+			future.completeExceptionally(e);
+		} finally{
+			if(acquiredRunning){
+				running.release();
+			}
+			permits(intent).release();
+			finished();
+			dispatch(intent);
+		}
+	}
+	
+	/**
+	 * Runs a query and maps every row
+	 *
+	 * @param sql the query
+	 * @param mapper maps a row to an element of the list
+	 * @param parameters the values for its placeholders in order
+	 * @return completes with the mapped rows
+	 */
+	public <T> CompletableFuture<List<T>> query(String sql, RowMapper<T> mapper, Object... parameters) {
+		QueryCache cache = queryCache;
+		if(cache != null){
+			List<T> cached = cache.getIfPresent(sql, mapper, parameters);
+			if(cached != null){
+				return CompletableFuture.completedFuture(cached);
+			}
+			return submit(AccessIntent.READ, connection -> cache.load(connection, sql, mapper, parameters));
+		}
+		return submit(AccessIntent.READ, connection -> Queries.list(connection, sql, mapper, parameters));
+	}
+	
+	/**
+	 * Runs an update statement
+	 *
+	 * @param sql the statement
+	 * @param parameters the values for its placeholders in order
+	 * @return completes with the update count
+	 */
+	public CompletableFuture<Integer> update(String sql, Object... parameters) {
+		return submit(AccessIntent.WRITE, connection -> {
+			try(PreparedStatement statement = prepare(connection, sql, parameters)){
+				return statement.executeUpdate();
+			}
+		}, sql);
+	}
+	
+	/**
+	 * Runs the task in a transaction, it is committed if the task returns and rolled back if it
+	 * throws
+	 *
+	 * @param task the work to do in the transaction, it must not commit or close the connection
+	 * @return completes with the result of the task once committed, the query cache is cleared
+	 * afterwards
+	 */
+	public <R> CompletableFuture<R> transaction(ConnectionTask<R> task) {
+		return submit(AccessIntent.WRITE, connection -> {
+			boolean autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+			try{
+				R result = task.execute(connection);
+				connection.commit();
+				return result;
+			} catch(SQLException | RuntimeException e){
+				rollbackQuietly(connection);
+				throw e;
+			} finally{
+				connection.setAutoCommit(autoCommit);
+			}
+		});
+	}
+	
+	private void invalidateCache(String sql) {
+		QueryCache cache = queryCache;
+		if(cache == null){
+			return;
+		}
+		if(sql == null){
+			cache.clear();
+		} else {
+			cache.onWrite(sql);
+		}
+	}
+	
+	/**
+	 * @param queryCache serves {@link #query(String, RowMapper, Object...)} and is invalidated by
+	 * writes, null to not cache. Writes of transactions and submitted tasks clear it completely
+	 */
+	public AsyncDatabase setQueryCache(QueryCache queryCache) {
+		this.queryCache = queryCache;
+		return this;
+	}
+	
+	public QueryCache getQueryCache() {
+		return queryCache;
+	}
+	
+	private static PreparedStatement prepare(Connection connection, String sql, Object... parameters) throws SQLException {
+		PreparedStatement statement = connection.prepareStatement(sql);
+		try{
+			Queries.bind(statement, parameters);
+		} catch(SQLException e){
+			statement.close();
+			throw e;
+		}
+		return statement;
+	}
+	
+	private static void rollbackQuietly(Connection connection) {
+		try{
+			connection.rollback();
+		} catch(SQLException e){
+			log.log(Level.FINE, "Failed to roll back transaction", e);
+		}
+	}
+	
+	/**
+	 * @return true if tasks run on virtual threads
+	 */
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+	
+	public int getMaxPending() {
+		return maxPending;
+	}
+	
+	/**
+	 * @return tasks that were submitted and have not finished yet
+	 */
+	public int getInFlightCount() {
+		return inFlight.get();
+	}
+	
+	public long getCompletedCount() {
+		return completed.sum();
+	}
+	
+	public long getFailedCount() {
+		return failed.sum();
+	}
+	
+	/**
+	 * @return tasks rejected because too many were pending or the facade was closed
+	 */
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+	
+	/**
+	 * Stops accepting tasks and waits for the submitted ones to finish, the data source is not
+	 * closed
+	 */
+	@Override
+	public void close() {
+		if(closed){
+			return;
+		}
+		closed = true;
+		try{
+			//queued tasks still need the executor to be dispatched to
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+			synchronized(idle){
+				long remaining;
+				while(inFlight.get() > 0 && (remaining = deadline - System.nanoTime()) > 0){
+					TimeUnit.NANOSECONDS.timedWait(idle, remaining);
+				}
+			}
+			if(inFlight.get() > 0){
+				log.log(Level.WARNING, "Async tasks did not finish within 30 seconds of closing");
+			}
+			executor.shutdown();
+		} catch(InterruptedException e){
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * A submitted task waiting for a permit of its intent
+	 */
+	private record QueuedTask<R>(AccessIntent intent, ConnectionTask<R> task, String sql, CompletableFuture<R> future){
+	}
+}
@@ -0,0 +1,354 @@
+package com.wonkglorg.database.query;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps rows to records or plain classes without reflection per row. The constructor, setters and
+ * typed result set getters of a class are combined into method handles once, see {@link #of}.
+ * <p>
+ * Columns are matched to record components, or to fields of plain classes, by their label
+ * ignoring case and underscores, {@code first_name} fills {@code firstName}. The column indexes
+ * are kept per set of column labels and resolved once per result set by {@link #bind(ResultSet)},
+ * rows are read by index. Mapping a row without binding looks the indexes up for that row.
+ * <p>
+ * Records need a column for every component. Plain classes need a no argument constructor, fields
+ * are set through their setter if there is one, fields without a column keep their value.
+ * Primitive components read null as 0 or false, their wrappers read null as null.
+ * <pre>
+ *     {@code
+ * record User(long id, String firstName, Integer age){}
+ *
+ * List<User> users = database.query("SELECT id, first_name, age FROM users", User.class);
+ * }
+ * </pre>
+ *
+ * @param <T> the class rows are mapped to
+ */
+public final class ClassRowMapper<T> implements RowMapper<T>{
+	private static final ClassValue<ClassRowMapper<?>> MAPPERS = new ClassValue<>(){
+		@Override
+		protected ClassRowMapper<?> computeValue(Class<?> type) {
+			return new ClassRowMapper<>(type);
+		}
+	};
+	private static final MethodHandle INT_AT = MethodHandles.arrayElementGetter(int[].class);
+	private final Class<T> type;
+	private final String[] names;
+	private final boolean record;
+	/**
+	 * Records: (ResultSet, int[])Object creating the record from the columns
+	 */
+	private final MethodHandle factory;
+	/**
+	 * Plain classes: ()Object creating the instance, and (Object, ResultSet, int)void per field
+	 */
+	private final MethodHandle constructor;
+	private final MethodHandle[] setters;
+	private final Map<String, int[]> shapes = new ConcurrentHashMap<>();
+	
+	private ClassRowMapper(Class<T> type) {
+		this.type = type;
+		this.record = type.isRecord();
+		MethodHandles.Lookup lookup = lookup(type);
+		try{
+			if(record){
+				RecordComponent[] components = type.getRecordComponents();
+				names = new String[components.length];
+				Class<?>[] parameterTypes = new Class<?>[components.length];
+				for(int i = 0; i < components.length; i++){
+					names[i] = components[i].getName();
+					parameterTypes[i] = components[i].getType();
+				}
+				factory = recordFactory(lookup.findConstructor(type, MethodType.methodType(void.class, parameterTypes)), parameterTypes);
+				constructor = null;
+				setters = null;
+			} else {
+				constructor = lookup.findConstructor(type, MethodType.methodType(void.class)).asType(MethodType.methodType(Object.class));
+				Map<String, MethodHandle> properties = properties(type, lookup);
+				names = properties.keySet().toArray(new String[0]);
+				setters = properties.values().toArray(new MethodHandle[0]);
+				factory = null;
+			}
+		} catch(NoSuchMethodException | IllegalAccessException e){
+			throw new IllegalArgumentException(type.getName() + " cannot be mapped, records need an accessible canonical constructor and classes a no argument constructor", e);
+		}
+	}
+	
+	/**
+	 * @param type a record or a class with a no argument constructor
+	 * @return the mapper of the class, created once and shared
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> ClassRowMapper<T> of(Class<T> type) {
+		return (ClassRowMapper<T>) MAPPERS.get(type);
+	}
+	
+	public Class<T> getType() {
+		return type;
+	}
+	
+	@Override
+	public T map(ResultSet resultSet) throws SQLException {
+		return map(resultSet, shape(resultSet));
+	}
+	
+	/**
+	 * @return a mapper reading the columns resolved for this result set
+	 */
+	@Override
+	public RowMapper<T> bind(ResultSet resultSet) throws SQLException {
+		int[] columns = shape(resultSet);
+		return row -> map(row, columns);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private T map(ResultSet resultSet, int[] columns) throws SQLException {
+		try{
+			if(record){
+				return (T) (Object) factory.invokeExact(resultSet, columns);
+			}
+			Object instance = (Object) constructor.invokeExact();
+			for(int i = 0; i < setters.length; i++){
+				if(columns[i] > 0){
+					setters[i].invokeExact(instance, resultSet, columns[i]);
+				}
+			}
+			return (T) instance;
+		} catch(SQLException | RuntimeException | Error e){
+			throw e;
+		} catch(Throwable e){
+			throw new SQLException("Failed to map row to " + type.getName(), e);
+		}
+	}
+	
+	/**
+	 * @return the column index of every component or field, 0 for fields without a column
+	 */
+	private int[] shape(ResultSet resultSet) throws SQLException {
+		ResultSetMetaData metaData = resultSet.getMetaData();
+		String[] labels = new String[metaData.getColumnCount()];
+		for(int i = 0; i < labels.length; i++){
+			labels[i] = metaData.getColumnLabel(i + 1);
+		}
+		return shapes.computeIfAbsent(String.join("\u0000", labels), signature -> resolve(labels));
+	}
+	
+	private int[] resolve(String[] labels) {
+		Map<String, Integer> byName = new LinkedHashMap<>();
+		for(int i = labels.length - 1; i >= 0; i--){
+			//the first column wins if two normalize to the same name
+			byName.put(normalize(labels[i]), i + 1);
+		}
+		int[] columns = new int[names.length];
+		List<String> missing = new ArrayList<>();
+		for(int i = 0; i < names.length; i++){
+			Integer column = byName.get(normalize(names[i]));
+			if(column != null){
+				columns[i] = column;
+			} else if(record){
+				missing.add(names[i]);
+			}
+		}
+		if(!missing.isEmpty()){
+			throw new IllegalArgumentException("Result has no column for " + String.join(", ", missing) + " of " + type.getName());
+		}
+		return columns;
+	}
+	
+	private static String normalize(String name) {
+		return name.replace("_", "").toLowerCase(Locale.ROOT);
+	}
+	
+	private static MethodHandles.Lookup lookup(Class<?> type) {
+		try{
+			return MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+		} catch(IllegalAccessException e){
+			//module does not open the package, only public members can be used
+			return MethodHandles.publicLookup();
+		}
+	}
+	
+	/**
+	 * Combines the canonical constructor with one reader per component into a single handle
+	 * taking the result set and the column indexes
+	 */
+	private static MethodHandle recordFactory(MethodHandle constructor, Class<?>[] parameterTypes) throws NoSuchMethodException, IllegalAccessException {
+		MethodHandle target = constructor;
+		for(int i = parameterTypes.length - 1; i >= 0; i--){
+			//(ResultSet, int[]) -> component, reading the column at index i of the array
+			MethodHandle read = MethodHandles.filterArguments(reader(parameterTypes[i]), 1, MethodHandles.insertArguments(INT_AT, 1, i));
+			target = MethodHandles.collectArguments(target, i, read);
+		}
+		int[] reorder = new int[parameterTypes.length * 2];
+		for(int i = 0; i < parameterTypes.length; i++){
+			reorder[i * 2] = 0;
+			reorder[i * 2 + 1] = 1;
+		}
+		MethodType shape = MethodType.methodType(constructor.type().returnType(), ResultSet.class, int[].class);
+		return MethodHandles.permuteArguments(target, shape, reorder).asType(MethodType.methodType(Object.class, ResultSet.class, int[].class));
+	}
+	
+	/**
+	 * @return a handle (Object, ResultSet, int)void per field by name, through the setter if there
+	 * is one
+	 */
+	private static Map<String, MethodHandle> properties(Class<?> type, MethodHandles.Lookup lookup) throws NoSuchMethodException, IllegalAccessException {
+		Map<String, MethodHandle> properties = new LinkedHashMap<>();
+		for(Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()){
+			for(Field field : current.getDeclaredFields()){
+				int modifiers = field.getModifiers();
+				if(Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic() || properties.containsKey(field.getName())){
+					continue;
+				}
+				MethodHandle setter = setter(current, field, lookup);
+				if(setter == null){
+					continue;
+				}
+				MethodHandle read = MethodHandles.collectArguments(setter, 1, reader(field.getType()));
+				properties.put(field.getName(), read.asType(MethodType.methodType(void.class, Object.class, ResultSet.class, int.class)));
+			}
+		}
+		return properties;
+	}
+	
+	private static MethodHandle setter(Class<?> owner, Field field, MethodHandles.Lookup lookup) throws IllegalAccessException {
+		String name = "set" + Character.toUpperCase(field.getName().charAt(0)) + field.getName().substring(1);
+		try{
+			Method method = owner.getDeclaredMethod(name, field.getType());
+			if(!Modifier.isStatic(method.getModifiers())){
+				return lookup.unreflect(method).asType(MethodType.methodType(void.class, owner, field.getType()));
+			}
+		} catch(NoSuchMethodException | IllegalAccessException e){
+			//no usable setter, fall back to the field
+		}
+		if(Modifier.isFinal(field.getModifiers())){
+			return null;
+		}
+		try{
+			return lookup.unreflectSetter(field);
+		} catch(IllegalAccessException e){
+			return null;
+		}
+	}
+	
+	/**
+	 * @return a handle (ResultSet, int)type reading a column with the getter of the type
+	 */
+	private static MethodHandle reader(Class<?> type) throws NoSuchMethodException, IllegalAccessException {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		if(type.isPrimitive()){
+			String getter = switch(type.getName()){
+				case "int" -> "getInt";
+				case "long" -> "getLong";
+				case "double" -> "getDouble";
+				case "float" -> "getFloat";
+				case "short" -> "getShort";
+				case "byte" -> "getByte";
+				case "boolean" -> "getBoolean";
+				default -> throw new IllegalArgumentException("Cannot read " + type.getName() + " columns");
+			};
+			return lookup.findVirtual(ResultSet.class, getter, MethodType.methodType(type, int.class));
+		}
+		String getter = null;
+		if(type == String.class){
+			getter = "getString";
+		} else if(type == byte[].class){
+			getter = "getBytes";
+		} else if(type == BigDecimal.class){
+			getter = "getBigDecimal";
+		} else if(type == Timestamp.class){
+			getter = "getTimestamp";
+		} else if(type == Date.class){
+			getter = "getDate";
+		} else if(type == Time.class){
+			getter = "getTime";
+		}
+		if(getter != null){
+			return lookup.findVirtual(ResultSet.class, getter, MethodType.methodType(type, int.class));
+		}
+		String wrapper = switch(type.getName()){
+			case "java.lang.Integer" -> "readInteger";
+			case "java.lang.Long" -> "readLong";
+			case "java.lang.Double" -> "readDouble";
+			case "java.lang.Float" -> "readFloat";
+			case "java.lang.Short" -> "readShort";
+			case "java.lang.Byte" -> "readByte";
+			case "java.lang.Boolean" -> "readBoolean";
+			default -> null;
+		};
+		if(wrapper != null){
+			return lookup.findStatic(ClassRowMapper.class, wrapper, MethodType.methodType(type, ResultSet.class, int.class));
+		}
+		if(type == Object.class){
+			return lookup.findVirtual(ResultSet.class, "getObject", MethodType.methodType(Object.class, int.class));
+		}
+		MethodHandle typed;
+		if(type.isEnum()){
+			typed = lookup.findStatic(ClassRowMapper.class, "readEnum", MethodType.methodType(Enum.class, ResultSet.class, int.class, Class.class));
+		} else {
+			//java.time, UUID and other driver supported types
+			typed = lookup.findVirtual(ResultSet.class, "getObject", MethodType.methodType(Object.class, int.class, Class.class));
+		}
+		return MethodHandles.insertArguments(typed, 2, type).asType(MethodType.methodType(type, ResultSet.class, int.class));
+	}
+	
+	private static Integer readInteger(ResultSet resultSet, int column) throws SQLException {
+		int value = resultSet.getInt(column);
+		return resultSet.wasNull() ? null : value;
+	}
+	
+	private static Long readLong(ResultSet resultSet, int column) throws SQLException {
+		long value = resultSet.getLong(column);
+		return resultSet.wasNull() ? null : value;
+	}
+	
+	private static Double readDouble(ResultSet resultSet, int column) throws SQLException {
+		double value = resultSet.getDouble(column);
+		return resultSet.wasNull() ? null : value;
+	}
+	
+	private static Float readFloat(ResultSet resultSet, int column) throws SQLException {
+		float value = resultSet.getFloat(column);
+		return resultSet.wasNull() ? null : value;
+	}
+	
+	private static Short readShort(ResultSet resultSet, int column) throws SQLException {
+		short value = resultSet.getShort(column);
+		return resultSet.wasNull() ? null : value;
+	}
+	
+	private static Byte readByte(ResultSet resultSet, int column) throws SQLException {
+		byte value = resultSet.getByte(column);
+		return resultSet.wasNull() ? null : value;
+	}
+	
+	private static Boolean readBoolean(ResultSet resultSet, int column) throws SQLException {
+		boolean value = resultSet.getBoolean(column);
+		return resultSet.wasNull() ? null : value;
+	}
+	
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static Enum<?> readEnum(ResultSet resultSet, int column, Class type) throws SQLException {
+		String value = resultSet.getString(column);
+		return value == null ? null : Enum.valueOf(type, value);
+	}
+}
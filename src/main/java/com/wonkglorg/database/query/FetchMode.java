@@ -0,0 +1,72 @@
+package com.wonkglorg.database.query;
+
+import com.wonkglorg.database.DatabaseType;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * How a driver has to be configured to hand out rows while they are read instead of loading the
+ * whole result first
+ */
+public enum FetchMode{
+	/**
+	 * MySQL Connector/J only streams with a fetch size of {@link Integer#MIN_VALUE} on a forward
+	 * only, read only statement. No other statement can run on the connection until the result is
+	 * closed
+	 */
+	ROW_STREAMING,
+	/**
+	 * Postgres only uses a cursor if auto commit is off, rows are fetched in batches of the fetch
+	 * size. Auto commit is turned off for the stream and restored when it is closed
+	 */
+	CURSOR,
+	/**
+	 * The driver reads rows in batches of the fetch size on its own, used for MariaDB and SQL
+	 * Server. Sqlite steps through the result row by row regardless of the fetch size
+	 */
+	FETCH_SIZE;
+	
+	/**
+	 * @return the mode the driver of the type needs, decided by its jdbc url prefix
+	 */
+	public static FetchMode of(DatabaseType type) {
+		String driver = type.driver();
+		if(driver.startsWith("jdbc:mysql:")){
+			return ROW_STREAMING;
+		}
+		if(driver.startsWith("jdbc:postgresql:")){
+			return CURSOR;
+		}
+		return FETCH_SIZE;
+	}
+	
+	/**
+	 * @return true if the stream changes the session of its connection or blocks it for other
+	 * statements, so it needs a connection no one else uses meanwhile
+	 */
+	public boolean needsExclusiveConnection() {
+		return this != FETCH_SIZE;
+	}
+	
+	/**
+	 * Prepares the connection before the statement is created
+	 *
+	 * @return true if auto commit was turned off and has to be restored
+	 */
+	public boolean prepareConnection(Connection connection) throws SQLException {
+		if(this == CURSOR && connection.getAutoCommit()){
+			connection.setAutoCommit(false);
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * @param fetchSize the rows fetched per round trip, ignored by {@link #ROW_STREAMING}
+	 */
+	public void configure(Statement statement, int fetchSize) throws SQLException {
+		statement.setFetchSize(this == ROW_STREAMING ? Integer.MIN_VALUE : fetchSize);
+	}
+}
@@ -0,0 +1,142 @@
+package com.wonkglorg.database.query;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Typed parameter values bound with the matching setter of the statement. Primitives are kept
+ * unboxed and set with {@code setInt}, {@code setLong} and so on instead of {@code setObject}.
+ * A list can be cleared and reused, binding it does not change it.
+ * <pre>
+ *     {@code
+ * List<User> users = database.query("SELECT id, name FROM users WHERE age > ? AND active = ?", User.class, new Parameters().add(18).add(true));
+ * }
+ * </pre>
+ */
+@SuppressWarnings("unused")
+public final class Parameters implements StatementBinder{
+	private static final byte NULL = 0;
+	private static final byte INT = 1;
+	private static final byte LONG = 2;
+	private static final byte DOUBLE = 3;
+	private static final byte FLOAT = 4;
+	private static final byte BOOLEAN = 5;
+	private static final byte STRING = 6;
+	private static final byte BYTES = 7;
+	private static final byte OBJECT = 8;
+	private byte[] kinds;
+	private long[] primitives;
+	private Object[] objects;
+	private int size = 0;
+	
+	public Parameters() {
+		this(8);
+	}
+	
+	/**
+	 * @param capacity how many values fit before the list grows
+	 */
+	public Parameters(int capacity) {
+		if(capacity < 1){
+			throw new IllegalArgumentException("capacity has to be at least 1");
+		}
+		kinds = new byte[capacity];
+		primitives = new long[capacity];
+		objects = new Object[capacity];
+	}
+	
+	public Parameters add(int value) {
+		primitives[next(INT)] = value;
+		return this;
+	}
+	
+	public Parameters add(long value) {
+		primitives[next(LONG)] = value;
+		return this;
+	}
+	
+	public Parameters add(double value) {
+		primitives[next(DOUBLE)] = Double.doubleToRawLongBits(value);
+		return this;
+	}
+	
+	public Parameters add(float value) {
+		primitives[next(FLOAT)] = Float.floatToRawIntBits(value);
+		return this;
+	}
+	
+	public Parameters add(boolean value) {
+		primitives[next(BOOLEAN)] = value ? 1 : 0;
+		return this;
+	}
+	
+	public Parameters add(String value) {
+		objects[next(value == null ? NULL : STRING)] = value;
+		return this;
+	}
+	
+	public Parameters add(byte[] value) {
+		objects[next(value == null ? NULL : BYTES)] = value;
+		return this;
+	}
+	
+	/**
+	 * @param value bound with {@code setObject}, null with {@code setNull}
+	 */
+	public Parameters add(Object value) {
+		objects[next(value == null ? NULL : OBJECT)] = value;
+		return this;
+	}
+	
+	/**
+	 * @param sqlType the {@link java.sql.Types} of the column
+	 */
+	public Parameters addNull(int sqlType) {
+		primitives[next(NULL)] = sqlType;
+		return this;
+	}
+	
+	/**
+	 * Removes all values to reuse the list
+	 */
+	public Parameters clear() {
+		Arrays.fill(objects, 0, size, null);
+		size = 0;
+		return this;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	private int next(byte kind) {
+		if(size == kinds.length){
+			int capacity = kinds.length * 2;
+			kinds = Arrays.copyOf(kinds, capacity);
+			primitives = Arrays.copyOf(primitives, capacity);
+			objects = Arrays.copyOf(objects, capacity);
+		}
+		kinds[size] = kind;
+		primitives[size] = 0;
+		return size++;
+	}
+	
+	@Override
+	public void bind(PreparedStatement statement) throws SQLException {
+		for(int i = 0; i < size; i++){
+			int index = i + 1;
+			switch(kinds[i]){
+				case INT -> statement.setInt(index, (int) primitives[i]);
+				case LONG -> statement.setLong(index, primitives[i]);
+				case DOUBLE -> statement.setDouble(index, Double.longBitsToDouble(primitives[i]));
+				case FLOAT -> statement.setFloat(index, Float.intBitsToFloat((int) primitives[i]));
+				case BOOLEAN -> statement.setBoolean(index, primitives[i] != 0);
+				case STRING -> statement.setString(index, (String) objects[i]);
+				case BYTES -> statement.setBytes(index, (byte[]) objects[i]);
+				case OBJECT -> statement.setObject(index, objects[i]);
+				default -> statement.setNull(index, (int) primitives[i]);
+			}
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package com.wonkglorg.database.query;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs queries on a borrowed connection and collects the mapped rows into a list. The mapper is
+ * {@link RowMapper#bind(ResultSet) bound} to the result set once before the first row.
+ */
+public final class Queries{
+	private Queries() {
+	}
+	
+	/**
+	 * @param connection the connection to query, not closed
+	 * @param sql the query
+	 * @param mapper maps a row to an element of the list
+	 * @param parameters the values for its placeholders in order
+	 * @return the mapped rows
+	 */
+	public static <T> List<T> list(Connection connection, String sql, RowMapper<T> mapper, Object... parameters) throws SQLException {
+		return list(connection, sql, mapper, statement -> bind(statement, parameters));
+	}
+	
+	/**
+	 * @param connection the connection to query, not closed
+	 * @param sql the query
+	 * @param mapper maps a row to an element of the list
+	 * @param binder sets the placeholders
+	 * @return the mapped rows
+	 */
+	public static <T> List<T> list(Connection connection, String sql, RowMapper<T> mapper, StatementBinder binder) throws SQLException {
+		try(PreparedStatement statement = connection.prepareStatement(sql)){
+			binder.bind(statement);
+			try(ResultSet resultSet = statement.executeQuery()){
+				return list(resultSet, mapper);
+			}
+		}
+	}
+	
+	/**
+	 * @param resultSet the rows to map, read to the end but not closed
+	 * @param mapper maps a row to an element of the list
+	 * @return the mapped rows
+	 */
+	public static <T> List<T> list(ResultSet resultSet, RowMapper<T> mapper) throws SQLException {
+		RowMapper<T> bound = mapper.bind(resultSet);
+		List<T> rows = new ArrayList<>();
+		while(resultSet.next()){
+			rows.add(bound.map(resultSet));
+		}
+		return rows;
+	}
+	
+	/**
+	 * Sets the placeholders of the statement with {@code setObject}
+	 *
+	 * @param statement the statement to bind
+	 * @param parameters the values for its placeholders in order
+	 */
+	public static void bind(PreparedStatement statement, Object... parameters) throws SQLException {
+		for(int i = 0; i < parameters.length; i++){
+			statement.setObject(i + 1, parameters[i]);
+		}
+	}
+}
@@ -0,0 +1,530 @@
+package com.wonkglorg.database.query;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Caches the mapped rows of queries, keyed by the sql, its parameters and the row mapper. Mappers
+ * are matched by {@code equals}, {@link ClassRowMapper}s by the class they create and mappers
+ * wrapped with {@link #named(String, RowMapper)} by their name. Lambdas capturing variables are a
+ * new instance on every call and are not cached unless they are named. The cached list is shared
+ * by all callers and cannot be modified, the rows in it should be immutable.
+ * <p>
+ * The cache holds at most {@link #setMaxEntries(int)} results and about
+ * {@link #setMaxBytes(long)} bytes, estimated from the column values of the first rows. The
+ * least recently used results are evicted first, results older than {@link #setTtl(long)} are
+ * dropped when they are read.
+ * <p>
+ * Writes reported with {@link #onWrite(String)} drop the results of all queries reading the
+ * written table. A write whose table cannot be determined drops every result. A query that
+ * loads while one of its tables is written is not cached.
+ * <pre>
+ *     {@code
+ * database.setQueryCache(new QueryCache().setMaxEntries(5000).setTtl(TimeUnit.MINUTES.toMillis(10)));
+ * List<Country> countries = database.query("SELECT code, name FROM countries WHERE region = ?", Country::fromRow, region);
+ * }
+ * </pre>
+ */
+@SuppressWarnings("unused")
+public class QueryCache{
+	private static final int SAMPLED_ROWS = 16;
+	private static final long ENTRY_OVERHEAD = 128;
+	private static final long ROW_OVERHEAD = 24;
+	/**
+	 * Stands for the tables of queries whose tables could not be determined, dropped by every
+	 * write
+	 */
+	private static final String UNKNOWN_TABLES = "";
+	/**
+	 * Whether instances of a mapper class hold captured state, making every instance a new key
+	 */
+	private static final ClassValue<Boolean> CAPTURING = new ClassValue<>(){
+		@Override
+		protected Boolean computeValue(Class<?> type) {
+			if(!type.isSynthetic() && !type.isHidden() && !type.isAnonymousClass() && !type.isLocalClass()){
+				return false;
+			}
+			for(Field field : type.getDeclaredFields()){
+				if(!Modifier.isStatic(field.getModifiers())){
+					return true;
+				}
+			}
+			return false;
+		}
+	};
+	
+	private final ReentrantLock lock = new ReentrantLock();
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+	private final Map<String, Set<Key>> tableIndex = new HashMap<>();
+	private long bytes = 0;
+	
+	private final AtomicLong writeEpoch = new AtomicLong();
+	private final Map<String, Long> tableEpochs = new ConcurrentHashMap<>();
+	private volatile long clearEpoch = 0;
+	
+	private volatile int maxEntries = 10_000;
+	private volatile long maxBytes = 64L * 1024 * 1024;
+	private volatile long ttlNanos = TimeUnit.MINUTES.toNanos(5);
+	
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+	
+	/**
+	 * @param maxEntries how many query results are cached at most
+	 */
+	public QueryCache setMaxEntries(int maxEntries) {
+		if(maxEntries < 1){
+			throw new IllegalArgumentException("maxEntries has to be at least 1");
+		}
+		this.maxEntries = maxEntries;
+		return this;
+	}
+	
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+	
+	/**
+	 * @param maxBytes the estimated size of all cached results, results larger than this are not
+	 * cached
+	 */
+	public QueryCache setMaxBytes(long maxBytes) {
+		if(maxBytes < 1){
+			throw new IllegalArgumentException("maxBytes has to be at least 1");
+		}
+		this.maxBytes = maxBytes;
+		return this;
+	}
+	
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+	
+	/**
+	 * @param millis how long a result is served from the cache, 0 to keep it until it is evicted
+	 * or invalidated
+	 */
+	public QueryCache setTtl(long millis) {
+		if(millis < 0){
+			throw new IllegalArgumentException("ttl cannot be negative");
+		}
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+		return this;
+	}
+	
+	public long getTtl() {
+		return TimeUnit.NANOSECONDS.toMillis(ttlNanos);
+	}
+	
+	/**
+	 * Names a mapper for the cache, results are shared by all mappers of the same name. Lets
+	 * lambdas capturing variables be cached, the name has to cover the captured values that
+	 * change the mapped rows.
+	 *
+	 * @param name identifies how the mapper maps rows
+	 * @param mapper the mapper to use
+	 * @return a mapper delegating to the given one
+	 */
+	public static <T> RowMapper<T> named(String name, RowMapper<T> mapper) {
+		if(name == null || mapper == null){
+			throw new IllegalArgumentException("name and mapper cannot be null");
+		}
+		return new NamedMapper<>(name, mapper);
+	}
+	
+	/**
+	 * Returns the cached result of the query
+	 *
+	 * @return the cached rows or null if the query is not cached or its mapper cannot be cached
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> List<T> getIfPresent(String sql, RowMapper<T> mapper, Object... parameters) {
+		Object mapperKey = mapperKey(mapper);
+		if(mapperKey == null){
+			return null;
+		}
+		Key key = new Key(sql, parameters, mapperKey);
+		lock.lock();
+		try{
+			Entry entry = entries.get(key);
+			if(entry == null){
+				return null;
+			}
+			if(entry.expiresAt != 0 && System.nanoTime() - entry.expiresAt > 0){
+				remove(key, entry);
+				evictions.increment();
+				return null;
+			}
+			hits.increment();
+			return (List<T>) entry.rows;
+		} finally{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Runs the query and caches its result, the result of a mapper that cannot be cached is only
+	 * returned
+	 *
+	 * @param connection the connection to query, not closed
+	 * @param sql the query
+	 * @param mapper maps a row to an element of the list
+	 * @param parameters the values for its placeholders in order
+	 * @return the mapped rows, the list cannot be modified
+	 */
+	public <T> List<T> load(Connection connection, String sql, RowMapper<T> mapper, Object... parameters) throws SQLException {
+		Object mapperKey = mapperKey(mapper);
+		if(mapperKey != null){
+			misses.increment();
+		}
+		long epoch = writeEpoch.get();
+		SizeSampler<T> sampler = new SizeSampler<>(mapper);
+		List<T> rows = Queries.list(connection, sql, sampler, parameters);
+		int sampled = Math.min(rows.size(), SAMPLED_ROWS);
+		long estimate = ENTRY_OVERHEAD + 2L * sql.length() + (sampled == 0 ? 0 : sampler.bytes * rows.size() / sampled);
+		List<T> result = Collections.unmodifiableList(rows);
+		if(mapperKey != null){
+			put(new Key(sql, parameters, mapperKey), new Entry(result, estimate, SqlTables.read(sql)), epoch);
+		}
+		return result;
+	}
+	
+	private void put(Key key, Entry entry, long loadEpoch) {
+		if(entry.bytes > maxBytes){
+			return;
+		}
+		long ttl = ttlNanos;
+		entry.expiresAt = ttl == 0 ? 0 : (System.nanoTime() + ttl) | 1;
+		lock.lock();
+		try{
+			if(isStale(entry.tables, loadEpoch)){
+				return;
+			}
+			Entry previous = entries.get(key);
+			if(previous != null){
+				remove(key, previous);
+			}
+			entries.put(key, entry);
+			bytes += entry.bytes;
+			for(String table : tablesOf(entry)){
+				tableIndex.computeIfAbsent(table, name -> new HashSet<>()).add(key);
+			}
+			evictOverflow();
+		} finally{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return true if a table the query read was written after the load started
+	 */
+	private boolean isStale(Set<String> tables, long loadEpoch) {
+		if(clearEpoch > loadEpoch){
+			return true;
+		}
+		if(tables == null){
+			//depends on every table, any write makes it stale
+			return writeEpoch.get() > loadEpoch;
+		}
+		for(String table : tables){
+			Long written = tableEpochs.get(table);
+			if(written != null && written > loadEpoch){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private void evictOverflow() {
+		int limit = maxEntries;
+		long byteLimit = maxBytes;
+		Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+		while((entries.size() > limit || bytes > byteLimit) && iterator.hasNext()){
+			Map.Entry<Key, Entry> eldest = iterator.next();
+			iterator.remove();
+			unindex(eldest.getKey(), eldest.getValue());
+			evictions.increment();
+		}
+	}
+	
+	private void remove(Key key, Entry entry) {
+		entries.remove(key);
+		unindex(key, entry);
+	}
+	
+	private void unindex(Key key, Entry entry) {
+		bytes -= entry.bytes;
+		for(String table : tablesOf(entry)){
+			Set<Key> keys = tableIndex.get(table);
+			if(keys != null){
+				keys.remove(key);
+				if(keys.isEmpty()){
+					tableIndex.remove(table);
+				}
+			}
+		}
+	}
+	
+	private static Collection<String> tablesOf(Entry entry) {
+		return entry.tables == null ? List.of(UNKNOWN_TABLES) : entry.tables;
+	}
+	
+	/**
+	 * Drops the results depending on the tables the statement writes
+	 *
+	 * @param sql a statement that was executed
+	 */
+	public void onWrite(String sql) {
+		Set<String> tables = SqlTables.written(sql);
+		if(tables == null){
+			clear();
+		} else {
+			invalidate(tables.toArray(new String[0]));
+		}
+	}
+	
+	/**
+	 * Drops the results of all queries reading one of the tables
+	 *
+	 * @param tables the written tables
+	 */
+	public void invalidate(String... tables) {
+		long epoch = writeEpoch.incrementAndGet();
+		List<String> names = new ArrayList<>(tables.length + 1);
+		for(String table : tables){
+			String name = SqlTables.normalize(table);
+			tableEpochs.put(name, epoch);
+			names.add(name);
+		}
+		names.add(UNKNOWN_TABLES);
+		lock.lock();
+		try{
+			for(String name : names){
+				Set<Key> keys = tableIndex.get(name);
+				if(keys == null){
+					continue;
+				}
+				for(Key key : new ArrayList<>(keys)){
+					Entry entry = entries.get(key);
+					if(entry != null){
+						remove(key, entry);
+						invalidations.increment();
+					}
+				}
+			}
+		} finally{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Drops every cached result
+	 */
+	public void clear() {
+		clearEpoch = writeEpoch.incrementAndGet();
+		lock.lock();
+		try{
+			invalidations.add(entries.size());
+			entries.clear();
+			tableIndex.clear();
+			bytes = 0;
+		} finally{
+			lock.unlock();
+		}
+	}
+	
+	public long getHitCount() {
+		return hits.sum();
+	}
+	
+	public long getMissCount() {
+		return misses.sum();
+	}
+	
+	/**
+	 * @return results dropped because the cache was full or they expired
+	 */
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+	
+	/**
+	 * @return results dropped because a table they read was written
+	 */
+	public long getInvalidationCount() {
+		return invalidations.sum();
+	}
+	
+	/**
+	 * @return the share of lookups served from the cache
+	 */
+	public double getHitRate() {
+		long hit = hits.sum();
+		long total = hit + misses.sum();
+		return total == 0 ? 0 : (double) hit / total;
+	}
+	
+	public int size() {
+		lock.lock();
+		try{
+			return entries.size();
+		} finally{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return the estimated size of all cached results in bytes
+	 */
+	public long getEstimatedBytes() {
+		lock.lock();
+		try{
+			return bytes;
+		} finally{
+			lock.unlock();
+		}
+	}
+	
+	private static long estimateRow(ResultSet resultSet, int columns) throws SQLException {
+		long size = ROW_OVERHEAD;
+		for(int i = 1; i <= columns; i++){
+			Object value = resultSet.getObject(i);
+			if(value == null){
+				size += 8;
+			} else if(value instanceof String string){
+				size += 40 + 2L * string.length();
+			} else if(value instanceof byte[] array){
+				size += 16 + array.length;
+			} else {
+				size += 24;
+			}
+		}
+		return size;
+	}
+	
+	/**
+	 * @return the key of the mapper, null if it captures state and every call brings a new one
+	 */
+	private static Object mapperKey(RowMapper<?> mapper) {
+		if(mapper instanceof NamedMapper<?> named){
+			return named.name();
+		}
+		if(mapper instanceof ClassRowMapper<?> classMapper){
+			return classMapper.getType();
+		}
+		return CAPTURING.get(mapper.getClass()) ? null : mapper;
+	}
+	
+	private record NamedMapper<T>(String name, RowMapper<T> mapper) implements RowMapper<T>{
+		@Override
+		public T map(ResultSet resultSet) throws SQLException {
+			return mapper.map(resultSet);
+		}
+		
+		@Override
+		public RowMapper<T> bind(ResultSet resultSet) throws SQLException {
+			return mapper.bind(resultSet);
+		}
+	}
+	
+	/**
+	 * Maps rows with the bound mapper and estimates the size of the first ones
+	 */
+	private static final class SizeSampler<T> implements RowMapper<T>{
+		private final RowMapper<T> mapper;
+		private RowMapper<T> bound;
+		private int columns;
+		private int rows = 0;
+		private long bytes = 0;
+		
+		private SizeSampler(RowMapper<T> mapper) {
+			this.mapper = mapper;
+		}
+		
+		@Override
+		public RowMapper<T> bind(ResultSet resultSet) throws SQLException {
+			bound = mapper.bind(resultSet);
+			columns = resultSet.getMetaData().getColumnCount();
+			return this;
+		}
+		
+		@Override
+		public T map(ResultSet resultSet) throws SQLException {
+			if(bound == null){
+				bind(resultSet);
+			}
+			T row = bound.map(resultSet);
+			if(++rows <= SAMPLED_ROWS){
+				bytes += estimateRow(resultSet, columns);
+			}
+			return row;
+		}
+	}
+	
+	private static final class Key{
+		private final String sql;
+		private final Object[] parameters;
+		private final Object mapper;
+		private final int hash;
+		
+		private Key(String sql, Object[] parameters, Object mapper) {
+			this.sql = sql;
+			this.parameters = parameters.clone();
+			this.mapper = mapper;
+			this.hash = 31 * (31 * sql.hashCode() + Arrays.deepHashCode(this.parameters)) + mapper.hashCode();
+		}
+		
+		@Override
+		public boolean equals(Object other) {
+			if(this == other){
+				return true;
+			}
+			if(!(other instanceof Key key)){
+				return false;
+			}
+			return hash == key.hash && sql.equals(key.sql) && Arrays.deepEquals(parameters, key.parameters) && mapper.equals(key.mapper);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+	
+	private static final class Entry{
+		private final List<?> rows;
+		private final long bytes;
+		/**
+		 * The tables the query reads, null if unknown
+		 */
+		private final Set<String> tables;
+		private long expiresAt;
+		
+		private Entry(List<?> rows, long bytes, Set<String> tables) {
+			this.rows = rows;
+			this.bytes = bytes;
+			this.tables = tables;
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package com.wonkglorg.database.query;
+
+import com.wonkglorg.database.DatabaseType;
+import com.wonkglorg.database.datasources.AccessIntent;
+import com.wonkglorg.database.datasources.TypedDataSource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Runs queries whose rows are mapped while the stream is consumed, only the rows the driver
+ * fetched in its current batch are held in memory.
+ * <p>
+ * The stream owns the connection, statement and result set and closes them when it is closed,
+ * once the last row was read or when reading a row failed. Streams that are not read to the end
+ * have to be closed, use try-with-resources.
+ * <pre>
+ *     {@code
+ * try(Stream<User> users = database.stream("SELECT id, name FROM users", row -> new User(row.getLong(1), row.getString(2)))){
+ *     users.forEach(exporter::write);
+ * }
+ * }
+ * </pre>
+ */
+public final class QueryStreams{
+	private static final Logger log = Logger.getLogger(QueryStreams.class.getName());
+	
+	private QueryStreams() {
+	}
+	
+	/**
+	 * Takes a read connection from the data source, an exclusive one if the {@link FetchMode}
+	 * needs it
+	 *
+	 * @param dataSource the data source to query
+	 * @param sql the query
+	 * @param fetchSize how many rows the driver fetches per round trip
+	 * @param mapper maps a row to an element of the stream
+	 * @param parameters the values for its placeholders in order
+	 * @return a sequential stream of the mapped rows
+	 */
+	public static <T> Stream<T> stream(TypedDataSource dataSource, String sql, int fetchSize, RowMapper<T> mapper, Object... parameters) {
+		Connection connection;
+		try{
+			if(FetchMode.of(dataSource.getType()).needsExclusiveConnection()){
+				connection = dataSource.getExclusiveConnection(AccessIntent.READ);
+			} else {
+				connection = dataSource.getConnection(AccessIntent.READ);
+			}
+		} catch(SQLException e){
+			throw new RuntimeException(e);
+		}
+		return stream(connection, dataSource.getType(), sql, fetchSize, mapper, parameters);
+	}
+	
+	/**
+	 * The statement is marked not poolable so a statement cache closes it instead of reusing it
+	 * with the streaming settings
+	 *
+	 * @param connection the connection to query, closed together with the stream
+	 * @param type the type of the database, decides the {@link FetchMode}
+	 * @param sql the query
+	 * @param fetchSize how many rows the driver fetches per round trip
+	 * @param mapper maps a row to an element of the stream
+	 * @param parameters the values for its placeholders in order
+	 * @return a sequential stream of the mapped rows
+	 */
+	public static <T> Stream<T> stream(Connection connection, DatabaseType type, String sql, int fetchSize, RowMapper<T> mapper, Object... parameters) {
+		if(fetchSize < 1){
+			closeQuietly(connection);
+			throw new IllegalArgumentException("fetchSize has to be at least 1");
+		}
+		FetchMode mode = FetchMode.of(type);
+		RowCursor<T> cursor = new RowCursor<>(connection, mapper);
+		try{
+			cursor.restoreAutoCommit = mode.prepareConnection(connection);
+			cursor.statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			cursor.statement.setPoolable(false);
+			mode.configure(cursor.statement, fetchSize);
+			Queries.bind(cursor.statement, parameters);
+			cursor.resultSet = cursor.statement.executeQuery();
+			cursor.mapper = mapper.bind(cursor.resultSet);
+		} catch(SQLException | RuntimeException e){
+			cursor.close();
+			throw new RuntimeException("Failed to run streaming query " + sql, e);
+		}
+		return StreamSupport.stream(cursor, false).onClose(cursor::close);
+	}
+	
+	private static void closeQuietly(AutoCloseable closeable) {
+		if(closeable == null){
+			return;
+		}
+		try{
+			closeable.close();
+		} catch(Exception e){
+			log.log(Level.FINE, "Failed to close query resource", e);
+		}
+	}
+	
+	/**
+	 * Reads one row per advance and closes everything once the result is exhausted
+	 */
+	private static final class RowCursor<T> extends Spliterators.AbstractSpliterator<T>{
+		private final Connection connection;
+		private RowMapper<T> mapper;
+		private PreparedStatement statement;
+		private ResultSet resultSet;
+		private boolean restoreAutoCommit;
+		private boolean closed = false;
+		
+		private RowCursor(Connection connection, RowMapper<T> mapper) {
+			super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+			this.connection = connection;
+			this.mapper = mapper;
+		}
+		
+		@Override
+		public boolean tryAdvance(Consumer<? super T> action) {
+			if(closed){
+				return false;
+			}
+			T row;
+			try{
+				if(!resultSet.next()){
+					close();
+					return false;
+				}
+				row = mapper.map(resultSet);
+			} catch(SQLException | RuntimeException e){
+				close();
+				throw new RuntimeException("Failed to read streamed row", e);
+			}
+			action.accept(row);
+			return true;
+		}
+		
+		private void close() {
+			if(closed){
+				return;
+			}
+			closed = true;
+			closeQuietly(resultSet);
+			closeQuietly(statement);
+			if(restoreAutoCommit){
+				try{
+					//the cursor only read, nothing to commit
+					connection.rollback();
+					connection.setAutoCommit(true);
+				} catch(SQLException e){
+					log.log(Level.FINE, "Failed to restore auto commit after streaming query", e);
+				}
+			}
+			closeQuietly(connection);
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package com.wonkglorg.database.query;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a result set to an object
+ *
+ * @param <T> the type a row is mapped to
+ */
+@FunctionalInterface
+public interface RowMapper<T>{
+	/**
+	 * @param resultSet positioned on the row to map, the mapper must not move it
+	 * @return the mapped row
+	 */
+	T map(ResultSet resultSet) throws SQLException;
+	
+	/**
+	 * Called once per result set before its first row, mappers can resolve column indexes here
+	 * instead of on every row
+	 *
+	 * @param resultSet the result set whose rows will be mapped
+	 * @return the mapper to map its rows with, this mapper by default
+	 */
+	default RowMapper<T> bind(ResultSet resultSet) throws SQLException {
+		return this;
+	}
+}
@@ -0,0 +1,105 @@
+package com.wonkglorg.database.query;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the tables a statement reads or writes with a lenient scan of its text. Good enough to
+ * invalidate cached results, it errs on the side of reporting too many tables or none.
+ * Identifiers are lower cased without quotes and schema.
+ */
+final class SqlTables{
+	private static final Pattern FROM_OR_JOIN = Pattern.compile("(?i)\\b(from|join)\\s+");
+	private static final Pattern WRITE = Pattern.compile("(?i)^\\s*(?:insert\\s+(?:or\\s+\\w+\\s+)?into|replace\\s+into|update(?:\\s+or\\s+\\w+)?|delete\\s+from|merge\\s+into|truncate(?:\\s+table)?|(?:create|drop|alter)\\s+table(?:\\s+if\\s+(?:not\\s+)?exists)?)\\s+([\\w.`\"\\[\\]]+)");
+	private static final Set<String> KEYWORDS = Set.of("where", "join", "inner", "left", "right", "full", "cross", "outer", "on", "using", "group", "order", "having", "limit", "offset", "union", "except", "intersect", "natural", "window", "for", "fetch", "lateral");
+	
+	private SqlTables() {
+	}
+	
+	/**
+	 * @return the tables the query reads, null if none could be found
+	 */
+	static Set<String> read(String sql) {
+		Set<String> tables = new HashSet<>();
+		Matcher matcher = FROM_OR_JOIN.matcher(sql);
+		while(matcher.find()){
+			boolean from = matcher.group(1).equalsIgnoreCase("from");
+			int position = matcher.end();
+			while(true){
+				int end = identifierEnd(sql, position);
+				if(end == position){
+					//subquery or function, its own from is matched separately
+					break;
+				}
+				tables.add(normalize(sql.substring(position, end)));
+				if(!from){
+					break;
+				}
+				position = skipAlias(sql, skipWhitespace(sql, end));
+				if(position >= sql.length() || sql.charAt(position) != ','){
+					break;
+				}
+				position = skipWhitespace(sql, position + 1);
+			}
+		}
+		return tables.isEmpty() ? null : tables;
+	}
+	
+	/**
+	 * @return the table the statement writes, null if it could not be determined
+	 */
+	static Set<String> written(String sql) {
+		Matcher matcher = WRITE.matcher(sql);
+		if(!matcher.find()){
+			return null;
+		}
+		return Set.of(normalize(matcher.group(1)));
+	}
+	
+	private static int skipAlias(String sql, int position) {
+		int end = identifierEnd(sql, position);
+		if(end == position){
+			return position;
+		}
+		String word = sql.substring(position, end).toLowerCase(Locale.ROOT);
+		if(KEYWORDS.contains(word)){
+			return position;
+		}
+		if(word.equals("as")){
+			return skipAlias(sql, skipWhitespace(sql, end));
+		}
+		return skipWhitespace(sql, end);
+	}
+	
+	private static int identifierEnd(String sql, int position) {
+		int end = position;
+		while(end < sql.length()){
+			char c = sql.charAt(end);
+			if(Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '`' || c == '"' || c == '[' || c == ']'){
+				end++;
+			} else {
+				break;
+			}
+		}
+		return end;
+	}
+	
+	private static int skipWhitespace(String sql, int position) {
+		while(position < sql.length() && Character.isWhitespace(sql.charAt(position))){
+			position++;
+		}
+		return position;
+	}
+	
+	/**
+	 * @return the table name without quotes and schema in lower case
+	 */
+	static String normalize(String identifier) {
+		String name = identifier.replaceAll("[`\"\\[\\]]", "");
+		int dot = name.lastIndexOf('.');
+		return (dot >= 0 ? name.substring(dot + 1) : name).toLowerCase(Locale.ROOT);
+	}
+}
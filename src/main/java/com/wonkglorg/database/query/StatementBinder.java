@@ -0,0 +1,15 @@
+package com.wonkglorg.database.query;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Binds the parameters of a prepared statement, see {@link Parameters} for a typed list
+ */
+@FunctionalInterface
+public interface StatementBinder{
+	/**
+	 * @param statement the statement whose placeholders have to be set
+	 */
+	void bind(PreparedStatement statement) throws SQLException;
+}
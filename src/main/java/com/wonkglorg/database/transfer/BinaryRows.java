@@ -0,0 +1,203 @@
+package com.wonkglorg.database.transfer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+/**
+ * Reads and writes {@link TransferFormat#BINARY}. The stream starts with a magic, a version and
+ * the column names, followed by one row marker and a tagged value per column for every row and an
+ * end marker. Integers and lengths are zigzag variable length encoded
+ */
+final class BinaryRows{
+	private static final byte[] MAGIC = {'W', 'D', 'B', 'R'};
+	private static final int VERSION = 1;
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int END = 0;
+	private static final int ROW = 1;
+	private static final int NULL = 0;
+	private static final int LONG = 1;
+	private static final int DOUBLE = 2;
+	private static final int STRING = 3;
+	private static final int BYTES = 4;
+	private static final int TRUE = 5;
+	private static final int FALSE = 6;
+	private static final int DECIMAL = 7;
+	private static final int TIMESTAMP = 8;
+	
+	private BinaryRows() {
+	}
+	
+	static final class Input implements RowInput{
+		private final DataInputStream in;
+		private final String[] columns;
+		private boolean ended = false;
+		
+		Input(InputStream in) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+			byte[] magic = new byte[MAGIC.length];
+			this.in.readFully(magic);
+			if(!Arrays.equals(magic, MAGIC)){
+				throw new IOException("Input is not in the binary row format");
+			}
+			int version = this.in.readUnsignedByte();
+			if(version != VERSION){
+				throw new IOException("Unsupported binary row format version " + version);
+			}
+			columns = new String[(int) readVarLong()];
+			for(int i = 0; i < columns.length; i++){
+				columns[i] = readString();
+			}
+		}
+		
+		@Override
+		public String[] columns() {
+			return columns;
+		}
+		
+		@Override
+		public Object[] next() throws IOException {
+			if(ended){
+				return null;
+			}
+			int marker = in.read();
+			if(marker == END){
+				ended = true;
+				return null;
+			}
+			if(marker != ROW){
+				throw marker == -1 ? new EOFException("Binary rows end without an end marker") : new IOException("Corrupt binary rows, unknown marker " + marker);
+			}
+			Object[] row = new Object[columns.length];
+			for(int i = 0; i < row.length; i++){
+				row[i] = readValue();
+			}
+			return row;
+		}
+		
+		private Object readValue() throws IOException {
+			int tag = in.readUnsignedByte();
+			return switch(tag){
+				case NULL -> null;
+				case LONG -> readVarLong();
+				case DOUBLE -> in.readDouble();
+				case STRING -> readString();
+				case BYTES -> readBytes();
+				case TRUE -> Boolean.TRUE;
+				case FALSE -> Boolean.FALSE;
+				case DECIMAL -> new BigDecimal(readString());
+				case TIMESTAMP -> {
+					Timestamp timestamp = new Timestamp(readVarLong());
+					timestamp.setNanos((int) readVarLong());
+					yield timestamp;
+				}
+				default -> throw new IOException("Corrupt binary rows, unknown value tag " + tag);
+			};
+		}
+		
+		private String readString() throws IOException {
+			return new String(readBytes(), StandardCharsets.UTF_8);
+		}
+		
+		private byte[] readBytes() throws IOException {
+			long length = readVarLong();
+			if(length < 0 || length > Integer.MAX_VALUE - 8){
+				throw new IOException("Corrupt binary rows, invalid length " + length);
+			}
+			byte[] bytes = new byte[(int) length];
+			in.readFully(bytes);
+			return bytes;
+		}
+		
+		private long readVarLong() throws IOException {
+			long value = 0;
+			for(int shift = 0; shift < 64; shift += 7){
+				int b = in.readUnsignedByte();
+				value |= (long) (b & 0x7f) << shift;
+				if((b & 0x80) == 0){
+					return (value >>> 1) ^ -(value & 1);
+				}
+			}
+			throw new IOException("Corrupt binary rows, variable length integer is too long");
+		}
+	}
+	
+	static final class Output implements RowOutput{
+		private final DataOutputStream out;
+		
+		Output(OutputStream out, String[] columns) throws IOException {
+			this.out = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+			this.out.write(MAGIC);
+			this.out.writeByte(VERSION);
+			writeVarLong(columns.length);
+			for(String column : columns){
+				writeBytes(column.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		
+		@Override
+		public void write(Object[] row) throws IOException {
+			out.writeByte(ROW);
+			for(Object value : row){
+				writeValue(value);
+			}
+		}
+		
+		private void writeValue(Object value) throws IOException {
+			if(value == null){
+				out.writeByte(NULL);
+			} else if(value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte){
+				out.writeByte(LONG);
+				writeVarLong(((Number) value).longValue());
+			} else if(value instanceof Double || value instanceof Float){
+				out.writeByte(DOUBLE);
+				out.writeDouble(((Number) value).doubleValue());
+			} else if(value instanceof BigDecimal || value instanceof BigInteger){
+				out.writeByte(DECIMAL);
+				writeBytes(value.toString().getBytes(StandardCharsets.UTF_8));
+			} else if(value instanceof Boolean bool){
+				out.writeByte(bool ? TRUE : FALSE);
+			} else if(value instanceof byte[] bytes){
+				out.writeByte(BYTES);
+				writeBytes(bytes);
+			} else if(value instanceof Timestamp timestamp){
+				out.writeByte(TIMESTAMP);
+				writeVarLong(timestamp.getTime());
+				writeVarLong(timestamp.getNanos());
+			} else {
+				out.writeByte(STRING);
+				writeBytes(value.toString().getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		
+		private void writeBytes(byte[] bytes) throws IOException {
+			writeVarLong(bytes.length);
+			out.write(bytes);
+		}
+		
+		private void writeVarLong(long value) throws IOException {
+			long zigzag = (value << 1) ^ (value >> 63);
+			while((zigzag & ~0x7fL) != 0){
+				out.writeByte((int) ((zigzag & 0x7f) | 0x80));
+				zigzag >>>= 7;
+			}
+			out.writeByte((int) zigzag);
+		}
+		
+		@Override
+		public void finish() throws IOException {
+			out.writeByte(END);
+			out.flush();
+		}
+	}
+}
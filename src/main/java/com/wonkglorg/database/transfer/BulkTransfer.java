@@ -0,0 +1,708 @@
+package com.wonkglorg.database.transfer;
+
+import com.wonkglorg.database.DatabaseType;
+import com.wonkglorg.database.datasources.AccessIntent;
+import com.wonkglorg.database.datasources.DriverRegistry;
+import com.wonkglorg.database.datasources.TypedDataSource;
+import com.wonkglorg.database.query.FetchMode;
+import com.wonkglorg.database.query.QueryCache;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads rows into a table and dumps query results in a {@link TransferFormat} with bounded
+ * memory. Parsing and writing run on separate threads connected by a queue of at most
+ * {@link #getQueueCapacity()} chunks of {@link #getBatchSize()} rows.
+ * <p>
+ * Imports use the fastest path of the database:
+ * <ul>
+ *     <li>Postgres: {@code COPY ... FROM STDIN}</li>
+ *     <li>MySQL and MariaDB: {@code LOAD DATA LOCAL INFILE}, the driver has to allow local infile,
+ *     see {@link DriverRegistry#setProperties}</li>
+ *     <li>Sqlite and others: prepared batches in a single transaction. On sqlite the page cache is
+ *     raised and temporary data kept in memory while loading</li>
+ * </ul>
+ * Csv exports of Postgres without parameters use {@code COPY ... TO STDOUT}, other exports stream
+ * the result with the {@link FetchMode} of the driver.
+ * <pre>
+ *     {@code
+ * try(InputStream in = Files.newInputStream(Path.of("users.csv"))){
+ *     database.bulkTransfer().setProgressListener(progress -> log.info(progress.rows() + " rows")).importRows("users", in, TransferFormat.CSV);
+ * }
+ * }
+ * </pre>
+ */
+@SuppressWarnings("unused")
+public class BulkTransfer{
+	private static final Logger log = Logger.getLogger(BulkTransfer.class.getName());
+	private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+	/**
+	 * Applied to sqlite connections while importing and restored afterwards, a 128 MiB page cache
+	 * keeps the index pages being filled in memory
+	 */
+	private static final Map<String, String> SQLITE_PRAGMAS = Map.of("cache_size", "-131072", "temp_store", "2");
+	
+	private final TypedDataSource dataSource;
+	private volatile int batchSize = 10_000;
+	private volatile int queueCapacity = 4;
+	private volatile long progressInterval = 100_000;
+	private volatile Consumer<TransferProgress> progressListener = null;
+	private volatile boolean nativeLoading = true;
+	private volatile QueryCache queryCache = null;
+	
+	/**
+	 * @param dataSource the data source to take a connection from for every transfer. Imports and
+	 * exports that change the session of their connection use one of
+	 * {@link TypedDataSource#getExclusiveConnection(AccessIntent)}
+	 */
+	public BulkTransfer(TypedDataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+	
+	/**
+	 * @param batchSize how many rows are parsed, queued and written together
+	 */
+	public BulkTransfer setBatchSize(int batchSize) {
+		if(batchSize < 1){
+			throw new IllegalArgumentException("batchSize has to be at least 1");
+		}
+		this.batchSize = batchSize;
+		return this;
+	}
+	
+	public int getBatchSize() {
+		return batchSize;
+	}
+	
+	/**
+	 * @param queueCapacity how many chunks of rows can wait between the stages
+	 */
+	public BulkTransfer setQueueCapacity(int queueCapacity) {
+		if(queueCapacity < 1){
+			throw new IllegalArgumentException("queueCapacity has to be at least 1");
+		}
+		this.queueCapacity = queueCapacity;
+		return this;
+	}
+	
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+	
+	/**
+	 * @param progressListener called with the progress every {@link #getProgressInterval()} rows
+	 * and once the transfer finished, on the thread writing the rows. null to not report
+	 */
+	public BulkTransfer setProgressListener(Consumer<TransferProgress> progressListener) {
+		this.progressListener = progressListener;
+		return this;
+	}
+	
+	/**
+	 * @param rows after how many rows the progress is reported, at chunk boundaries
+	 */
+	public BulkTransfer setProgressInterval(long rows) {
+		if(rows < 1){
+			throw new IllegalArgumentException("progressInterval has to be at least 1");
+		}
+		this.progressInterval = rows;
+		return this;
+	}
+	
+	public long getProgressInterval() {
+		return progressInterval;
+	}
+	
+	/**
+	 * @param nativeLoading false to always use prepared batches and jdbc reads, e.g. for tables
+	 * with binary columns on MySQL
+	 */
+	public BulkTransfer setNativeLoading(boolean nativeLoading) {
+		this.nativeLoading = nativeLoading;
+		return this;
+	}
+	
+	public boolean isNativeLoading() {
+		return nativeLoading;
+	}
+	
+	/**
+	 * @param queryCache invalidated for the table after every import, null for none
+	 */
+	public BulkTransfer setQueryCache(QueryCache queryCache) {
+		this.queryCache = queryCache;
+		return this;
+	}
+	
+	/**
+	 * Loads all rows of the input into the table. The header names the columns, columns missing
+	 * from it get their default values. Header names are matched case insensitively against the
+	 * columns the database reports for the table, an unknown or repeated name fails the import
+	 *
+	 * @param table the table to load into
+	 * @param in the rows, not closed. It is no longer read once the import returned or threw
+	 * @param format the format of the input
+	 * @return the final progress
+	 */
+	public TransferProgress importRows(String table, InputStream in, TransferFormat format) {
+		CountingInputStream counted = new CountingInputStream(in);
+		Progress progress = new Progress(counted::getCount);
+		RowInput rows;
+		try{
+			rows = format.reader(counted);
+		} catch(IOException e){
+			throw new RuntimeException("Failed to read the header of the " + format.name() + " input", e);
+		}
+		String[] columns = rows.columns();
+		int chunkSize = batchSize;
+		RowPipeline pipeline = new RowPipeline(queueCapacity);
+		Thread parser = null;
+		try(Connection connection = dataSource.getExclusiveConnection(AccessIntent.WRITE)){
+			ImportTarget target = ImportTarget.resolve(connection, table, columns);
+			//csv has no binary type, binary values were written base64 encoded
+			boolean[] base64 = format == TransferFormat.CSV ? target.binary() : new boolean[columns.length];
+			parser = startStage("parse", () -> parse(rows, base64, chunkSize, pipeline));
+			write(connection, target, pipeline, progress);
+		} catch(SQLException | IOException e){
+			throw new RuntimeException("Failed to import into " + table, e);
+		} catch(RowPipeline.TransferException e){
+			throw new RuntimeException("Failed to import into " + table, e.getCause());
+		} catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while importing into " + table, e);
+		} finally{
+			pipeline.cancel();
+			if(parser != null){
+				//the input belongs to the caller again once the parser let go of it
+				joinUninterruptibly(parser);
+			}
+			QueryCache cache = queryCache;
+			if(cache != null){
+				cache.invalidate(table);
+			}
+		}
+		return progress.finish();
+	}
+	
+	/**
+	 * Dumps all rows of a table. The table is looked up in the metadata of the database like the
+	 * table of an import and quoted
+	 *
+	 * @param table the table to dump, optionally qualified with its schema
+	 * @param out receives the rows, not closed
+	 * @param format the format of the output
+	 * @return the final progress
+	 */
+	public TransferProgress exportTable(String table, OutputStream out, TransferFormat format) {
+		String quotedTable;
+		try(Connection connection = dataSource.getConnection(AccessIntent.READ)){
+			quotedTable = ImportTarget.resolve(connection, table, new String[0]).table();
+		} catch(SQLException e){
+			throw new RuntimeException("Failed to export " + table, e);
+		}
+		return exportRows("SELECT * FROM " + quotedTable, out, format);
+	}
+	
+	/**
+	 * Dumps the rows of a query, reading and writing them on separate threads
+	 *
+	 * @param sql the query, its column labels become the header
+	 * @param out receives the rows, not closed
+	 * @param format the format of the output
+	 * @param parameters the values for its placeholders in order
+	 * @return the final progress
+	 */
+	public TransferProgress exportRows(String sql, OutputStream out, TransferFormat format, Object... parameters) {
+		CountingOutputStream counted = new CountingOutputStream(out);
+		Progress progress = new Progress(counted::getCount);
+		DatabaseType type = dataSource.getType();
+		try(Connection connection = FetchMode.of(type).needsExclusiveConnection() ? dataSource.getExclusiveConnection(AccessIntent.READ) : dataSource.getConnection(AccessIntent.READ)){
+			if(nativeLoading && format == TransferFormat.CSV && parameters.length == 0 && isPostgres(type)){
+				Object copyManager = NativeLoads.copyManager(connection, driverLoader(type));
+				if(copyManager != null){
+					progress.add(NativeLoads.copyOut(copyManager, "COPY (" + sql + ") TO STDOUT WITH (FORMAT csv, HEADER true)", counted));
+					counted.flush();
+					return progress.finish();
+				}
+			}
+			read(connection, type, sql, parameters, format, counted, progress);
+		} catch(SQLException | IOException e){
+			throw new RuntimeException("Failed to export " + sql, e);
+		} catch(RowPipeline.TransferException e){
+			throw new RuntimeException("Failed to export " + sql, e.getCause());
+		} catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while exporting " + sql, e);
+		}
+		return progress.finish();
+	}
+	
+	private void write(Connection connection, ImportTarget target, RowPipeline pipeline, Progress progress) throws SQLException, IOException, InterruptedException {
+		DatabaseType type = dataSource.getType();
+		String columnList = String.join(", ", target.columns());
+		if(nativeLoading && isPostgres(type)){
+			Object copyManager = NativeLoads.copyManager(connection, driverLoader(type));
+			if(copyManager != null){
+				NativeLoads.copyIn(copyManager, "COPY " + target.table() + " (" + columnList + ") FROM STDIN", new NativeLoads.TextRowStream(pipeline, true, progress::add));
+				return;
+			}
+			log.log(Level.FINE, "Postgres driver provides no copy api, importing in batches");
+		}
+		if(nativeLoading && isMysql(type)){
+			String sql = "LOAD DATA LOCAL INFILE 'bulk-transfer' INTO TABLE " + target.table() + " CHARACTER SET utf8mb4 (" + columnList + ")";
+			if(NativeLoads.loadData(connection, driverLoader(type), sql, new NativeLoads.TextRowStream(pipeline, false, progress::add)) >= 0){
+				return;
+			}
+			log.log(Level.FINE, "Driver cannot stream local infile, importing in batches");
+		}
+		insertBatches(connection, target, pipeline, progress, type.driver().startsWith("jdbc:sqlite:"));
+	}
+	
+	/**
+	 * @param base64 which columns hold base64 text to decode into bytes, one entry per column
+	 */
+	private static void parse(RowInput rows, boolean[] base64, int chunkSize, RowPipeline pipeline) {
+		int columnCount = base64.length;
+		try{
+			List<Object[]> chunk = new ArrayList<>(chunkSize);
+			long number = 0;
+			Object[] row;
+			while((row = rows.next()) != null){
+				number++;
+				if(row.length != columnCount){
+					throw new IOException("Row " + number + " has " + row.length + " values but the header has " + columnCount + " columns");
+				}
+				for(int i = 0; i < columnCount; i++){
+					if(base64[i] && row[i] instanceof String text){
+						try{
+							row[i] = Base64.getDecoder().decode(text);
+						} catch(IllegalArgumentException e){
+							throw new IOException("Value " + (i + 1) + " of row " + number + " is not base64 encoded", e);
+						}
+					}
+				}
+				chunk.add(row);
+				if(chunk.size() == chunkSize){
+					if(!pipeline.put(chunk)){
+						return;
+					}
+					chunk = new ArrayList<>(chunkSize);
+				}
+			}
+			if(!chunk.isEmpty() && !pipeline.put(chunk)){
+				return;
+			}
+			pipeline.finish();
+		} catch(IOException | RuntimeException | InterruptedException e){
+			pipeline.fail(e);
+		}
+	}
+	
+	private static void insertBatches(Connection connection, ImportTarget target, RowPipeline pipeline, Progress progress, boolean sqlite) throws SQLException, InterruptedException {
+		int[] types = target.types();
+		String sql = "INSERT INTO " + target.table() + " (" + String.join(", ", target.columns()) + ") VALUES (" + String.join(", ", Collections.nCopies(types.length, "?")) + ")";
+		Map<String, String> previousPragmas = sqlite ? tuneSqlite(connection) : Map.of();
+		boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+		try(PreparedStatement statement = connection.prepareStatement(sql)){
+			List<Object[]> chunk;
+			while((chunk = pipeline.take()) != null){
+				for(Object[] row : chunk){
+					bind(statement, row, types);
+					statement.addBatch();
+				}
+				statement.executeBatch();
+				progress.add(chunk.size());
+			}
+			connection.commit();
+		} catch(SQLException | RuntimeException | InterruptedException e){
+			try{
+				connection.rollback();
+			} catch(SQLException rollbackException){
+				e.addSuppressed(rollbackException);
+			}
+			throw e;
+		} finally{
+			connection.setAutoCommit(autoCommit);
+			restorePragmas(connection, previousPragmas);
+		}
+	}
+	
+	/**
+	 * Binds text values with the type of their column so the driver converts them, csv values are
+	 * always text
+	 */
+	private static void bind(PreparedStatement statement, Object[] row, int[] types) throws SQLException {
+		for(int i = 0; i < row.length; i++){
+			Object value = row[i];
+			int type = types[i];
+			if(value == null){
+				statement.setNull(i + 1, type);
+			} else if(value instanceof String && !isText(type) && type != Types.NULL && type != Types.OTHER){
+				statement.setObject(i + 1, value, type);
+			} else {
+				statement.setObject(i + 1, value);
+			}
+		}
+	}
+	
+	private static boolean isText(int type) {
+		return switch(type){
+			case Types.CHAR, Types.VARCHAR, Types.LONGVARCHAR, Types.NCHAR, Types.NVARCHAR, Types.LONGNVARCHAR, Types.CLOB, Types.NCLOB -> true;
+			default -> false;
+		};
+	}
+	
+	private static Map<String, String> tuneSqlite(Connection connection) throws SQLException {
+		Map<String, String> previous = new LinkedHashMap<>();
+		try(Statement statement = connection.createStatement()){
+			for(Map.Entry<String, String> pragma : SQLITE_PRAGMAS.entrySet()){
+				try(ResultSet resultSet = statement.executeQuery("PRAGMA " + pragma.getKey())){
+					if(resultSet.next()){
+						previous.put(pragma.getKey(), resultSet.getString(1));
+					}
+				}
+				statement.execute("PRAGMA " + pragma.getKey() + " = " + pragma.getValue());
+			}
+		}
+		return previous;
+	}
+	
+	private static void restorePragmas(Connection connection, Map<String, String> previous) {
+		if(previous.isEmpty()){
+			return;
+		}
+		try(Statement statement = connection.createStatement()){
+			for(Map.Entry<String, String> pragma : previous.entrySet()){
+				statement.execute("PRAGMA " + pragma.getKey() + " = " + pragma.getValue());
+			}
+		} catch(SQLException e){
+			log.log(Level.WARNING, "Failed to restore sqlite pragmas after import", e);
+		}
+	}
+	
+	private void read(Connection connection, DatabaseType type, String sql, Object[] parameters, TransferFormat format, OutputStream out, Progress progress) throws SQLException, IOException, InterruptedException {
+		FetchMode mode = FetchMode.of(type);
+		boolean restoreAutoCommit = mode.prepareConnection(connection);
+		int chunkSize = batchSize;
+		try(PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)){
+			//keeps the streaming settings out of a statement cache
+			statement.setPoolable(false);
+			mode.configure(statement, chunkSize);
+			for(int i = 0; i < parameters.length; i++){
+				statement.setObject(i + 1, parameters[i]);
+			}
+			try(ResultSet resultSet = statement.executeQuery()){
+				ResultSetMetaData metaData = resultSet.getMetaData();
+				String[] columns = new String[metaData.getColumnCount()];
+				for(int i = 0; i < columns.length; i++){
+					columns[i] = metaData.getColumnLabel(i + 1);
+				}
+				RowOutput output = format.writer(out, columns);
+				RowPipeline pipeline = new RowPipeline(queueCapacity);
+				Thread reader = startStage("read", () -> fetch(resultSet, columns.length, chunkSize, pipeline));
+				try{
+					List<Object[]> chunk;
+					while((chunk = pipeline.take()) != null){
+						for(Object[] row : chunk){
+							output.write(row);
+						}
+						progress.add(chunk.size());
+					}
+					output.finish();
+				} finally{
+					pipeline.cancel();
+					//the result set is closed once the reader let go of it
+					joinUninterruptibly(reader);
+				}
+			}
+		} finally{
+			if(restoreAutoCommit){
+				//the cursor only read, nothing to commit
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+		}
+	}
+	
+	private static void fetch(ResultSet resultSet, int columnCount, int chunkSize, RowPipeline pipeline) {
+		try{
+			List<Object[]> chunk = new ArrayList<>(chunkSize);
+			while(resultSet.next()){
+				Object[] row = new Object[columnCount];
+				for(int i = 0; i < columnCount; i++){
+					row[i] = resultSet.getObject(i + 1);
+				}
+				chunk.add(row);
+				if(chunk.size() == chunkSize){
+					if(!pipeline.put(chunk)){
+						return;
+					}
+					chunk = new ArrayList<>(chunkSize);
+				}
+			}
+			if(!chunk.isEmpty() && !pipeline.put(chunk)){
+				return;
+			}
+			pipeline.finish();
+		} catch(SQLException | RuntimeException | InterruptedException e){
+			pipeline.fail(e);
+		}
+	}
+	
+	private static Thread startStage(String name, Runnable stage) {
+		Thread thread = new Thread(stage, "bulk-transfer-" + name + "-" + THREAD_COUNTER.incrementAndGet());
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+	
+	private static void joinUninterruptibly(Thread thread) {
+		boolean interrupted = false;
+		while(true){
+			try{
+				thread.join();
+				break;
+			} catch(InterruptedException e){
+				interrupted = true;
+			}
+		}
+		if(interrupted){
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private static boolean isPostgres(DatabaseType type) {
+		return type.driver().startsWith("jdbc:postgresql:");
+	}
+	
+	private static boolean isMysql(DatabaseType type) {
+		return type.driver().startsWith("jdbc:mysql:") || type.driver().startsWith("jdbc:mariadb:");
+	}
+	
+	private static ClassLoader driverLoader(DatabaseType type) {
+		return DriverRegistry.driver(type).getClass().getClassLoader();
+	}
+	
+	/**
+	 * The table an import loads into or an export reads, names are quoted with the identifier
+	 * quote of the database
+	 *
+	 * @param table the quoted table name, qualified with its schema if one was given
+	 * @param columns the quoted column names in the order of the header
+	 * @param types the jdbc types of the columns, see {@link Types}
+	 * @param binary which columns have a binary type
+	 */
+	private record ImportTarget(String table, String[] columns, int[] types, boolean[] binary){
+		
+		/**
+		 * Looks the table and the header up in the metadata of the database, names from the header
+		 * only end up in statements as the name of a real column
+		 *
+		 * @param table the table, optionally qualified with its schema
+		 * @param header the column names of the input
+		 */
+		private static ImportTarget resolve(Connection connection, String table, String[] header) throws SQLException {
+			DatabaseMetaData metaData = connection.getMetaData();
+			int dot = table.lastIndexOf('.');
+			String schema = dot < 0 ? null : table.substring(0, dot);
+			String name = table.substring(dot + 1);
+			//unquoted names are stored in upper or lower case depending on the database
+			for(String candidate : new LinkedHashSet<>(List.of(name, name.toLowerCase(Locale.ROOT), name.toUpperCase(Locale.ROOT)))){
+				String tableSchema = null;
+				Map<String, String> names = new LinkedHashMap<>();
+				Map<String, Integer> types = new LinkedHashMap<>();
+				Set<String> binary = new HashSet<>();
+				try(ResultSet resultSet = metaData.getColumns(connection.getCatalog(), schema, candidate, "%")){
+					while(resultSet.next()){
+						if(!candidate.equals(resultSet.getString("TABLE_NAME"))){
+							continue;
+						}
+						//without a schema the first table found wins, others may share its name
+						String rowSchema = resultSet.getString("TABLE_SCHEM");
+						if(names.isEmpty()){
+							tableSchema = rowSchema;
+						} else if(tableSchema == null ? rowSchema != null : !tableSchema.equals(rowSchema)){
+							continue;
+						}
+						String column = resultSet.getString("COLUMN_NAME");
+						names.putIfAbsent(column.toLowerCase(Locale.ROOT), column);
+						types.putIfAbsent(column.toLowerCase(Locale.ROOT), resultSet.getInt("DATA_TYPE"));
+						if(isBinary(resultSet.getInt("DATA_TYPE"), resultSet.getString("TYPE_NAME"))){
+							binary.add(column.toLowerCase(Locale.ROOT));
+						}
+					}
+				}
+				if(names.isEmpty()){
+					continue;
+				}
+				String quote = metaData.getIdentifierQuoteString();
+				String[] columns = new String[header.length];
+				int[] columnTypes = new int[header.length];
+				boolean[] binaryColumns = new boolean[header.length];
+				Set<String> seen = new HashSet<>();
+				for(int i = 0; i < header.length; i++){
+					String key = header[i] == null ? null : header[i].trim().toLowerCase(Locale.ROOT);
+					String column = names.get(key);
+					if(column == null){
+						throw new SQLException("Column " + header[i] + " of the header does not exist in " + table);
+					}
+					if(!seen.add(key)){
+						throw new SQLException("Column " + header[i] + " appears more than once in the header");
+					}
+					columns[i] = quote(column, quote);
+					columnTypes[i] = types.get(key);
+					binaryColumns[i] = binary.contains(key);
+				}
+				String quotedTable = schema == null || tableSchema == null ? quote(candidate, quote) : quote(tableSchema, quote) + "." + quote(candidate, quote);
+				return new ImportTarget(quotedTable, columns, columnTypes, binaryColumns);
+			}
+			throw new SQLException("Table " + table + " does not exist");
+		}
+		
+		/**
+		 * Sqlite reports its declared types as {@link Types#VARCHAR}, the type name tells blobs apart
+		 */
+		private static boolean isBinary(int type, String typeName) {
+			return switch(type){
+				case Types.BINARY, Types.VARBINARY, Types.LONGVARBINARY, Types.BLOB -> true;
+				default -> typeName != null && typeName.toUpperCase(Locale.ROOT).contains("BLOB");
+			};
+		}
+		
+		/**
+		 * @param quote the identifier quote of the database, blank if it does not support quoting
+		 */
+		private static String quote(String identifier, String quote) {
+			if(quote == null || quote.isBlank()){
+				return identifier;
+			}
+			return quote + identifier.replace(quote, quote + quote) + quote;
+		}
+	}
+	
+	/**
+	 * Tracks the rows of one transfer and reports them to the listener, only used by the thread
+	 * writing the rows
+	 */
+	private final class Progress{
+		private final LongSupplier bytes;
+		private final Consumer<TransferProgress> listener = progressListener;
+		private final long interval = progressInterval;
+		private final long start = System.nanoTime();
+		private long rows = 0;
+		private long nextReport = interval;
+		
+		private Progress(LongSupplier bytes) {
+			this.bytes = bytes;
+		}
+		
+		private void add(long count) {
+			rows += count;
+			if(listener != null && rows >= nextReport){
+				listener.accept(snapshot(false));
+				nextReport = rows + interval;
+			}
+		}
+		
+		private TransferProgress finish() {
+			TransferProgress progress = snapshot(true);
+			if(listener != null){
+				listener.accept(progress);
+			}
+			return progress;
+		}
+		
+		private TransferProgress snapshot(boolean finished) {
+			return new TransferProgress(rows, bytes.getAsLong(), System.nanoTime() - start, finished);
+		}
+	}
+	
+	private static final class CountingInputStream extends FilterInputStream{
+		private volatile long count = 0;
+		
+		private CountingInputStream(InputStream in) {
+			super(in);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if(b != -1){
+				count++;
+			}
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int read = in.read(buffer, offset, length);
+			if(read > 0){
+				count += read;
+			}
+			return read;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(n);
+			count += skipped;
+			return skipped;
+		}
+		
+		private long getCount() {
+			return count;
+		}
+	}
+	
+	private static final class CountingOutputStream extends FilterOutputStream{
+		private volatile long count = 0;
+		
+		private CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+		
+		@Override
+		public void write(byte[] buffer, int offset, int length) throws IOException {
+			out.write(buffer, offset, length);
+			count += length;
+		}
+		
+		private long getCount() {
+			return count;
+		}
+	}
+}
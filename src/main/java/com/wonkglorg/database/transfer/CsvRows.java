@@ -0,0 +1,176 @@
+package com.wonkglorg.database.transfer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Reads and writes {@link TransferFormat#CSV}
+ */
+final class CsvRows{
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private CsvRows() {
+	}
+	
+	static final class Input implements RowInput{
+		private final Reader reader;
+		private final char[] buffer = new char[BUFFER_SIZE];
+		private final List<Object> fields = new ArrayList<>();
+		private final StringBuilder field = new StringBuilder();
+		private final String[] columns;
+		private int position = 0;
+		private int limit = 0;
+		private long line = 1;
+		
+		Input(InputStream in) throws IOException {
+			this.reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+			Object[] header = next();
+			if(header == null){
+				throw new IOException("CSV input has no header line");
+			}
+			columns = new String[header.length];
+			for(int i = 0; i < header.length; i++){
+				if(header[i] == null){
+					throw new IOException("CSV header has an empty column name at position " + (i + 1));
+				}
+				columns[i] = header[i].toString();
+			}
+		}
+		
+		@Override
+		public String[] columns() {
+			return columns;
+		}
+		
+		@Override
+		public Object[] next() throws IOException {
+			int c = read();
+			//blank lines between records are skipped
+			while(c == '\n' || c == '\r'){
+				if(c == '\n'){
+					line++;
+				}
+				c = read();
+			}
+			if(c == -1){
+				return null;
+			}
+			fields.clear();
+			while(true){
+				field.setLength(0);
+				boolean quoted = c == '"';
+				if(quoted){
+					long start = line;
+					while(true){
+						c = read();
+						if(c == -1){
+							throw new IOException("Unterminated quoted field starting on line " + start);
+						}
+						if(c == '"'){
+							c = read();
+							if(c != '"'){
+								break;
+							}
+						} else if(c == '\n'){
+							line++;
+						}
+						field.append((char) c);
+					}
+				} else {
+					while(c != ',' && c != '\n' && c != '\r' && c != -1){
+						field.append((char) c);
+						c = read();
+					}
+				}
+				fields.add(!quoted && field.isEmpty() ? null : field.toString());
+				if(c == ','){
+					c = read();
+					continue;
+				}
+				if(c == '\r'){
+					c = read();
+					if(c != '\n' && c != -1){
+						position--;
+					}
+				}
+				if(c == '\n'){
+					line++;
+				} else if(c != -1){
+					throw new IOException("Unexpected character after quoted field on line " + line);
+				}
+				return fields.toArray();
+			}
+		}
+		
+		private int read() throws IOException {
+			if(position == limit){
+				limit = reader.read(buffer, 0, buffer.length);
+				position = 0;
+				if(limit <= 0){
+					limit = 0;
+					return -1;
+				}
+			}
+			return buffer[position++];
+		}
+	}
+	
+	static final class Output implements RowOutput{
+		private final Writer writer;
+		
+		Output(OutputStream out, String[] columns) throws IOException {
+			this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+			write(columns);
+		}
+		
+		@Override
+		public void write(Object[] row) throws IOException {
+			for(int i = 0; i < row.length; i++){
+				if(i > 0){
+					writer.write(',');
+				}
+				Object value = row[i];
+				if(value == null){
+					continue;
+				}
+				String text = value instanceof byte[] bytes ? Base64.getEncoder().encodeToString(bytes) : value.toString();
+				if(needsQuotes(text)){
+					writer.write('"');
+					writer.write(text.replace("\"", "\"\""));
+					writer.write('"');
+				} else {
+					writer.write(text);
+				}
+			}
+			writer.write('\n');
+		}
+		
+		private static boolean needsQuotes(String text) {
+			if(text.isEmpty()){
+				return true;
+			}
+			for(int i = 0; i < text.length(); i++){
+				char c = text.charAt(i);
+				if(c == ',' || c == '"' || c == '\n' || c == '\r'){
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		@Override
+		public void finish() throws IOException {
+			writer.flush();
+		}
+	}
+}
@@ -0,0 +1,261 @@
+package com.wonkglorg.database.transfer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * The bulk load paths of the server drivers, called through reflection so the drivers stay
+ * optional. Rows are sent in the text format both Postgres {@code COPY} and MySQL
+ * {@code LOAD DATA} read by default: tab separated, one row per line, {@code \N} for null and
+ * backslash escapes for tabs, line breaks and backslashes
+ */
+final class NativeLoads{
+	private static final String PG_CONNECTION = "org.postgresql.PGConnection";
+	private static final String[] LOCAL_INFILE_STATEMENTS = {"com.mysql.cj.jdbc.JdbcStatement", "org.mariadb.jdbc.Statement", "org.mariadb.jdbc.MariaDbStatement"};
+	private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+	
+	private NativeLoads() {
+	}
+	
+	/**
+	 * @return the copy manager of the postgres connection, null if the driver does not provide one
+	 */
+	static Object copyManager(Connection connection, ClassLoader driverLoader) throws SQLException {
+		try{
+			Class<?> pgConnection = Class.forName(PG_CONNECTION, false, driverLoader);
+			if(!connection.isWrapperFor(pgConnection)){
+				return null;
+			}
+			return pgConnection.getMethod("getCopyAPI").invoke(connection.unwrap(pgConnection));
+		} catch(ClassNotFoundException | NoSuchMethodException | IllegalAccessException e){
+			return null;
+		} catch(InvocationTargetException e){
+			throw sqlException(e);
+		}
+	}
+	
+	/**
+	 * Runs {@code COPY ... FROM STDIN} with the rows of the stream
+	 *
+	 * @return the rows copied
+	 */
+	static long copyIn(Object copyManager, String sql, InputStream rows) throws SQLException, IOException {
+		return invokeCopy(copyManager, "copyIn", sql, InputStream.class, rows);
+	}
+	
+	/**
+	 * Runs {@code COPY ... TO STDOUT} into the stream
+	 *
+	 * @return the rows copied
+	 */
+	static long copyOut(Object copyManager, String sql, OutputStream out) throws SQLException, IOException {
+		return invokeCopy(copyManager, "copyOut", sql, OutputStream.class, out);
+	}
+	
+	private static long invokeCopy(Object copyManager, String name, String sql, Class<?> streamType, Object stream) throws SQLException, IOException {
+		try{
+			Method method = copyManager.getClass().getMethod(name, String.class, streamType);
+			return ((Number) method.invoke(copyManager, sql, stream)).longValue();
+		} catch(NoSuchMethodException | IllegalAccessException e){
+			throw new SQLException("Postgres driver does not support " + name, e);
+		} catch(InvocationTargetException e){
+			if(e.getCause() instanceof IOException io){
+				throw io;
+			}
+			throw sqlException(e);
+		}
+	}
+	
+	/**
+	 * Runs {@code LOAD DATA LOCAL INFILE} with the rows of the stream. The driver has to allow
+	 * local infile, {@code allowLoadLocalInfile} for MySQL and {@code allowLocalInfile} for MariaDB
+	 *
+	 * @return the rows loaded, -1 if the driver cannot read the rows from a stream
+	 */
+	static long loadData(Connection connection, ClassLoader driverLoader, String sql, InputStream rows) throws SQLException {
+		try(Statement statement = connection.createStatement()){
+			for(String name : LOCAL_INFILE_STATEMENTS){
+				Class<?> statementClass;
+				try{
+					statementClass = Class.forName(name, false, driverLoader);
+				} catch(ClassNotFoundException e){
+					continue;
+				}
+				if(!statement.isWrapperFor(statementClass)){
+					continue;
+				}
+				try{
+					statementClass.getMethod("setLocalInfileInputStream", InputStream.class).invoke(statement.unwrap(statementClass), rows);
+				} catch(NoSuchMethodException | IllegalAccessException e){
+					continue;
+				} catch(InvocationTargetException e){
+					throw sqlException(e);
+				}
+				return statement.executeLargeUpdate(sql);
+			}
+			return -1;
+		}
+	}
+	
+	private static SQLException sqlException(InvocationTargetException e) {
+		Throwable cause = e.getCause();
+		if(cause instanceof SQLException sql){
+			return sql;
+		}
+		if(cause instanceof RuntimeException runtime){
+			throw runtime;
+		}
+		return new SQLException(cause);
+	}
+	
+	/**
+	 * Encodes the chunks of a pipeline while the driver reads them
+	 */
+	static final class TextRowStream extends InputStream{
+		private final RowPipeline pipeline;
+		private final boolean postgres;
+		private final IntConsumer onChunk;
+		private byte[] buffer = new byte[1 << 16];
+		private int position = 0;
+		private int limit = 0;
+		private boolean ended = false;
+		
+		/**
+		 * @param postgres true to encode binary values as postgres hex, otherwise they are sent as
+		 * escaped raw bytes
+		 * @param onChunk called with the row count of every encoded chunk
+		 */
+		TextRowStream(RowPipeline pipeline, boolean postgres, IntConsumer onChunk) {
+			this.pipeline = pipeline;
+			this.postgres = postgres;
+			this.onChunk = onChunk;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			if(!fill()){
+				return -1;
+			}
+			return buffer[position++] & 0xff;
+		}
+		
+		@Override
+		public int read(byte[] target, int offset, int length) throws IOException {
+			if(length == 0){
+				return 0;
+			}
+			if(!fill()){
+				return -1;
+			}
+			int count = Math.min(length, limit - position);
+			System.arraycopy(buffer, position, target, offset, count);
+			position += count;
+			return count;
+		}
+		
+		private boolean fill() throws IOException {
+			while(position == limit){
+				if(ended){
+					return false;
+				}
+				List<Object[]> chunk;
+				try{
+					chunk = pipeline.take();
+				} catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for rows");
+				} catch(RowPipeline.TransferException e){
+					throw new IOException(e.getMessage(), e.getCause());
+				}
+				if(chunk == null){
+					ended = true;
+					return false;
+				}
+				position = 0;
+				limit = 0;
+				for(Object[] row : chunk){
+					encode(row);
+				}
+				onChunk.accept(chunk.size());
+			}
+			return true;
+		}
+		
+		private void encode(Object[] row) {
+			for(int i = 0; i < row.length; i++){
+				if(i > 0){
+					append((byte) '\t');
+				}
+				Object value = row[i];
+				if(value == null){
+					append((byte) '\\');
+					append((byte) 'N');
+				} else if(value instanceof Boolean bool){
+					append((byte) (bool ? '1' : '0'));
+				} else if(value instanceof byte[] bytes){
+					if(postgres){
+						//bytea hex input, the backslash itself has to be escaped
+						append((byte) '\\');
+						append((byte) '\\');
+						append((byte) 'x');
+						for(byte b : bytes){
+							append(HEX[(b >> 4) & 0xf]);
+							append(HEX[b & 0xf]);
+						}
+					} else {
+						appendEscaped(bytes);
+					}
+				} else {
+					appendEscaped(value.toString().getBytes(StandardCharsets.UTF_8));
+				}
+			}
+			append((byte) '\n');
+		}
+		
+		private void appendEscaped(byte[] bytes) {
+			for(byte b : bytes){
+				switch(b){
+					case '\\' -> {
+						append((byte) '\\');
+						append((byte) '\\');
+					}
+					case '\t' -> {
+						append((byte) '\\');
+						append((byte) 't');
+					}
+					case '\n' -> {
+						append((byte) '\\');
+						append((byte) 'n');
+					}
+					case '\r' -> {
+						append((byte) '\\');
+						append((byte) 'r');
+					}
+					case 0 -> {
+						append((byte) '\\');
+						append((byte) '0');
+					}
+					default -> append(b);
+				}
+			}
+		}
+		
+		private void append(byte b) {
+			if(limit == buffer.length){
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			}
+			buffer[limit++] = b;
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package com.wonkglorg.database.transfer;
+
+import java.io.IOException;
+
+/**
+ * Reads the rows of a {@link TransferFormat}
+ */
+interface RowInput{
+	/**
+	 * @return the column names read from the header
+	 */
+	String[] columns();
+	
+	/**
+	 * @return the values of the next row, null once the input is exhausted
+	 */
+	Object[] next() throws IOException;
+}
@@ -0,0 +1,18 @@
+package com.wonkglorg.database.transfer;
+
+import java.io.IOException;
+
+/**
+ * Writes rows in a {@link TransferFormat}, the header is written when it is created
+ */
+interface RowOutput{
+	/**
+	 * @param row the values of the row in column order
+	 */
+	void write(Object[] row) throws IOException;
+	
+	/**
+	 * Ends the output and flushes it, the underlying stream stays open
+	 */
+	void finish() throws IOException;
+}
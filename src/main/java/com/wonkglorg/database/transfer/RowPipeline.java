@@ -0,0 +1,90 @@
+package com.wonkglorg.database.transfer;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded queue of row chunks between the stage producing rows and the one consuming them. The
+ * producer waits while the queue is full and stops once the consumer cancels, a failure of the
+ * producer is thrown to the consumer
+ */
+final class RowPipeline{
+	private static final List<Object[]> END = List.of();
+	private final BlockingQueue<List<Object[]>> queue;
+	private volatile Throwable failure;
+	private volatile boolean cancelled = false;
+	
+	RowPipeline(int capacity) {
+		this.queue = new ArrayBlockingQueue<>(capacity);
+	}
+	
+	/**
+	 * @return false if the consumer cancelled and the producer should stop
+	 */
+	boolean put(List<Object[]> chunk) throws InterruptedException {
+		while(!cancelled){
+			if(queue.offer(chunk, 100, TimeUnit.MILLISECONDS)){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Marks the end of the rows
+	 */
+	void finish() throws InterruptedException {
+		put(END);
+	}
+	
+	/**
+	 * Ends the rows with a failure the consumer rethrows
+	 */
+	void fail(Throwable cause) {
+		failure = cause;
+		try{
+			put(END);
+		} catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * @return the next chunk, null after the last one
+	 * @throws TransferException if the producer failed
+	 */
+	List<Object[]> take() throws InterruptedException {
+		List<Object[]> chunk = queue.take();
+		if(chunk == END){
+			//keep the end for repeated calls
+			queue.offer(END);
+			Throwable cause = failure;
+			if(cause != null){
+				throw new TransferException("Producing rows failed", cause);
+			}
+			return null;
+		}
+		return chunk;
+	}
+	
+	/**
+	 * Stops the producer, called by the consumer when it is done or failed
+	 */
+	void cancel() {
+		cancelled = true;
+		queue.clear();
+	}
+	
+	/**
+	 * Thrown by {@link #take()} when the producer failed
+	 */
+	static final class TransferException extends RuntimeException{
+		private static final long serialVersionUID = 1L;
+		
+		TransferException(String message, Throwable cause) {
+			super(message, cause);
+		}
+	}
+}
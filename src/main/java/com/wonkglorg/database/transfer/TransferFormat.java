@@ -0,0 +1,31 @@
+package com.wonkglorg.database.transfer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * How rows are encoded by {@link BulkTransfer}
+ */
+public enum TransferFormat{
+	/**
+	 * Comma separated utf-8 text with a header line naming the columns. Fields containing commas,
+	 * quotes or line breaks are quoted, an empty unquoted field is null and {@code ""} an empty
+	 * string. Values are written as text, binary values base64 encoded. Imports decode them again
+	 * for columns of a binary type
+	 */
+	CSV,
+	/**
+	 * Compact binary rows keeping the type of every value, numbers are stored as variable length
+	 * integers. Round trips long, double, decimal, boolean, string, byte array and timestamp values
+	 */
+	BINARY;
+	
+	RowInput reader(InputStream in) throws IOException {
+		return this == CSV ? new CsvRows.Input(in) : new BinaryRows.Input(in);
+	}
+	
+	RowOutput writer(OutputStream out, String[] columns) throws IOException {
+		return this == CSV ? new CsvRows.Output(out, columns) : new BinaryRows.Output(out, columns);
+	}
+}
@@ -0,0 +1,28 @@
+package com.wonkglorg.database.transfer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The state of a running or finished transfer
+ *
+ * @param rows the rows transferred so far
+ * @param bytes the bytes read or written so far
+ * @param elapsedNanos the time since the transfer started
+ * @param finished true for the last report of a transfer
+ */
+public record TransferProgress(long rows, long bytes, long elapsedNanos, boolean finished){
+	
+	/**
+	 * @return the average rows per second since the transfer started
+	 */
+	public double rowsPerSecond() {
+		return elapsedNanos == 0 ? 0 : rows * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+	}
+	
+	/**
+	 * @return the average bytes per second since the transfer started
+	 */
+	public double bytesPerSecond() {
+		return elapsedNanos == 0 ? 0 : bytes * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+	}
+}
@@ -0,0 +1,402 @@
+package com.wonkglorg.database.write;
+
+import com.wonkglorg.database.datasources.AccessIntent;
+import com.wonkglorg.database.datasources.TypedDataSource;
+import com.wonkglorg.database.query.QueryCache;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects rows for a single prepared sql statement and writes them as jdbc batches, every batch
+ * in its own transaction. On sqlite this turns one fsync per row into one per batch.
+ * <p>
+ * Rows are written once a batch is full, once the oldest buffered row is older than the flush
+ * interval, on {@link #flush()} and on {@link #close()}. A batch that fails is rolled back and
+ * handed to the failure handler, the writer keeps going with the next one.
+ * <p>
+ * The writer takes one connection for its first batch and keeps it, together with the prepared
+ * statement, until it is closed. Full batches are written outside the lock guarding the buffer,
+ * rows can be added while a batch is written. Batches are written in the order they filled up.
+ * <pre>
+ *     {@code
+ * try(BatchWriter writer = database.batchWriter("INSERT INTO users(id, name) VALUES(?, ?)").setBatchSize(500)){
+ *     for(User user : users){
+ *         writer.add(user.id(), user.name());
+ *     }
+ * }
+ * }
+ * </pre>
+ */
+@SuppressWarnings("unused")
+public class BatchWriter implements AutoCloseable{
+	private static final Logger log = Logger.getLogger(BatchWriter.class.getName());
+	private static final AtomicInteger WRITER_COUNTER = new AtomicInteger();
+	
+	private final DataSource dataSource;
+	private final String sql;
+	private int batchSize = 1000;
+	private long flushInterval = 0;
+	private volatile Consumer<BatchFailure> failureHandler = BatchWriter::logFailure;
+	private volatile QueryCache queryCache = null;
+	
+	private List<Object[]> buffer = new ArrayList<>();
+	/**
+	 * Full batches waiting to be written, in the order they filled up
+	 */
+	private final ArrayDeque<List<Object[]>> pending = new ArrayDeque<>();
+	private long oldestRow;
+	private ScheduledExecutorService flusher;
+	private ScheduledFuture<?> flushTask;
+	private boolean closed = false;
+	
+	/**
+	 * Held while batches are written, guards the connection and statement
+	 */
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private Connection connection;
+	private PreparedStatement statement;
+	private boolean restoreAutoCommit;
+	
+	private final LongAdder writtenRows = new LongAdder();
+	private final LongAdder failedRows = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	
+	/**
+	 * @param dataSource the data source to take the connection of the writer from, typed data
+	 * sources hand out one of {@link TypedDataSource#getExclusiveConnection(AccessIntent)} so the
+	 * batch transactions never interleave with other users of a shared connection
+	 * @param sql the statement every row is bound to
+	 */
+	public BatchWriter(DataSource dataSource, String sql) {
+		this.dataSource = dataSource;
+		this.sql = sql;
+	}
+	
+	/**
+	 * @param batchSize how many rows are written in one batch and transaction
+	 */
+	public synchronized BatchWriter setBatchSize(int batchSize) {
+		if(batchSize < 1){
+			throw new IllegalArgumentException("batchSize has to be at least 1");
+		}
+		this.batchSize = batchSize;
+		return this;
+	}
+	
+	public synchronized int getBatchSize() {
+		return batchSize;
+	}
+	
+	/**
+	 * @param millis how long a row can stay buffered before it is written even if the batch is not
+	 * full, 0 to only write full batches and on flush or close. Checked by a background thread
+	 * started with the first interval set
+	 */
+	public synchronized BatchWriter setFlushInterval(long millis) {
+		if(millis < 0){
+			throw new IllegalArgumentException("flushInterval cannot be negative");
+		}
+		this.flushInterval = millis;
+		if(flushTask != null){
+			flushTask.cancel(false);
+			flushTask = null;
+		}
+		if(millis > 0 && !closed){
+			if(flusher == null){
+				flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+					Thread thread = new Thread(runnable, "batch-writer-" + WRITER_COUNTER.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+			long period = Math.max(1, millis / 2);
+			flushTask = flusher.scheduleWithFixedDelay(this::flushIfDue, period, period, TimeUnit.MILLISECONDS);
+		}
+		return this;
+	}
+	
+	public synchronized long getFlushInterval() {
+		return flushInterval;
+	}
+	
+	/**
+	 * @param failureHandler called with every batch that could not be written, by default failures
+	 * are logged
+	 */
+	public synchronized BatchWriter setFailureHandler(Consumer<BatchFailure> failureHandler) {
+		if(failureHandler == null){
+			throw new IllegalArgumentException("failureHandler cannot be null");
+		}
+		this.failureHandler = failureHandler;
+		return this;
+	}
+	
+	/**
+	 * @param queryCache invalidated for the written table after every batch, null for none
+	 */
+	public synchronized BatchWriter setQueryCache(QueryCache queryCache) {
+		this.queryCache = queryCache;
+		return this;
+	}
+	
+	/**
+	 * Buffers a row, writes the batch if it is full
+	 *
+	 * @param parameters the values for the placeholders of the statement in order
+	 */
+	public void add(Object... parameters) {
+		synchronized(this){
+			if(closed){
+				throw new IllegalStateException("BatchWriter has been closed");
+			}
+			if(buffer.isEmpty()){
+				oldestRow = System.nanoTime();
+			}
+			buffer.add(parameters);
+			if(buffer.size() < batchSize){
+				return;
+			}
+			takeBuffer();
+		}
+		writePending();
+	}
+	
+	/**
+	 * Writes all buffered rows
+	 */
+	public void flush() {
+		synchronized(this){
+			takeBuffer();
+		}
+		writePending();
+	}
+	
+	private void flushIfDue() {
+		try{
+			synchronized(this){
+				if(buffer.isEmpty() || System.nanoTime() - oldestRow < TimeUnit.MILLISECONDS.toNanos(flushInterval)){
+					return;
+				}
+				takeBuffer();
+			}
+			writePending();
+		} catch(RuntimeException e){
+			log.log(Level.WARNING, "Timed flush of batch writer failed", e);
+		}
+	}
+	
+	/**
+	 * Moves the buffered rows to the pending batches, called holding the monitor
+	 */
+	private void takeBuffer() {
+		while(!buffer.isEmpty()){
+			if(buffer.size() <= batchSize){
+				pending.add(buffer);
+				buffer = new ArrayList<>();
+			} else {
+				List<Object[]> batch = buffer.subList(0, batchSize);
+				pending.add(new ArrayList<>(batch));
+				batch.clear();
+			}
+		}
+	}
+	
+	private synchronized List<Object[]> nextPending() {
+		return pending.poll();
+	}
+	
+	/**
+	 * Writes the pending batches, including those queued by other threads while waiting for the
+	 * write lock
+	 */
+	private void writePending() {
+		writeLock.lock();
+		try{
+			List<Object[]> rows;
+			while((rows = nextPending()) != null){
+				writeBatch(rows);
+			}
+		} finally{
+			writeLock.unlock();
+		}
+	}
+	
+	private void writeBatch(List<Object[]> rows) {
+		batches.increment();
+		PreparedStatement current;
+		try{
+			current = statement();
+		} catch(SQLException e){
+			fail(rows, e);
+			return;
+		}
+		try{
+			for(Object[] row : rows){
+				for(int i = 0; i < row.length; i++){
+					current.setObject(i + 1, row[i]);
+				}
+				current.addBatch();
+			}
+			current.executeBatch();
+			connection.commit();
+			writtenRows.add(rows.size());
+			QueryCache cache = queryCache;
+			if(cache != null){
+				cache.onWrite(sql);
+			}
+		} catch(SQLException e){
+			rollbackQuietly(connection);
+			fail(rows, e);
+			recover();
+		}
+	}
+	
+	/**
+	 * @return the statement of the writer, prepared on a connection taken for the first batch
+	 */
+	private PreparedStatement statement() throws SQLException {
+		if(statement != null){
+			return statement;
+		}
+		Connection opened = dataSource instanceof TypedDataSource typed ? typed.getExclusiveConnection(AccessIntent.WRITE) : dataSource.getConnection();
+		try{
+			restoreAutoCommit = opened.getAutoCommit();
+			opened.setAutoCommit(false);
+			statement = opened.prepareStatement(sql);
+		} catch(SQLException e){
+			try{
+				opened.close();
+			} catch(SQLException closeException){
+				e.addSuppressed(closeException);
+			}
+			throw e;
+		}
+		connection = opened;
+		return statement;
+	}
+	
+	/**
+	 * Keeps the connection after a failed batch if it is still usable, otherwise the next batch
+	 * takes a new one
+	 */
+	private void recover() {
+		try{
+			statement.clearBatch();
+			if(connection.isValid(1)){
+				return;
+			}
+		} catch(SQLException e){
+			log.log(Level.FINE, "Batch writer connection is unusable", e);
+		}
+		releaseConnection();
+	}
+	
+	private void releaseConnection() {
+		Connection current = connection;
+		PreparedStatement currentStatement = statement;
+		connection = null;
+		statement = null;
+		if(current == null){
+			return;
+		}
+		try(current){
+			currentStatement.close();
+			current.setAutoCommit(restoreAutoCommit);
+		} catch(SQLException e){
+			log.log(Level.FINE, "Failed to close batch writer connection", e);
+		}
+	}
+	
+	private void fail(List<Object[]> rows, SQLException e) {
+		failedRows.add(rows.size());
+		try{
+			failureHandler.accept(new BatchFailure(sql, rows, e));
+		} catch(RuntimeException handlerException){
+			log.log(Level.WARNING, "Batch failure handler threw", handlerException);
+		}
+	}
+	
+	private static void rollbackQuietly(Connection connection) {
+		try{
+			connection.rollback();
+		} catch(SQLException e){
+			log.log(Level.FINE, "Failed to roll back batch", e);
+		}
+	}
+	
+	private static void logFailure(BatchFailure failure) {
+		log.log(Level.WARNING, "Failed to write batch of " + failure.rows().size() + " rows for " + failure.sql(), failure.cause());
+	}
+	
+	/**
+	 * @return rows written successfully
+	 */
+	public long getWrittenRows() {
+		return writtenRows.sum();
+	}
+	
+	/**
+	 * @return rows in batches that failed
+	 */
+	public long getFailedRows() {
+		return failedRows.sum();
+	}
+	
+	/**
+	 * @return batches attempted
+	 */
+	public long getBatchCount() {
+		return batches.sum();
+	}
+	
+	/**
+	 * Writes all buffered rows, stops the background flush and closes the connection of the
+	 * writer, rows cannot be added afterwards
+	 */
+	@Override
+	public void close() {
+		synchronized(this){
+			if(closed){
+				return;
+			}
+			closed = true;
+			if(flusher != null){
+				flusher.shutdownNow();
+			}
+			takeBuffer();
+		}
+		writeLock.lock();
+		try{
+			writePending();
+			releaseConnection();
+		} finally{
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * A batch that could not be written, none of its rows were committed
+	 *
+	 * @param sql the statement of the writer
+	 * @param rows the parameters of every row in the batch
+	 * @param cause why the batch failed
+	 */
+	public record BatchFailure(String sql, List<Object[]> rows, SQLException cause){
+	}
+}
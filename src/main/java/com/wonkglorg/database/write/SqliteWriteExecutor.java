@@ -0,0 +1,406 @@
+package com.wonkglorg.database.write;
+
+import com.wonkglorg.database.datasources.AccessIntent;
+import com.wonkglorg.database.datasources.TypedDataSource;
+import com.wonkglorg.database.query.QueryCache;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs all writes to a sqlite database on one dedicated thread. Sqlite only allows a single
+ * writer at a time, funneling every write through one thread avoids {@code SQLITE_BUSY} and
+ * transactions of different threads interleaving on a shared connection.
+ * <p>
+ * Writes that queue up while a transaction is committing, or arrive within the commit window,
+ * are committed together in one transaction (group commit) so the cost of the commit is shared.
+ * Every write runs in its own savepoint, a failing write is rolled back alone and only its own
+ * future fails. Futures complete once the transaction containing the write was committed.
+ * <pre>
+ *     {@code
+ * CompletableFuture<Integer> result = database.writeExecutor().update("INSERT INTO logs(message) VALUES(?)", message);
+ * }
+ * </pre>
+ */
+@SuppressWarnings("unused")
+public class SqliteWriteExecutor implements AutoCloseable{
+	private static final Logger log = Logger.getLogger(SqliteWriteExecutor.class.getName());
+	private static final AtomicInteger EXECUTOR_COUNTER = new AtomicInteger();
+	private static final Task<?> SHUTDOWN = new Task<>(connection -> null, null);
+	
+	private final DataSource dataSource;
+	private final LinkedBlockingQueue<Task<?>> queue = new LinkedBlockingQueue<>();
+	private final Thread writer;
+	private volatile boolean closed = false;
+	private volatile long commitWindowNanos = 0;
+	private volatile int maxGroupSize = 1000;
+	private volatile QueryCache queryCache = null;
+	/**
+	 * The connection of the writer thread, only used by it. Opened for the first write and kept
+	 * until the executor is closed, reopened if it failed
+	 */
+	private Connection writerConnection;
+	
+	private final LongAdder commits = new LongAdder();
+	private final LongAdder writes = new LongAdder();
+	private final LongAdder failedWrites = new LongAdder();
+	
+	/**
+	 * Creates the executor and starts its writer thread
+	 *
+	 * @param dataSource the data source of the sqlite database, the writer uses a connection of
+	 * its own from {@link TypedDataSource#getExclusiveConnection(AccessIntent)} so transactions
+	 * never interleave with other users of a shared connection
+	 */
+	public SqliteWriteExecutor(DataSource dataSource) {
+		this.dataSource = dataSource;
+		this.writer = new Thread(this::run, "sqlite-writer-" + EXECUTOR_COUNTER.incrementAndGet());
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+	
+	/**
+	 * A unit of work executed on the writer thread
+	 *
+	 * @param <T> the result type
+	 */
+	@FunctionalInterface
+	public interface Write<T>{
+		/**
+		 * @param connection the connection of the writer, the write must not commit, roll back or
+		 * close it
+		 * @return the result the future of the write completes with
+		 */
+		T execute(Connection connection) throws SQLException;
+	}
+	
+	/**
+	 * @param millis how long the writer waits for further writes after the first one of a
+	 * transaction, 0 only groups writes that are already queued
+	 */
+	public SqliteWriteExecutor setCommitWindow(long millis) {
+		if(millis < 0){
+			throw new IllegalArgumentException("commitWindow cannot be negative");
+		}
+		this.commitWindowNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+		return this;
+	}
+	
+	public long getCommitWindow() {
+		return TimeUnit.NANOSECONDS.toMillis(commitWindowNanos);
+	}
+	
+	/**
+	 * @param maxGroupSize the maximum number of writes committed in one transaction
+	 */
+	public SqliteWriteExecutor setMaxGroupSize(int maxGroupSize) {
+		if(maxGroupSize < 1){
+			throw new IllegalArgumentException("maxGroupSize has to be at least 1");
+		}
+		this.maxGroupSize = maxGroupSize;
+		return this;
+	}
+	
+	public int getMaxGroupSize() {
+		return maxGroupSize;
+	}
+	
+	/**
+	 * @param queryCache invalidated after every committed group, for the tables of
+	 * {@link #update(String, Object...)} statements and completely for other writes. Null for none
+	 */
+	public SqliteWriteExecutor setQueryCache(QueryCache queryCache) {
+		this.queryCache = queryCache;
+		return this;
+	}
+	
+	public QueryCache getQueryCache() {
+		return queryCache;
+	}
+	
+	/**
+	 * Queues a write
+	 *
+	 * @param write the write to run on the writer thread
+	 * @return completes with the result of the write once it was committed, or exceptionally if
+	 * the write or the commit failed or the executor was closed
+	 */
+	public <T> CompletableFuture<T> submit(Write<T> write) {
+		return submit(write, null);
+	}
+	
+	private <T> CompletableFuture<T> submit(Write<T> write, String sql) {
+		Task<T> task = new Task<>(write, sql);
+		if(closed){
+			task.future.completeExceptionally(new IllegalStateException("SqliteWriteExecutor has been closed"));
+			return task.future;
+		}
+		queue.add(task);
+		//closed while adding, the writer may have drained the queue already
+		if(closed && queue.remove(task)){
+			task.future.completeExceptionally(new IllegalStateException("SqliteWriteExecutor has been closed"));
+		}
+		return task.future;
+	}
+	
+	/**
+	 * Queues a single update statement
+	 *
+	 * @param sql the statement to execute
+	 * @param parameters the values for its placeholders in order
+	 * @return completes with the update count once it was committed
+	 */
+	public CompletableFuture<Integer> update(String sql, Object... parameters) {
+		return submit(connection -> {
+			try(PreparedStatement statement = connection.prepareStatement(sql)){
+				for(int i = 0; i < parameters.length; i++){
+					statement.setObject(i + 1, parameters[i]);
+				}
+				return statement.executeUpdate();
+			}
+		}, sql);
+	}
+	
+	private void run() {
+		List<Task<?>> group = new ArrayList<>();
+		boolean running = true;
+		while(running){
+			try{
+				Task<?> first = queue.take();
+				if(first == SHUTDOWN){
+					break;
+				}
+				group.add(first);
+				running = collectGroup(group);
+				executeGroup(group);
+			} catch(InterruptedException e){
+				failAll(group, new IllegalStateException("Sqlite writer was interrupted", e));
+				running = false;
+			} catch(RuntimeException e){
+				log.log(Level.SEVERE, "Sqlite writer failed", e);
+				failAll(group, e);
+			} finally{
+				group.clear();
+			}
+		}
+		releaseConnection();
+		failRemaining();
+	}
+	
+	private void failRemaining() {
+		List<Task<?>> remaining = new ArrayList<>();
+		queue.drainTo(remaining);
+		remaining.remove(SHUTDOWN);
+		failAll(remaining, new IllegalStateException("SqliteWriteExecutor has been closed"));
+	}
+	
+	/**
+	 * Adds writes to the group until it is full, the queue is empty and the commit window passed
+	 *
+	 * @return false if the executor was shut down while collecting
+	 */
+	private boolean collectGroup(List<Task<?>> group) throws InterruptedException {
+		int max = maxGroupSize;
+		long window = commitWindowNanos;
+		long deadline = System.nanoTime() + window;
+		while(group.size() < max){
+			Task<?> next = queue.poll();
+			if(next == null && window > 0){
+				long remaining = deadline - System.nanoTime();
+				if(remaining <= 0){
+					break;
+				}
+				next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+			}
+			if(next == null){
+				break;
+			}
+			if(next == SHUTDOWN){
+				return false;
+			}
+			group.add(next);
+		}
+		return true;
+	}
+	
+	private void executeGroup(List<Task<?>> group) {
+		List<Task<?>> succeeded = new ArrayList<>(group.size());
+		try{
+			Connection connection = connection();
+			boolean autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+			try{
+				for(Task<?> task : group){
+					if(runInSavepoint(connection, task)){
+						succeeded.add(task);
+					}
+				}
+				connection.commit();
+				commits.increment();
+				writes.add(succeeded.size());
+				invalidateCache(succeeded);
+				for(Task<?> task : succeeded){
+					task.complete();
+				}
+			} catch(SQLException e){
+				rollbackQuietly(connection);
+				failAll(group, e);
+			} finally{
+				connection.setAutoCommit(autoCommit);
+			}
+		} catch(SQLException e){
+			releaseConnection();
+			failAll(group, e);
+		}
+	}
+	
+	private Connection connection() throws SQLException {
+		Connection current = writerConnection;
+		if(current == null || current.isClosed()){
+			current = dataSource instanceof TypedDataSource typed ? typed.getExclusiveConnection(AccessIntent.WRITE) : dataSource.getConnection();
+			writerConnection = current;
+		}
+		return current;
+	}
+	
+	private void releaseConnection() {
+		Connection current = writerConnection;
+		writerConnection = null;
+		if(current == null){
+			return;
+		}
+		try{
+			current.close();
+		} catch(SQLException e){
+			log.log(Level.FINE, "Failed to close writer connection", e);
+		}
+	}
+	
+	/**
+	 * @return true if the write succeeded, otherwise its future was failed
+	 * @throws SQLException if the savepoint itself failed, the transaction is unusable then
+	 */
+	private boolean runInSavepoint(Connection connection, Task<?> task) throws SQLException {
+		Savepoint savepoint = connection.setSavepoint();
+		try{
+			task.execute(connection);
+			connection.releaseSavepoint(savepoint);
+			return true;
+		} catch(SQLException | RuntimeException e){
+			connection.rollback(savepoint);
+			connection.releaseSavepoint(savepoint);
+			failedWrites.increment();
+			task.future.completeExceptionally(e);
+			return false;
+		}
+	}
+	
+	private void invalidateCache(List<Task<?>> written) {
+		QueryCache cache = queryCache;
+		if(cache == null || written.isEmpty()){
+			return;
+		}
+		for(Task<?> task : written){
+			if(task.sql == null){
+				cache.clear();
+				return;
+			}
+		}
+		for(Task<?> task : written){
+			cache.onWrite(task.sql);
+		}
+	}
+	
+	private void failAll(List<Task<?>> tasks, Throwable cause) {
+		for(Task<?> task : tasks){
+			if(task.future.completeExceptionally(cause)){
+				failedWrites.increment();
+			}
+		}
+	}
+	
+	private static void rollbackQuietly(Connection connection) {
+		try{
+			connection.rollback();
+		} catch(SQLException e){
+			log.log(Level.FINE, "Failed to roll back write group", e);
+		}
+	}
+	
+	/**
+	 * @return transactions committed
+	 */
+	public long getCommitCount() {
+		return commits.sum();
+	}
+	
+	/**
+	 * @return writes committed
+	 */
+	public long getWriteCount() {
+		return writes.sum();
+	}
+	
+	/**
+	 * @return writes that failed or were rolled back
+	 */
+	public long getFailedWriteCount() {
+		return failedWrites.sum();
+	}
+	
+	/**
+	 * Stops accepting writes, waits for the queued ones to be committed and stops the writer
+	 * thread
+	 */
+	@Override
+	public void close() {
+		if(closed){
+			return;
+		}
+		closed = true;
+		queue.add(SHUTDOWN);
+		try{
+			writer.join();
+		} catch(InterruptedException e){
+			writer.interrupt();
+			Thread.currentThread().interrupt();
+			return;
+		}
+		failRemaining();
+	}
+	
+	private static final class Task<T>{
+		private final Write<T> write;
+		/**
+		 * The statement of the write if known
+		 */
+		private final String sql;
+		private final CompletableFuture<T> future = new CompletableFuture<>();
+		private T result;
+		
+		private Task(Write<T> write, String sql) {
+			this.write = write;
+			this.sql = sql;
+		}
+		
+		private void execute(Connection connection) throws SQLException {
+			result = write.execute(connection);
+		}
+		
+		private void complete() {
+			future.complete(result);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package com.wonkglorg.database.datasources;
+
+import com.wonkglorg.database.DatabaseType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Routes between sqlite files, every file names itself in its origin table so a connection tells
+ * which data source it came from
+ */
+class RoutingDataSourceTest{
+	@TempDir
+	Path directory;
+	private RoutingDataSource router;
+	
+	@AfterEach
+	void close() {
+		if(router != null){
+			router.close();
+		}
+	}
+	
+	@Test
+	void readsGoToReplicasAndWritesToPrimary() throws SQLException {
+		router = new RoutingDataSource(file("primary")).addReplica(file("replica"), 1);
+		try(Connection connection = router.getConnection(AccessIntent.READ)){
+			assertEquals("replica", origin(connection));
+		}
+		try(Connection connection = router.getConnection(AccessIntent.WRITE)){
+			assertEquals("primary", origin(connection));
+			connection.setReadOnly(true);
+			assertEquals("replica", origin(connection));
+		}
+		assertEquals(0, router.getPrimaryReadCount());
+	}
+	
+	@Test
+	void saturatedReplicaStaysInRotation() throws SQLException {
+		PooledServerDataSource replica = pool("replica", new PoolConfig().setMaxPoolSize(1).setConnectionTimeout(200));
+		router = new RoutingDataSource(file("primary")).addReplica(replica, 1);
+		try(Connection held = router.getConnection(AccessIntent.READ)){
+			assertEquals("replica", origin(held));
+			try(Connection connection = router.getConnection(AccessIntent.READ)){
+				assertEquals("primary", origin(connection));
+			}
+			assertTrue(router.getReplicaStatus().get(0).healthy());
+		}
+		try(Connection connection = router.getConnection(AccessIntent.READ)){
+			assertEquals("replica", origin(connection));
+		}
+		assertEquals(1, router.getPrimaryReadCount());
+	}
+	
+	@Test
+	void brokenReplicaIsTakenOutOfRotation() throws SQLException {
+		PoolConfig config = new PoolConfig().setMaxPoolSize(1).setConnectionTimeout(300);
+		PooledServerDataSource broken = new PooledServerDataSource(DatabaseType.SQLITE, directory.resolve("missing").resolve("replica.db").toString(), null, null, config);
+		router = new RoutingDataSource(file("primary")).addReplica(broken, 1).addReplica(file("replica"), 1).setBalancing(RoutingDataSource.Balancing.WEIGHTED_ROUND_ROBIN);
+		for(int i = 0; i < 4; i++){
+			try(Connection connection = router.getConnection(AccessIntent.READ)){
+				assertEquals("replica", origin(connection));
+			}
+		}
+		assertFalse(router.getReplicaStatus().get(0).healthy());
+		assertTrue(router.getReplicaStatus().get(1).healthy());
+	}
+	
+	@Test
+	void probeSkipsBusyReplica() throws SQLException, InterruptedException {
+		PooledServerDataSource replica = pool("replica", new PoolConfig().setMaxPoolSize(1).setConnectionTimeout(200));
+		router = new RoutingDataSource(file("primary")).addReplica(replica, 1).setProbeInterval(10);
+		try(Connection held = router.getConnection(AccessIntent.READ)){
+			assertEquals("replica", origin(held));
+			long borrowed = replica.getMetrics().borrowed();
+			Thread.sleep(500);
+			assertEquals(borrowed, replica.getMetrics().borrowed());
+			assertEquals(0, replica.getMetrics().timeouts());
+			assertTrue(router.getReplicaStatus().get(0).healthy());
+		}
+		long borrowed = replica.getMetrics().borrowed();
+		long deadline = System.nanoTime() + 5_000_000_000L;
+		while(replica.getMetrics().borrowed() == borrowed && System.nanoTime() < deadline){
+			Thread.sleep(10);
+		}
+		assertTrue(replica.getMetrics().borrowed() > borrowed, "idle replica was not probed");
+	}
+	
+	private FileDataSource file(String name) throws SQLException {
+		FileDataSource dataSource = new FileDataSource(DatabaseType.SQLITE, directory.resolve(name + ".db"));
+		createOrigin(dataSource.getConnection(), name);
+		return dataSource;
+	}
+	
+	private PooledServerDataSource pool(String name, PoolConfig config) throws SQLException {
+		PooledServerDataSource dataSource = new PooledServerDataSource(DatabaseType.SQLITE, directory.resolve(name + ".db").toString(), null, null, config);
+		try(Connection connection = dataSource.getConnection()){
+			createOrigin(connection, name);
+		}
+		return dataSource;
+	}
+	
+	private static void createOrigin(Connection connection, String name) throws SQLException {
+		try(Statement statement = connection.createStatement()){
+			statement.execute("CREATE TABLE origin(name TEXT)");
+			statement.execute("INSERT INTO origin VALUES('" + name + "')");
+		}
+	}
+	
+	private static String origin(Connection connection) throws SQLException {
+		try(Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery("SELECT name FROM origin")){
+			resultSet.next();
+			return resultSet.getString(1);
+		}
+	}
+}
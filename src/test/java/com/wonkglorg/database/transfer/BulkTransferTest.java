@@ -0,0 +1,119 @@
+package com.wonkglorg.database.transfer;
+
+import com.wonkglorg.database.DatabaseType;
+import com.wonkglorg.database.datasources.FileDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Exports a sqlite table with text, real and blob columns and imports it into an empty copy, the
+ * copy has to hold the same rows
+ */
+class BulkTransferTest{
+	private static final String COLUMNS = "(id INTEGER PRIMARY KEY, name TEXT, score REAL, data BLOB)";
+	@TempDir
+	Path directory;
+	private FileDataSource dataSource;
+	private BulkTransfer transfer;
+	
+	@BeforeEach
+	void open() throws SQLException {
+		dataSource = new FileDataSource(DatabaseType.SQLITE, directory.resolve("transfer.db"));
+		try(Statement statement = connection().createStatement()){
+			statement.execute("CREATE TABLE items " + COLUMNS);
+			statement.execute("CREATE TABLE copy " + COLUMNS);
+		}
+		try(PreparedStatement statement = connection().prepareStatement("INSERT INTO items VALUES (?, ?, ?, ?)")){
+			for(int i = 0; i < 250; i++){
+				statement.setInt(1, i);
+				statement.setString(2, i % 10 == 0 ? "quoted, \"name\"\n" + i : "name" + i);
+				statement.setDouble(3, i * 0.5);
+				statement.setBytes(4, i % 7 == 0 ? null : new byte[]{(byte) i, 0, (byte) -i, 44});
+				statement.addBatch();
+			}
+			statement.executeBatch();
+		}
+		transfer = new BulkTransfer(dataSource).setBatchSize(64);
+	}
+	
+	@Test
+	void csvRoundTripKeepsBlobs() throws SQLException {
+		roundTrip(TransferFormat.CSV);
+	}
+	
+	@Test
+	void binaryRoundTripKeepsBlobs() throws SQLException {
+		roundTrip(TransferFormat.BINARY);
+	}
+	
+	@Test
+	void malformedRowFailsTheWholeImport() throws SQLException {
+		String csv = "id,name,score,data\n1,one,1.5,AQI=\n2,two\n3,three,3.5,\n";
+		assertThrows(RuntimeException.class, () -> transfer.importRows("copy", input(csv), TransferFormat.CSV));
+		assertEquals(0, rows("copy").size());
+	}
+	
+	@Test
+	void invalidBase64FailsTheImport() throws SQLException {
+		String csv = "id,name,score,data\n1,one,1.5,not base64!\n";
+		assertThrows(RuntimeException.class, () -> transfer.importRows("copy", input(csv), TransferFormat.CSV));
+		assertEquals(0, rows("copy").size());
+	}
+	
+	@Test
+	void exportRejectsTablesThatDoNotExist() throws SQLException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertThrows(RuntimeException.class, () -> transfer.exportTable("items; DROP TABLE items", out, TransferFormat.CSV));
+		assertEquals(250, rows("items").size());
+	}
+	
+	private void roundTrip(TransferFormat format) throws SQLException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TransferProgress exported = transfer.exportTable("ITEMS", out, format);
+		assertEquals(250, exported.rows());
+		assertTrue(exported.finished());
+		TransferProgress imported = transfer.importRows("copy", new ByteArrayInputStream(out.toByteArray()), format);
+		assertEquals(250, imported.rows());
+		assertEquals(rows("items"), rows("copy"));
+	}
+	
+	/**
+	 * @return every row as text, blobs in hex, ordered by id
+	 */
+	private List<List<String>> rows(String table) throws SQLException {
+		List<List<String>> rows = new ArrayList<>();
+		try(Statement statement = connection().createStatement(); ResultSet resultSet = statement.executeQuery("SELECT id, name, score, data FROM " + table + " ORDER BY id")){
+			while(resultSet.next()){
+				byte[] data = resultSet.getBytes(4);
+				rows.add(List.of(resultSet.getString(1), resultSet.getString(2), resultSet.getString(3), data == null ? "null" : HexFormat.of().formatHex(data)));
+			}
+		}
+		return rows;
+	}
+	
+	private Connection connection() {
+		return dataSource.getConnection();
+	}
+	
+	private static ByteArrayInputStream input(String text) {
+		return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+	}
+}